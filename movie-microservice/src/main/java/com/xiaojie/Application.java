@@ -11,7 +11,7 @@ import org.springframework.data.rest.webmvc.config.RepositoryRestMvcConfiguratio
 import javax.annotation.PostConstruct;
 
 @SpringBootApplication
-@ComponentScan(basePackages = { "service.config", "service.data" })
+@ComponentScan(basePackages = { "com.xiaojie.data", "com.xiaojie.controller" })
 @EnableZuulProxy
 public class Application {
 
@@ -0,0 +1,50 @@
+package com.xiaojie.controller;
+
+import com.xiaojie.data.cache.MovieCache;
+import com.xiaojie.data.domain.MovieSummary;
+import com.xiaojie.data.search.MovieSearch;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.web.bind.annotation.RequestMapping;
+import org.springframework.web.bind.annotation.RequestMethod;
+import org.springframework.web.bind.annotation.RequestParam;
+import org.springframework.web.bind.annotation.RestController;
+
+import java.util.List;
+
+/**
+ * Batch lookup and title search of movies, served from {@link MovieCache} and {@link MovieSearch} instead of paged
+ * repository queries
+ */
+@RestController
+public class MovieLookupController {
+
+    @Autowired
+    private MovieCache movieCache;
+
+    @Autowired
+    private MovieSearch movieSearch;
+
+    /**
+     * @param ids comma-separated movie ids, e.g. {@code /lookup/movies?ids=1,2,3}
+     * @return the summaries of the known movies, in the order of the ids
+     */
+    @RequestMapping(value = "/lookup/movies", method = RequestMethod.GET)
+    public List<MovieSummary> findByIds(@RequestParam(value = "ids", defaultValue = "") Long[] ids) {
+        return movieCache.findByIds(ids);
+    }
+
+    /**
+     * @param title words or parts of words of the title, e.g. {@code /lookup/movies/search?title=star wa}
+     * @param size  maximum number of movies
+     * @return the summaries of the movies whose title contains every word, best matches first
+     */
+    @RequestMapping(value = "/lookup/movies/search", method = RequestMethod.GET)
+    public List<MovieSummary> searchByTitle(@RequestParam("title") String title,
+                                            @RequestParam(value = "size", defaultValue = "20") int size) {
+        long[] ids = movieSearch.searchByTitle(title, Math.min(size, 1000));
+        Long[] boxed = new Long[ids.length];
+        for (int i = 0; i < ids.length; i++)
+            boxed[i] = ids[i];
+        return movieCache.findByIds(boxed);
+    }
+}
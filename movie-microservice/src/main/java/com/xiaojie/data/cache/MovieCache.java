@@ -0,0 +1,169 @@
+package com.xiaojie.data.cache;
+
+import com.google.common.cache.Cache;
+import com.google.common.cache.CacheBuilder;
+import com.xiaojie.data.domain.Genre;
+import com.xiaojie.data.domain.Movie;
+import com.xiaojie.data.domain.MovieSummary;
+import com.xiaojie.data.repositories.MovieRepository;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.boot.context.event.ApplicationReadyEvent;
+import org.springframework.context.event.EventListener;
+import org.springframework.data.rest.core.annotation.HandleAfterCreate;
+import org.springframework.data.rest.core.annotation.HandleAfterDelete;
+import org.springframework.data.rest.core.annotation.HandleAfterLinkDelete;
+import org.springframework.data.rest.core.annotation.HandleAfterLinkSave;
+import org.springframework.data.rest.core.annotation.HandleAfterSave;
+import org.springframework.data.rest.core.annotation.RepositoryEventHandler;
+import org.springframework.stereotype.Component;
+
+import java.util.*;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Read-through cache of {@link MovieSummary} projections for the batch lookup API.
+ *
+ * The cache is bounded by the approximate size of its entries, prewarmed with the movie table on startup and
+ * invalidated whenever a movie, or the genres linked to it, are written through the repository REST API. A batch
+ * lookup hits the database once at most, for the ids that are not cached.
+ */
+@Component
+@RepositoryEventHandler(Movie.class)
+public class MovieCache {
+
+    private static final Logger log = LoggerFactory.getLogger(MovieCache.class);
+
+    private final MovieRepository movieRepository;
+
+    private final Cache<Long, MovieSummary> movies;
+
+    // one shared copy of each genre, referenced by all the summaries
+    private final Map<Long, Genre> genres = new ConcurrentHashMap<>();
+
+    // bumped on every write, so that a lookup racing with a write does not cache what it read before
+    private final AtomicLong writes = new AtomicLong();
+
+    @Autowired
+    public MovieCache(MovieRepository movieRepository,
+                      @Value("${movie.cache.maximum-weight:16777216}") long maximumWeight) {
+        this.movieRepository = movieRepository;
+        this.movies = CacheBuilder.newBuilder()
+                .maximumWeight(maximumWeight)
+                .weigher((Long id, MovieSummary movie) -> movie.weight())
+                .recordStats()
+                .build();
+    }
+
+    /**
+     * Find the summaries of some movies, in the order of the ids; unknown and null ids, e.g. the empty ones of
+     * {@code ids=1,,2}, are skipped
+     */
+    public List<MovieSummary> findByIds(Long[] ids) {
+        List<Long> known = new ArrayList<>(ids.length);
+        for (Long id : ids) {
+            if (id != null)
+                known.add(id);
+        }
+        Map<Long, MovieSummary> found = new HashMap<>(movies.getAllPresent(known));
+
+        Set<Long> missing = new HashSet<>();
+        for (Long id : known) {
+            if (!found.containsKey(id))
+                missing.add(id);
+        }
+
+        if (!missing.isEmpty()) {
+            long generation = writes.get();
+            Map<Long, MovieSummary> loaded = summarize(movieRepository.findAll(missing));
+            cache(generation, loaded);
+            found.putAll(loaded);
+        }
+
+        List<MovieSummary> result = new ArrayList<>(ids.length);
+        for (Long id : ids) {
+            MovieSummary movie = id == null ? null : found.get(id);
+            if (movie != null)
+                result.add(movie);
+        }
+        return result;
+    }
+
+    /**
+     * Load the whole movie table, as seeded from the data scripts, before the first request
+     */
+    @EventListener(ApplicationReadyEvent.class)
+    public void prewarm() {
+        long start = System.currentTimeMillis();
+        long generation = writes.get();
+        Map<Long, MovieSummary> loaded = summarize(movieRepository.findAll());
+        cache(generation, loaded);
+
+        log.info("Prewarmed movie cache with {} of {} movies in {} ms", movies.size(), loaded.size(),
+                System.currentTimeMillis() - start);
+    }
+
+    @HandleAfterCreate
+    @HandleAfterSave
+    @HandleAfterDelete
+    public void invalidate(Movie movie) {
+        writes.incrementAndGet();
+        movies.invalidate(movie.getId());
+    }
+
+    @HandleAfterLinkSave
+    @HandleAfterLinkDelete
+    public void invalidateLink(Movie movie, Object linked) {
+        invalidate(movie);
+    }
+
+    public void invalidateAll() {
+        writes.incrementAndGet();
+        movies.invalidateAll();
+    }
+
+    public long size() {
+        return movies.size();
+    }
+
+    /**
+     * Cache summaries read at a given generation, unless a write happened since. A write whose invalidation runs
+     * between the check and the put bumps the generation first, so the summaries just put are dropped again.
+     */
+    private void cache(long generation, Map<Long, MovieSummary> loaded) {
+        if (generation != writes.get())
+            return;
+        movies.putAll(loaded);
+        if (generation != writes.get())
+            movies.invalidateAll(loaded.keySet());
+    }
+
+    private Map<Long, MovieSummary> summarize(Iterable<Movie> loaded) {
+        Map<Long, MovieSummary> summaries = new HashMap<>();
+        for (Movie movie : loaded) {
+            List<Genre> shared = new ArrayList<>(movie.getGenres().size());
+            for (Genre genre : movie.getGenres())
+                shared.add(intern(genre));
+
+            summaries.put(movie.getId(), new MovieSummary(movie.getId(), movie.getTitle(), movie.getReleased(),
+                    movie.getUrl(), Collections.unmodifiableList(shared)));
+        }
+        return summaries;
+    }
+
+    private Genre intern(Genre genre) {
+        return genres.compute(genre.getId(), (id, cached) -> {
+            if (cached != null && Objects.equals(cached.getName(), genre.getName()))
+                return cached;
+
+            // a detached copy, so that the cache does not hold on to the persistence context
+            Genre copy = new Genre();
+            copy.setId(id);
+            copy.setName(genre.getName());
+            return copy;
+        });
+    }
+}
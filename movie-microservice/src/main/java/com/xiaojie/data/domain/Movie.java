@@ -1,5 +1,6 @@
 package com.xiaojie.data.domain;
 
+import org.hibernate.annotations.BatchSize;
 import org.springframework.data.rest.core.annotation.RestResource;
 
 import javax.persistence.*;
@@ -27,7 +28,9 @@ public class Movie implements Serializable {
     @Column
     String url;
 
+    // genres of the movies of a page are loaded by one batched select instead of one select per movie
     @ManyToMany(cascade = CascadeType.ALL, fetch = FetchType.EAGER)
+    @BatchSize(size = 100)
     @JoinTable(name = "movie_genre",
         inverseJoinColumns = {
                 @JoinColumn
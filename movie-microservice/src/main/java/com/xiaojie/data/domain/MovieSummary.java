@@ -0,0 +1,55 @@
+package com.xiaojie.data.domain;
+
+import java.io.Serializable;
+import java.util.List;
+
+/**
+ * A compact, immutable projection of a {@link Movie} served by the batch lookup API. Genres are shared
+ * between summaries rather than copied per movie.
+ */
+public class MovieSummary implements Serializable {
+
+    private static final long serialVersionUID = -3952735933715107252L;
+
+    private final Long id;
+    private final String title;
+    private final Long released;
+    private final String url;
+    private final List<Genre> genres;
+
+    public MovieSummary(Long id, String title, Long released, String url, List<Genre> genres) {
+        this.id = id;
+        this.title = title;
+        this.released = released;
+        this.url = url;
+        this.genres = genres;
+    }
+
+    public Long getId() {
+        return id;
+    }
+
+    public String getTitle() {
+        return title;
+    }
+
+    public Long getReleased() {
+        return released;
+    }
+
+    public String getUrl() {
+        return url;
+    }
+
+    public List<Genre> getGenres() {
+        return genres;
+    }
+
+    /**
+     * Approximate retained size in bytes, used to bound the cache by memory rather than by entry count
+     */
+    public int weight() {
+        int chars = (title == null ? 0 : title.length()) + (url == null ? 0 : url.length());
+        return 96 + 2 * chars + 8 * genres.size();
+    }
+}
@@ -3,9 +3,13 @@ package com.xiaojie.data.repositories;
 import org.springframework.data.domain.Page;
 import org.springframework.data.domain.Pageable;
 import org.springframework.data.jpa.repository.JpaRepository;
+import org.springframework.data.jpa.repository.Query;
 import org.springframework.data.repository.query.Param;
+import org.springframework.data.rest.core.annotation.RestResource;
 import com.xiaojie.data.domain.Movie;
 
+import java.util.List;
+
 /**
  * @author Kenny Bastani
  *
@@ -14,4 +18,11 @@ import com.xiaojie.data.domain.Movie;
 public interface MovieRepository extends JpaRepository<Movie, Long> {
     Page<Movie> findByTitleContainingIgnoreCase(@Param("title")String title, Pageable pageable);
     Page<Movie> findByIdIn(@Param("ids")Long[] ids, Pageable pageable);
+
+    /**
+     * @return the id and title of every movie, without their genres
+     */
+    @RestResource(exported = false)
+    @Query("select m.id, m.title from Movie m")
+    List<Object[]> findAllTitles();
 }
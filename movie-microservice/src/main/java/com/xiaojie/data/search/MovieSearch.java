@@ -0,0 +1,61 @@
+package com.xiaojie.data.search;
+
+import com.xiaojie.data.domain.Movie;
+import com.xiaojie.data.repositories.MovieRepository;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.boot.context.event.ApplicationReadyEvent;
+import org.springframework.context.event.EventListener;
+import org.springframework.data.rest.core.annotation.HandleAfterCreate;
+import org.springframework.data.rest.core.annotation.HandleAfterDelete;
+import org.springframework.data.rest.core.annotation.HandleAfterSave;
+import org.springframework.data.rest.core.annotation.RepositoryEventHandler;
+import org.springframework.stereotype.Component;
+
+/**
+ * Title search over a {@link TitleIndex} of the movie table, built on startup and kept up to date with the movies
+ * created, updated and deleted through the repository REST API.
+ */
+@Component
+@RepositoryEventHandler(Movie.class)
+public class MovieSearch {
+
+    private static final Logger log = LoggerFactory.getLogger(MovieSearch.class);
+
+    private final MovieRepository movieRepository;
+
+    private final TitleIndex index = new TitleIndex();
+
+    @Autowired
+    public MovieSearch(MovieRepository movieRepository) {
+        this.movieRepository = movieRepository;
+    }
+
+    /**
+     * @return ids of the movies best matching a query, best first
+     */
+    public long[] searchByTitle(String query, int limit) {
+        return index.search(query, limit);
+    }
+
+    @EventListener(ApplicationReadyEvent.class)
+    public void build() {
+        long start = System.currentTimeMillis();
+        for (Object[] row : movieRepository.findAllTitles())
+            index.put((Long) row[0], (String) row[1]);
+
+        log.info("Indexed {} movie titles in {} ms", index.size(), System.currentTimeMillis() - start);
+    }
+
+    @HandleAfterCreate
+    @HandleAfterSave
+    public void index(Movie movie) {
+        index.put(movie.getId(), movie.getTitle());
+    }
+
+    @HandleAfterDelete
+    public void remove(Movie movie) {
+        index.remove(movie.getId());
+    }
+}
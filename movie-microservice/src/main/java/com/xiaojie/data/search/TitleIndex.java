@@ -0,0 +1,321 @@
+package com.xiaojie.data.search;
+
+import java.text.Normalizer;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.locks.ReadWriteLock;
+import java.util.concurrent.locks.ReentrantReadWriteLock;
+import java.util.regex.Pattern;
+
+/**
+ * In-memory inverted index of movie titles for substring and prefix search.
+ *
+ * Titles are normalized (lower case, no accents, alphanumeric tokens) and every 1-, 2- and 3-gram of every token
+ * is mapped to a sorted posting list of document ordinals. A query token of up to 3 characters is answered by its
+ * own posting list; a longer one by the intersection of the lists of its trigrams, verified against the titles.
+ * All the tokens of a query must match, and matches are ranked by how well they match: whole tokens before token
+ * prefixes before substrings, the whole query as a phrase first, then shorter titles first.
+ *
+ * Searches take a read lock and run in time proportional to the posting lists of the query grams; writes take the
+ * write lock. Removed titles are skipped by searches until the index is compacted.
+ */
+public class TitleIndex {
+
+    private static final int GRAM = 3;
+
+    private static final Pattern ACCENTS = Pattern.compile("\\p{M}+");
+    private static final Pattern SEPARATORS = Pattern.compile("[^\\p{L}\\p{N}]+");
+
+    private static final int EXACT = 3, PREFIX = 2, SUBSTRING = 1;
+
+    private final ReadWriteLock lock = new ReentrantReadWriteLock();
+
+    // documents by ordinal; a removed document keeps its ordinal with a null title
+    private long[] ids = new long[16];
+    private String[] titles = new String[16];
+    private String[][] tokens = new String[16][];
+    private int numDocs, numRemoved;
+
+    private final Map<Long, Integer> ordinals = new HashMap<>();
+    private final Map<String, Postings> postings = new HashMap<>();
+
+    /**
+     * Index the title of a movie, replacing its previous title if any
+     */
+    public void put(long id, String title) {
+        lock.writeLock().lock();
+        try {
+            removeOrdinal(id);
+            add(id, title);
+            compactIfSparse();
+        } finally {
+            lock.writeLock().unlock();
+        }
+    }
+
+    /**
+     * Remove the title of a movie from the index
+     */
+    public void remove(long id) {
+        lock.writeLock().lock();
+        try {
+            removeOrdinal(id);
+            compactIfSparse();
+        } finally {
+            lock.writeLock().unlock();
+        }
+    }
+
+    /**
+     * @return number of indexed titles
+     */
+    public int size() {
+        lock.readLock().lock();
+        try {
+            return numDocs - numRemoved;
+        } finally {
+            lock.readLock().unlock();
+        }
+    }
+
+    /**
+     * Find the movies whose title contains every token of a query
+     *
+     * @param query free text, matched case and accent insensitively
+     * @param limit maximum number of matches
+     * @return ids of the best matches, best first
+     */
+    public long[] search(String query, int limit) {
+        String[] terms = tokenize(normalize(query));
+        if (terms.length == 0 || limit <= 0)
+            return new long[0];
+
+        lock.readLock().lock();
+        try {
+            int[] candidates = null;
+            for (String term : terms) {
+                int[] docs = candidates(term);
+                candidates = candidates == null ? docs : intersect(candidates, docs);
+                if (candidates.length == 0)
+                    return new long[0];
+            }
+
+            String phrase = String.join(" ", terms);
+            long[] heap = new long[Math.min(limit, candidates.length)];
+            int size = 0;
+            for (int doc : candidates) {
+                if (titles[doc] == null)
+                    continue;
+
+                int score = score(doc, terms, phrase);
+                if (score == 0)
+                    continue;
+
+                // rank by score, then shorter titles, then earlier documents
+                long key = (long) score << 47
+                        | (long) (0xFFFF - Math.min(titles[doc].length(), 0xFFFF)) << 31
+                        | (Integer.MAX_VALUE - doc);
+                if (size < heap.length)
+                    siftUp(heap, size++, key);
+                else if (key > heap[0])
+                    siftDown(heap, size, key);
+            }
+
+            long[] keys = Arrays.copyOf(heap, size);
+            Arrays.sort(keys);
+            long[] result = new long[size];
+            for (int i = 0; i < size; i++)
+                result[i] = ids[Integer.MAX_VALUE - (int) (keys[size - 1 - i] & Integer.MAX_VALUE)];
+            return result;
+        } finally {
+            lock.readLock().unlock();
+        }
+    }
+
+    /**
+     * @return lower case text without accents, with single spaces between alphanumeric tokens
+     */
+    static String normalize(String text) {
+        if (text == null)
+            return "";
+        String plain = ACCENTS.matcher(Normalizer.normalize(text, Normalizer.Form.NFD)).replaceAll("");
+        return SEPARATORS.matcher(plain.toLowerCase()).replaceAll(" ").trim();
+    }
+
+    private static String[] tokenize(String normalized) {
+        return normalized.isEmpty() ? new String[0] : normalized.split(" ");
+    }
+
+    private void add(long id, String title) {
+        if (numDocs == ids.length) {
+            int capacity = numDocs + (numDocs >> 1);
+            ids = Arrays.copyOf(ids, capacity);
+            titles = Arrays.copyOf(titles, capacity);
+            tokens = Arrays.copyOf(tokens, capacity);
+        }
+
+        int doc = numDocs++;
+        String normalized = normalize(title);
+        ids[doc] = id;
+        titles[doc] = normalized;
+        tokens[doc] = tokenize(normalized);
+        ordinals.put(id, doc);
+
+        for (String token : tokens[doc]) {
+            for (int n = 1; n <= GRAM; n++) {
+                for (int i = 0; i + n <= token.length(); i++) {
+                    String gram = token.substring(i, i + n);
+                    Postings list = postings.get(gram);
+                    if (list == null)
+                        postings.put(gram, list = new Postings());
+                    list.add(doc);
+                }
+            }
+        }
+    }
+
+    private void removeOrdinal(long id) {
+        Integer doc = ordinals.remove(id);
+        if (doc != null) {
+            titles[doc] = null;
+            tokens[doc] = null;
+            numRemoved++;
+        }
+    }
+
+    /**
+     * Reassign ordinals once most of the documents are removed, so that posting lists stay dense
+     */
+    private void compactIfSparse() {
+        if (numRemoved < 64 || numRemoved * 2 < numDocs)
+            return;
+
+        List<Long> liveIds = new ArrayList<>(numDocs - numRemoved);
+        List<String> liveTitles = new ArrayList<>(numDocs - numRemoved);
+        for (int doc = 0; doc < numDocs; doc++) {
+            if (titles[doc] != null) {
+                liveIds.add(ids[doc]);
+                liveTitles.add(titles[doc]);
+            }
+        }
+
+        numDocs = numRemoved = 0;
+        ordinals.clear();
+        postings.clear();
+        for (int i = 0; i < liveIds.size(); i++)
+            add(liveIds.get(i), liveTitles.get(i));
+    }
+
+    /**
+     * @return sorted ordinals of the documents that may contain a term
+     */
+    private int[] candidates(String term) {
+        if (term.length() <= GRAM)
+            return docs(term);
+
+        int[] candidates = null;
+        for (int i = 0; i + GRAM <= term.length(); i++) {
+            int[] docs = docs(term.substring(i, i + GRAM));
+            candidates = candidates == null ? docs : intersect(candidates, docs);
+            if (candidates.length == 0)
+                break;
+        }
+        return candidates;
+    }
+
+    private int[] docs(String gram) {
+        Postings list = postings.get(gram);
+        return list == null ? new int[0] : Arrays.copyOf(list.docs, list.size);
+    }
+
+    private static int[] intersect(int[] a, int[] b) {
+        int[] result = new int[Math.min(a.length, b.length)];
+        int size = 0;
+        for (int i = 0, j = 0; i < a.length && j < b.length; ) {
+            if (a[i] < b[j])
+                i++;
+            else if (a[i] > b[j])
+                j++;
+            else {
+                result[size++] = a[i];
+                i++;
+                j++;
+            }
+        }
+        return size == result.length ? result : Arrays.copyOf(result, size);
+    }
+
+    /**
+     * @return sum of the best match of each term in the title, plus a bonus for the whole query; 0 if a term does
+     *         not occur in the title
+     */
+    private int score(int doc, String[] terms, String phrase) {
+        int score = 0;
+        for (String term : terms) {
+            int best = 0;
+            for (String token : tokens[doc]) {
+                if (token.equals(term)) {
+                    best = EXACT;
+                    break;
+                } else if (token.startsWith(term))
+                    best = PREFIX;
+                else if (best == 0 && token.contains(term))
+                    best = SUBSTRING;
+            }
+            if (best == 0)
+                return 0;
+            score += best;
+        }
+
+        if (terms.length > 1 && titles[doc].contains(phrase))
+            score += EXACT * terms.length;
+        return score;
+    }
+
+    // min-heap of the best keys found so far
+    private static void siftUp(long[] heap, int i, long key) {
+        while (i > 0) {
+            int parent = (i - 1) >>> 1;
+            if (heap[parent] <= key)
+                break;
+            heap[i] = heap[parent];
+            i = parent;
+        }
+        heap[i] = key;
+    }
+
+    private static void siftDown(long[] heap, int size, long key) {
+        int i = 0;
+        while (true) {
+            int child = 2 * i + 1;
+            if (child >= size)
+                break;
+            if (child + 1 < size && heap[child + 1] < heap[child])
+                child++;
+            if (key <= heap[child])
+                break;
+            heap[i] = heap[child];
+            i = child;
+        }
+        heap[i] = key;
+    }
+
+    /**
+     * Growable list of document ordinals, sorted since documents are only ever appended
+     */
+    private static final class Postings {
+        int[] docs = new int[4];
+        int size;
+
+        void add(int doc) {
+            if (size > 0 && docs[size - 1] == doc)
+                return; // gram repeated in the same title
+            if (size == docs.length)
+                docs = Arrays.copyOf(docs, size + (size >> 1) + 1);
+            docs[size++] = doc;
+        }
+    }
+}
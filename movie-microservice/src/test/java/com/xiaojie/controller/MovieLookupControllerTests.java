@@ -0,0 +1,54 @@
+package com.xiaojie.controller;
+
+import com.xiaojie.Application;
+import com.xiaojie.data.domain.MovieSummary;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.boot.test.SpringApplicationConfiguration;
+import org.springframework.test.context.TestPropertySource;
+import org.springframework.test.context.junit4.SpringJUnit4ClassRunner;
+import org.springframework.test.context.web.WebAppConfiguration;
+
+import java.util.List;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+/**
+ * Batch lookup of movies through the controller and the cache registered by the application's component scan, on the
+ * bundled HSQLDB data
+ */
+@RunWith(SpringJUnit4ClassRunner.class)
+@SpringApplicationConfiguration(classes = Application.class)
+@WebAppConfiguration
+@TestPropertySource(properties = "eureka.client.enabled=false")
+public class MovieLookupControllerTests {
+
+    @Autowired
+    MovieLookupController movieLookupController;
+
+    @Test
+    public void findByIdsKeepsOrderOfIds() {
+        List<MovieSummary> movies = movieLookupController.findByIds(new Long[]{3L, 1L, 2L});
+
+        assertEquals(3, movies.size());
+        assertEquals(Long.valueOf(3), movies.get(0).getId());
+        assertEquals(Long.valueOf(1), movies.get(1).getId());
+        assertEquals(Long.valueOf(2), movies.get(2).getId());
+    }
+
+    @Test
+    public void findByIdsSkipsNullAndUnknownIds() {
+        List<MovieSummary> movies = movieLookupController.findByIds(new Long[]{1L, null, 2L, -1L});
+
+        assertEquals(2, movies.size());
+        assertEquals(Long.valueOf(1), movies.get(0).getId());
+        assertEquals(Long.valueOf(2), movies.get(1).getId());
+    }
+
+    @Test
+    public void findByIdsOfNoIds() {
+        assertTrue(movieLookupController.findByIds(new Long[0]).isEmpty());
+    }
+}
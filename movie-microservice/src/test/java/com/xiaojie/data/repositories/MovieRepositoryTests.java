@@ -0,0 +1,93 @@
+package com.xiaojie.data.repositories;
+
+import com.xiaojie.Application;
+import com.xiaojie.data.domain.Movie;
+import org.hibernate.SessionFactory;
+import org.hibernate.stat.Statistics;
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.boot.test.SpringApplicationConfiguration;
+import org.springframework.data.domain.Page;
+import org.springframework.data.domain.PageRequest;
+import org.springframework.test.context.TestPropertySource;
+import org.springframework.test.context.junit4.SpringJUnit4ClassRunner;
+import org.springframework.test.context.web.WebAppConfiguration;
+
+import javax.persistence.EntityManagerFactory;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+/**
+ * Counts the statements fired by the paged movie queries on the bundled HSQLDB data: the movies (and the page
+ * count) queries, plus a single select of the genres of the whole page.
+ */
+@RunWith(SpringJUnit4ClassRunner.class)
+@SpringApplicationConfiguration(classes = Application.class)
+@WebAppConfiguration
+@TestPropertySource(properties = "eureka.client.enabled=false")
+public class MovieRepositoryTests {
+
+    @Autowired
+    MovieRepository movieRepository;
+
+    @Autowired
+    EntityManagerFactory entityManagerFactory;
+
+    Statistics statistics;
+
+    @Before
+    public void clearStatistics() {
+        statistics = entityManagerFactory.unwrap(SessionFactory.class).getStatistics();
+        statistics.setStatisticsEnabled(true);
+        statistics.clear();
+    }
+
+    @Test
+    public void findByTitleLoadsGenresOfPageInOneStatement() {
+        Page<Movie> page = movieRepository.findByTitleContainingIgnoreCase("the", new PageRequest(0, 20));
+
+        assertEquals(20, page.getContent().size());
+        assertGenresLoaded(page);
+        assertOneGenreStatement();
+    }
+
+    @Test
+    public void findByIdInLoadsGenresOfPageInOneStatement() {
+        Long[] ids = new Long[50];
+        for (int i = 0; i < ids.length; i++)
+            ids[i] = i + 1L;
+
+        Page<Movie> page = movieRepository.findByIdIn(ids, new PageRequest(0, ids.length));
+
+        assertEquals(ids.length, page.getContent().size());
+        assertGenresLoaded(page);
+        assertOneGenreStatement();
+    }
+
+    @Test
+    public void findAllLoadsGenresOfPageInOneStatement() {
+        Page<Movie> page = movieRepository.findAll(new PageRequest(3, 100));
+
+        assertEquals(100, page.getContent().size());
+        assertGenresLoaded(page);
+        assertOneGenreStatement();
+    }
+
+    private void assertGenresLoaded(Page<Movie> page) {
+        int genres = 0;
+        for (Movie movie : page)
+            genres += movie.getGenres().size();
+        assertTrue(genres > 0);
+    }
+
+    /**
+     * Every statement but the JPQL queries of the page (the movies, and the count when there is one) selects genres
+     */
+    private void assertOneGenreStatement() {
+        assertTrue(statistics.getQueryExecutionCount() >= 1);
+        assertEquals(1, statistics.getPrepareStatementCount() - statistics.getQueryExecutionCount());
+    }
+}
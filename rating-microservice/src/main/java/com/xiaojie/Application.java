@@ -4,7 +4,9 @@ import com.xiaojie.config.GraphDatabaseConfiguration;
 import com.xiaojie.data.domain.entity.Product;
 import com.xiaojie.data.domain.entity.User;
 import com.xiaojie.data.domain.rels.Rating;
+import com.xiaojie.data.importer.RatingImporter;
 import lombok.extern.slf4j.Slf4j;
+import org.neo4j.graphdb.GraphDatabaseService;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 import org.springframework.beans.factory.annotation.Autowired;
@@ -15,13 +17,17 @@ import org.springframework.boot.autoconfigure.SpringBootApplication;
 import org.springframework.cloud.netflix.zuul.EnableZuulProxy;
 import org.springframework.context.annotation.Bean;
 import org.springframework.context.annotation.ComponentScan;
+import org.springframework.core.io.ClassPathResource;
+import org.springframework.core.io.Resource;
+import org.springframework.data.neo4j.rest.SpringCypherRestGraphDatabase;
 import org.springframework.data.rest.webmvc.config.RepositoryRestMvcConfiguration;
 import org.springframework.hateoas.hal.Jackson2HalModule;
 
 import javax.annotation.PostConstruct;
+import java.io.InputStream;
 
 @SpringBootApplication
-@ComponentScan({ "com.xiaojie.data", "com.xiaojie.config" })
+@ComponentScan({ "com.xiaojie.data", "com.xiaojie.config", "com.xiaojie.controller" })
 @EnableZuulProxy
 @Slf4j
 public class Application {
@@ -72,6 +78,17 @@ public class Application {
                 graphDatabaseConfiguration.neo4jTemplate().query("CREATE INDEX ON :Product(id)", null).finish();
                 logger.info("Importing ratings data...");
 
+                GraphDatabaseService graphDatabaseService = graphDatabaseConfiguration.getGraphDatabaseService();
+                Resource ratings = new ClassPathResource("static/ratings.csv");
+                if (!(graphDatabaseService instanceof SpringCypherRestGraphDatabase) && ratings.exists()) {
+                    // Bulk import the bundled ratings straight into the embedded database
+                    try (InputStream csv = ratings.getInputStream()) {
+                        RatingImporter.ImportStats stats = new RatingImporter(graphDatabaseService).importRatings(csv);
+                        logger.info("Import complete: {}", stats);
+                    }
+                    return;
+                }
+
                 // Import graph data for movie ratings
                 String userImport = String.format("USING PERIODIC COMMIT 20000\n" +
                         "LOAD CSV WITH HEADERS FROM \"%s/ratings.csv\" AS csvLine\n" +
@@ -0,0 +1,89 @@
+package com.xiaojie.controller;
+
+import com.xiaojie.data.cache.ProductPageCache;
+import com.xiaojie.data.domain.entity.Product;
+import com.xiaojie.data.stats.RatingStatistics;
+import com.xiaojie.data.stats.RatingSummary;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.http.HttpStatus;
+import org.springframework.http.ResponseEntity;
+import org.springframework.web.bind.annotation.PathVariable;
+import org.springframework.web.bind.annotation.RequestMapping;
+import org.springframework.web.bind.annotation.RequestMethod;
+import org.springframework.web.bind.annotation.RequestParam;
+import org.springframework.web.bind.annotation.RestController;
+
+import java.util.List;
+
+/**
+ * Rating statistics and rated products served from precomputed aggregates and cached pages instead of graph queries
+ */
+@RestController
+public class RatingLookupController {
+
+    @Autowired
+    private RatingStatistics ratingStatistics;
+
+    @Autowired
+    private ProductPageCache productPageCache;
+
+    /**
+     * @param id known id of a product
+     * @return count, sum, sum of squares, average and variance of the product's ratings
+     */
+    @RequestMapping(value = "/lookup/products/{id}/ratings", method = RequestMethod.GET)
+    public RatingSummary getProductRatings(@PathVariable("id") String id) {
+        return ratingStatistics.forProduct(id);
+    }
+
+    /**
+     * @param id known id of a user
+     * @return count, sum, sum of squares, average and variance of the user's ratings
+     */
+    @RequestMapping(value = "/lookup/users/{id}/ratings", method = RequestMethod.GET)
+    public RatingSummary getUserRatings(@PathVariable("id") String id) {
+        return ratingStatistics.forUser(id);
+    }
+
+    /**
+     * Replaces the {@code getAverageRating} search of the product repository, which aggregated all the ratings of the
+     * product on each call
+     *
+     * @param id known id of a product
+     * @return mean rating of the product, or not found without ratings
+     */
+    @RequestMapping(value = "/products/search/getAverageRating", method = RequestMethod.GET)
+    public ResponseEntity<Double> getProductAverageRating(@RequestParam("id") String id) {
+        return average(ratingStatistics.forProduct(id));
+    }
+
+    /**
+     * Replaces the {@code getAverageRating} search of the rating repository, which aggregated all the ratings of the
+     * user on each call
+     *
+     * @param id known id of a user
+     * @return mean rating of the user, or not found without ratings
+     */
+    @RequestMapping(value = "/ratings/search/getAverageRating", method = RequestMethod.GET)
+    public ResponseEntity<Double> getUserAverageRating(@RequestParam("id") String id) {
+        return average(ratingStatistics.forUser(id));
+    }
+
+    /**
+     * @param id known id of a user
+     * @return one page of the products rated by the user
+     */
+    @RequestMapping(value = "/lookup/users/{id}/products", method = RequestMethod.GET)
+    public List<Product> findProductsByUser(@PathVariable("id") String id,
+                                            @RequestParam(value = "page", defaultValue = "0") int page,
+                                            @RequestParam(value = "size", defaultValue = "20") int size) {
+        return productPageCache.findProductsByUser(id, page, Math.min(size, 1000)).getContent();
+    }
+
+    // as the repository searches answered a null result
+    private static ResponseEntity<Double> average(RatingSummary summary) {
+        Double average = summary.getAverage();
+        return average == null ? new ResponseEntity<>(HttpStatus.NOT_FOUND)
+                : new ResponseEntity<>(average, HttpStatus.OK);
+    }
+}
@@ -0,0 +1,109 @@
+package com.xiaojie.data.cache;
+
+import com.google.common.cache.Cache;
+import com.google.common.cache.CacheBuilder;
+import com.xiaojie.data.domain.entity.Product;
+import com.xiaojie.data.domain.rels.Rating;
+import com.xiaojie.data.repositories.ProductRepository;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.data.domain.Page;
+import org.springframework.data.domain.PageRequest;
+import org.springframework.data.rest.core.annotation.HandleAfterCreate;
+import org.springframework.data.rest.core.annotation.HandleAfterDelete;
+import org.springframework.data.rest.core.annotation.HandleAfterSave;
+import org.springframework.data.rest.core.annotation.RepositoryEventHandler;
+import org.springframework.stereotype.Component;
+
+import java.util.Objects;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Read-through cache of the pages of {@link ProductRepository#findProductsByUser}, so that paging through the
+ * products of a user does not match the user's whole subgraph again for every page. The pages of a user are
+ * invalidated whenever one of the user's ratings is written through the repository REST API.
+ */
+@Component
+@RepositoryEventHandler(Rating.class)
+public class ProductPageCache {
+
+    private final ProductRepository productRepository;
+
+    private final Cache<PageKey, Page<Product>> pages;
+
+    // bumped on every write, so that a page read racing with a write is not cached
+    private final AtomicLong writes = new AtomicLong();
+
+    @Autowired
+    public ProductPageCache(ProductRepository productRepository,
+                            @Value("${rating.cache.maximum-pages:10000}") long maximumPages) {
+        this.productRepository = productRepository;
+        this.pages = CacheBuilder.newBuilder()
+                .maximumSize(maximumPages)
+                .expireAfterWrite(10, TimeUnit.MINUTES)
+                .build();
+    }
+
+    /**
+     * @param id   known id of a user
+     * @param page zero-based page number
+     * @param size page size
+     */
+    public Page<Product> findProductsByUser(String id, int page, int size) {
+        PageKey key = new PageKey(id, page, size);
+        Page<Product> products = pages.getIfPresent(key);
+        if (products == null) {
+            long generation = writes.get();
+            products = productRepository.findProductsByUser(id, new PageRequest(page, size));
+            if (generation == writes.get()) {
+                pages.put(key, products);
+                // an invalidation between the check and the put bumped the generation before it ran
+                if (generation != writes.get())
+                    pages.invalidate(key);
+            }
+        }
+        return products;
+    }
+
+    @HandleAfterCreate
+    @HandleAfterSave
+    @HandleAfterDelete
+    public void invalidate(Rating rating) {
+        writes.incrementAndGet();
+        if (rating.getUser() == null)
+            pages.invalidateAll();
+        else
+            invalidateUser(rating.getUser().getKnownId());
+    }
+
+    public void invalidateUser(String id) {
+        writes.incrementAndGet();
+        pages.asMap().keySet().removeIf(key -> Objects.equals(key.user, id));
+    }
+
+    private static final class PageKey {
+        final String user;
+        final int page, size;
+
+        PageKey(String user, int page, int size) {
+            this.user = user;
+            this.page = page;
+            this.size = size;
+        }
+
+        @Override
+        public boolean equals(Object o) {
+            if (this == o) return true;
+            if (o == null || getClass() != o.getClass()) return false;
+
+            PageKey key = (PageKey) o;
+            return page == key.page && size == key.size && Objects.equals(user, key.user);
+        }
+
+        @Override
+        public int hashCode() {
+            return 31 * (31 * Objects.hashCode(user) + page) + size;
+        }
+    }
+}
@@ -7,6 +7,7 @@ import org.springframework.data.neo4j.annotation.Query;
 import org.springframework.data.repository.PagingAndSortingRepository;
 import org.springframework.data.repository.query.Param;
 import org.springframework.data.rest.core.annotation.RepositoryRestResource;
+import org.springframework.data.rest.core.annotation.RestResource;
 
 @RepositoryRestResource(collectionResourceRel = "products", path = "products")
 public interface ProductRepository extends PagingAndSortingRepository<Product, Long> {
@@ -15,6 +16,11 @@ public interface ProductRepository extends PagingAndSortingRepository<Product, L
     @Query("MATCH (p:Product) RETURN p")
     Page<Product> findAll(Pageable pageable);
 
+    /**
+     * Aggregation over all the ratings of the product, served from the precomputed aggregates at the same search path
+     * by {@link com.xiaojie.controller.RatingLookupController}
+     */
+    @RestResource(exported = false)
     @Query(value = "MATCH ()-[r:Rating]->(p:Product) WHERE p.knownId = {id} RETURN avg(toFloat(r.rating))")
     Double getAverageRating(@Param(value = "id") String id);
 
@@ -7,6 +7,7 @@ import org.springframework.data.neo4j.annotation.Query;
 import org.springframework.data.repository.PagingAndSortingRepository;
 import org.springframework.data.repository.query.Param;
 import org.springframework.data.rest.core.annotation.RepositoryRestResource;
+import org.springframework.data.rest.core.annotation.RestResource;
 
 @RepositoryRestResource(collectionResourceRel = "ratings", path = "ratings")
 public interface RatingRepository extends
@@ -17,6 +18,11 @@ public interface RatingRepository extends
     @Query(value = "MATCH (n:User)-[r:Rating]->() WHERE n.knownId = {id} RETURN r")
     Page<Rating> findByUserId(@Param(value = "id") String id, Pageable pageable);
 
+    /**
+     * Aggregation over all the ratings of the user, served from the precomputed aggregates at the same search path
+     * by {@link com.xiaojie.controller.RatingLookupController}
+     */
+    @RestResource(exported = false)
     @Query(value = "MATCH (n:User)-[r:Rating]->() WHERE n.knownId = {id} RETURN avg(toFloat(r.rating))")
     Double getAverageRating(@Param(value = "id") String id);
 }
@@ -0,0 +1,81 @@
+package com.xiaojie.data.stats;
+
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.Map;
+
+/**
+ * Running count, sum and sum of squares of the ratings of each key (a user or product known id), kept in parallel
+ * primitive arrays indexed by a slot per key. Ratings can be added, removed and replaced in O(1).
+ */
+public class RatingAggregates {
+
+    private final Map<String, Integer> slots = new HashMap<>();
+
+    private long[] counts = new long[64];
+    private long[] sums = new long[64];
+    private long[] sumsOfSquares = new long[64];
+
+    public synchronized void add(String key, int rating) {
+        int slot = slot(key);
+        counts[slot]++;
+        sums[slot] += rating;
+        sumsOfSquares[slot] += (long) rating * rating;
+    }
+
+    public synchronized void remove(String key, int rating) {
+        Integer slot = slots.get(key);
+        if (slot == null || counts[slot] == 0)
+            return;
+        counts[slot]--;
+        sums[slot] -= rating;
+        sumsOfSquares[slot] -= (long) rating * rating;
+    }
+
+    /**
+     * Replace the aggregates of a key, e.g. with those computed by the graph database
+     */
+    public synchronized void set(String key, long count, long sum, long sumOfSquares) {
+        int slot = slot(key);
+        counts[slot] = count;
+        sums[slot] = sum;
+        sumsOfSquares[slot] = sumOfSquares;
+    }
+
+    /**
+     * @return the aggregates of a key, empty if it has no ratings
+     */
+    public synchronized RatingSummary get(String key) {
+        Integer slot = slots.get(key);
+        if (slot == null || counts[slot] == 0)
+            return RatingSummary.EMPTY;
+        return new RatingSummary(counts[slot], sums[slot], sumsOfSquares[slot]);
+    }
+
+    public synchronized int size() {
+        return slots.size();
+    }
+
+    public synchronized void clear() {
+        slots.clear();
+        Arrays.fill(counts, 0);
+        Arrays.fill(sums, 0);
+        Arrays.fill(sumsOfSquares, 0);
+    }
+
+    private int slot(String key) {
+        Integer slot = slots.get(key);
+        if (slot != null)
+            return slot;
+
+        int next = slots.size();
+        if (next == counts.length) {
+            int capacity = next + (next >> 1);
+            counts = Arrays.copyOf(counts, capacity);
+            sums = Arrays.copyOf(sums, capacity);
+            sumsOfSquares = Arrays.copyOf(sumsOfSquares, capacity);
+        }
+        slots.put(key, next);
+        return next;
+    }
+}
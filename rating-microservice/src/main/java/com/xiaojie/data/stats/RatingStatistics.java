@@ -0,0 +1,217 @@
+package com.xiaojie.data.stats;
+
+import com.xiaojie.data.domain.rels.Rating;
+import com.xiaojie.data.repositories.RatingRepository;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.boot.context.event.ApplicationReadyEvent;
+import org.springframework.context.event.EventListener;
+import org.springframework.data.neo4j.support.Neo4jTemplate;
+import org.springframework.data.rest.core.annotation.HandleAfterCreate;
+import org.springframework.data.rest.core.annotation.HandleAfterDelete;
+import org.springframework.data.rest.core.annotation.HandleAfterSave;
+import org.springframework.data.rest.core.annotation.HandleBeforeSave;
+import org.springframework.data.rest.core.annotation.RepositoryEventHandler;
+import org.springframework.stereotype.Component;
+
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * Per-product and per-user rating aggregates, so that average ratings are O(1) lookups instead of aggregations over
+ * all the Rating relationships of a node.
+ *
+ * The aggregates are computed by the graph database once the application is ready (after the demo data import), then
+ * kept up to date with the ratings created, updated and deleted through the repository REST API. Until then, each
+ * read runs the aggregation for its own node. The aggregation queries may or may not see the ratings written while
+ * they run, so the products and users of those ratings are aggregated again, one node at a time, before the
+ * aggregates are published.
+ */
+@Component
+@RepositoryEventHandler(Rating.class)
+public class RatingStatistics {
+
+    private static final Logger log = LoggerFactory.getLogger(RatingStatistics.class);
+
+    private static final String PRODUCT_AGGREGATES = "MATCH ()-[r:Rating]->(p:Product) %s " +
+            "RETURN p.knownId AS id, count(r) AS count, sum(r.rating) AS sum, sum(r.rating * r.rating) AS sumOfSquares";
+
+    private static final String USER_AGGREGATES = "MATCH (u:User)-[r:Rating]->() %s " +
+            "RETURN u.knownId AS id, count(r) AS count, sum(r.rating) AS sum, sum(r.rating * r.rating) AS sumOfSquares";
+
+    private final Neo4jTemplate neo4jTemplate;
+
+    private final RatingRepository ratingRepository;
+
+    private volatile RatingAggregates products = new RatingAggregates();
+    private volatile RatingAggregates users = new RatingAggregates();
+
+    private volatile boolean built;
+
+    // products and users rated while the aggregates are built, aggregated again before they are published; null when
+    // not building
+    private Set<String> touchedProducts, touchedUsers;
+    private final Object lock = new Object();
+
+    // ratings before an update, by relationship id, until the update is applied to the aggregates
+    private final Map<Long, Rating> updating = new ConcurrentHashMap<>();
+
+    @Autowired
+    public RatingStatistics(Neo4jTemplate neo4jTemplate, RatingRepository ratingRepository) {
+        this.neo4jTemplate = neo4jTemplate;
+        this.ratingRepository = ratingRepository;
+    }
+
+    /**
+     * @param id known id of a product
+     */
+    public RatingSummary forProduct(String id) {
+        return built ? products.get(id) : queryProduct(id);
+    }
+
+    /**
+     * @param id known id of a user
+     */
+    public RatingSummary forUser(String id) {
+        return built ? users.get(id) : queryUser(id);
+    }
+
+    @EventListener(ApplicationReadyEvent.class)
+    public void build() {
+        long start = System.currentTimeMillis();
+        synchronized (lock) {
+            touchedProducts = new HashSet<>();
+            touchedUsers = new HashSet<>();
+        }
+
+        RatingAggregates loadedProducts = new RatingAggregates();
+        RatingAggregates loadedUsers = new RatingAggregates();
+        int refreshed = 0;
+        try {
+            load(loadedProducts, PRODUCT_AGGREGATES);
+            load(loadedUsers, USER_AGGREGATES);
+
+            // until no rating is written while the nodes rated meanwhile are aggregated again
+            while (true) {
+                Set<String> productIds, userIds;
+                synchronized (lock) {
+                    if (touchedProducts.isEmpty() && touchedUsers.isEmpty()) {
+                        touchedProducts = null;
+                        touchedUsers = null;
+                        products = loadedProducts;
+                        users = loadedUsers;
+                        built = true;
+                        break;
+                    }
+                    productIds = touchedProducts;
+                    userIds = touchedUsers;
+                    touchedProducts = new HashSet<>();
+                    touchedUsers = new HashSet<>();
+                }
+
+                for (String id : productIds)
+                    set(loadedProducts, id, queryProduct(id));
+                for (String id : userIds)
+                    set(loadedUsers, id, queryUser(id));
+                refreshed += productIds.size() + userIds.size();
+            }
+        } catch (RuntimeException e) {
+            // the ratings written meanwhile are not in any aggregates: read from the graph database again
+            synchronized (lock) {
+                touchedProducts = null;
+                touchedUsers = null;
+                built = false;
+            }
+            throw e;
+        }
+
+        log.info("Aggregated ratings of {} products and {} users in {} ms, {} of them again as rated meanwhile",
+                loadedProducts.size(), loadedUsers.size(), System.currentTimeMillis() - start, refreshed);
+    }
+
+    @HandleAfterCreate
+    public void added(Rating rating) {
+        apply(rating, 1);
+    }
+
+    @HandleBeforeSave
+    public void updating(Rating rating) {
+        if (rating.getId() != null) {
+            Rating previous = ratingRepository.findOne(rating.getId());
+            if (previous != null)
+                updating.put(rating.getId(), previous);
+        }
+    }
+
+    @HandleAfterSave
+    public void updated(Rating rating) {
+        Rating previous = rating.getId() == null ? null : updating.remove(rating.getId());
+        if (previous != null)
+            apply(previous, -1);
+        apply(rating, 1);
+    }
+
+    @HandleAfterDelete
+    public void deleted(Rating rating) {
+        apply(rating, -1);
+    }
+
+    private void apply(Rating rating, int sign) {
+        if (rating.getRating() == null || rating.getUser() == null || rating.getProduct() == null)
+            return;
+
+        String product = rating.getProduct().getKnownId(), user = rating.getUser().getKnownId();
+        int value = rating.getRating();
+        synchronized (lock) {
+            if (touchedProducts != null) {
+                touchedProducts.add(product);
+                touchedUsers.add(user);
+            } else if (built) {
+                if (sign > 0) {
+                    products.add(product, value);
+                    users.add(user, value);
+                } else {
+                    products.remove(product, value);
+                    users.remove(user, value);
+                }
+            }
+        }
+    }
+
+    private void load(RatingAggregates aggregates, String aggregation) {
+        aggregates.clear();
+        for (Map<String, Object> row : neo4jTemplate.query(String.format(aggregation, ""), null)) {
+            aggregates.set(String.valueOf(row.get("id")), longValue(row.get("count")), longValue(row.get("sum")),
+                    longValue(row.get("sumOfSquares")));
+        }
+    }
+
+    private static void set(RatingAggregates aggregates, String id, RatingSummary summary) {
+        aggregates.set(id, summary.getCount(), summary.getSum(), summary.getSumOfSquares());
+    }
+
+    private RatingSummary queryProduct(String id) {
+        return query(PRODUCT_AGGREGATES, "WHERE p.knownId = {id}", id);
+    }
+
+    private RatingSummary queryUser(String id) {
+        return query(USER_AGGREGATES, "WHERE u.knownId = {id}", id);
+    }
+
+    private RatingSummary query(String aggregation, String where, String id) {
+        for (Map<String, Object> row : neo4jTemplate.query(String.format(aggregation, where),
+                Collections.<String, Object>singletonMap("id", id))) {
+            return new RatingSummary(longValue(row.get("count")), longValue(row.get("sum")),
+                    longValue(row.get("sumOfSquares")));
+        }
+        return RatingSummary.EMPTY;
+    }
+
+    private static long longValue(Object value) {
+        return value == null ? 0 : ((Number) value).longValue();
+    }
+}
@@ -0,0 +1,57 @@
+package com.xiaojie.data.stats;
+
+/**
+ * Count, sum and sum of squares of the ratings of a user or a product, with the statistics derived from them
+ */
+public class RatingSummary {
+
+    public static final RatingSummary EMPTY = new RatingSummary(0, 0, 0);
+
+    private final long count;
+    private final long sum;
+    private final long sumOfSquares;
+
+    public RatingSummary(long count, long sum, long sumOfSquares) {
+        this.count = count;
+        this.sum = sum;
+        this.sumOfSquares = sumOfSquares;
+    }
+
+    public long getCount() {
+        return count;
+    }
+
+    public long getSum() {
+        return sum;
+    }
+
+    public long getSumOfSquares() {
+        return sumOfSquares;
+    }
+
+    /**
+     * @return mean rating, or null without ratings as for {@code avg()} in Cypher
+     */
+    public Double getAverage() {
+        return count == 0 ? null : (double) sum / count;
+    }
+
+    /**
+     * @return population variance of the ratings, or null without ratings
+     */
+    public Double getVariance() {
+        if (count == 0)
+            return null;
+        double mean = (double) sum / count;
+        return Math.max(0, (double) sumOfSquares / count - mean * mean);
+    }
+
+    @Override
+    public String toString() {
+        return "RatingSummary{" +
+                "count=" + count +
+                ", sum=" + sum +
+                ", sumOfSquares=" + sumOfSquares +
+                '}';
+    }
+}
@@ -0,0 +1,77 @@
+package com.xiaojie.data.stats;
+
+import org.junit.Test;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertSame;
+
+/**
+ * Running aggregates of the ratings created, updated (removed then added again) and deleted through the REST API
+ */
+public class RatingAggregatesTests {
+
+    RatingAggregates aggregates = new RatingAggregates();
+
+    @Test
+    public void addAggregatesRatingsOfKey() {
+        aggregates.add("1", 4);
+        aggregates.add("1", 2);
+        aggregates.add("2", 5);
+
+        assertSummary(aggregates.get("1"), 2, 6, 20);
+        assertEquals(3.0, aggregates.get("1").getAverage(), 1e-9);
+        assertEquals(1.0, aggregates.get("1").getVariance(), 1e-9);
+        assertSummary(aggregates.get("2"), 1, 5, 25);
+        assertEquals(2, aggregates.size());
+    }
+
+    @Test
+    public void updateReplacesRating() {
+        aggregates.set("1", 2, 6, 20);
+
+        aggregates.remove("1", 4);
+        aggregates.add("1", 5);
+
+        assertSummary(aggregates.get("1"), 2, 7, 29);
+    }
+
+    @Test
+    public void deleteOfLastRatingEmptiesKey() {
+        aggregates.add("1", 3);
+
+        aggregates.remove("1", 3);
+
+        assertSame(RatingSummary.EMPTY, aggregates.get("1"));
+        assertNull(aggregates.get("1").getAverage());
+    }
+
+    @Test
+    public void deleteOfUnknownKeyIsIgnored() {
+        aggregates.remove("1", 3);
+        aggregates.add("2", 3);
+        aggregates.remove("2", 3);
+        aggregates.remove("2", 3);
+
+        assertSame(RatingSummary.EMPTY, aggregates.get("1"));
+        assertSame(RatingSummary.EMPTY, aggregates.get("2"));
+    }
+
+    @Test
+    public void growsPastInitialCapacity() {
+        for (int i = 0; i < 1000; i++)
+            aggregates.add(String.valueOf(i), i % 5 + 1);
+
+        assertEquals(1000, aggregates.size());
+        for (int i = 0; i < 1000; i++) {
+            int rating = i % 5 + 1;
+            assertSummary(aggregates.get(String.valueOf(i)), 1, rating, rating * rating);
+        }
+    }
+
+    private static void assertSummary(RatingSummary summary, long count, long sum, long sumOfSquares) {
+        assertEquals(count, summary.getCount());
+        assertEquals(sum, summary.getSum());
+        assertEquals(sumOfSquares, summary.getSumOfSquares());
+    }
+}
@@ -0,0 +1,208 @@
+package com.xiaojie.data.stats;
+
+import com.xiaojie.data.domain.entity.Product;
+import com.xiaojie.data.domain.entity.User;
+import com.xiaojie.data.domain.rels.Rating;
+import com.xiaojie.data.repositories.RatingRepository;
+import org.junit.Before;
+import org.junit.Test;
+import org.springframework.data.neo4j.conversion.Result;
+import org.springframework.data.neo4j.support.Neo4jTemplate;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CopyOnWriteArrayList;
+
+import static org.junit.Assert.assertEquals;
+import static org.mockito.Matchers.any;
+import static org.mockito.Matchers.anyString;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.when;
+
+/**
+ * Aggregates of the ratings of a fake graph, written before, while and after the aggregates are built
+ */
+public class RatingStatisticsTests {
+
+    // the Rating relationships of the graph
+    final List<Rating> graph = new CopyOnWriteArrayList<>();
+
+    final Neo4jTemplate neo4jTemplate = mock(Neo4jTemplate.class);
+    final RatingRepository ratingRepository = mock(RatingRepository.class);
+    final RatingStatistics statistics = new RatingStatistics(neo4jTemplate, ratingRepository);
+
+    // run by the first aggregation over all the nodes, before or after it reads the graph
+    Runnable beforeRead, afterRead;
+
+    @Before
+    public void answerAggregations() {
+        when(neo4jTemplate.query(anyString(), any())).thenAnswer(invocation -> {
+            String cypher = (String) invocation.getArguments()[0];
+            @SuppressWarnings("unchecked")
+            Map<String, Object> params = (Map<String, Object>) invocation.getArguments()[1];
+
+            if (params == null && beforeRead != null) {
+                Runnable write = beforeRead;
+                beforeRead = null;
+                write.run();
+            }
+            List<Map<String, Object>> rows = aggregate(cypher, params == null ? null : (String) params.get("id"));
+            if (params == null && afterRead != null) {
+                Runnable write = afterRead;
+                afterRead = null;
+                write.run();
+            }
+            return result(rows);
+        });
+
+        when(ratingRepository.findOne(any())).thenAnswer(invocation -> find((Long) invocation.getArguments()[0]));
+
+        graph.add(rating(1L, "u1", "p1", 4));
+        graph.add(rating(2L, "u1", "p2", 2));
+        graph.add(rating(3L, "u2", "p1", 5));
+    }
+
+    @Test
+    public void readsQueryGraphUntilBuilt() {
+        assertSummary(statistics.forProduct("p1"), 2, 9, 41);
+        assertSummary(statistics.forUser("u1"), 2, 6, 20);
+        assertSummary(statistics.forProduct("p3"), 0, 0, 0);
+    }
+
+    @Test
+    public void build() {
+        statistics.build();
+
+        graph.clear();
+        assertSummary(statistics.forProduct("p1"), 2, 9, 41);
+        assertSummary(statistics.forProduct("p2"), 1, 2, 4);
+        assertSummary(statistics.forUser("u2"), 1, 5, 25);
+    }
+
+    @Test
+    public void ratingAddedWhileBuildingAndSeenByAggregation() {
+        beforeRead = () -> add(rating(4L, "u3", "p1", 3));
+
+        statistics.build();
+
+        assertSummary(statistics.forProduct("p1"), 3, 12, 50);
+        assertSummary(statistics.forUser("u3"), 1, 3, 9);
+    }
+
+    @Test
+    public void ratingAddedWhileBuildingAndNotSeenByAggregation() {
+        afterRead = () -> add(rating(4L, "u3", "p1", 3));
+
+        statistics.build();
+
+        assertSummary(statistics.forProduct("p1"), 3, 12, 50);
+        assertSummary(statistics.forUser("u3"), 1, 3, 9);
+    }
+
+    @Test
+    public void ratingUpdatedAndDeletedWhileBuilding() {
+        beforeRead = () -> {
+            update(rating(1L, "u1", "p1", 1));
+            delete(graph.get(1));
+        };
+
+        statistics.build();
+
+        assertSummary(statistics.forProduct("p1"), 2, 6, 26);
+        assertSummary(statistics.forProduct("p2"), 0, 0, 0);
+        assertSummary(statistics.forUser("u1"), 1, 1, 1);
+    }
+
+    @Test
+    public void ratingsWrittenAfterBuild() {
+        statistics.build();
+
+        add(rating(4L, "u3", "p2", 3));
+        update(rating(1L, "u1", "p1", 2));
+        delete(graph.get(2));
+
+        assertSummary(statistics.forProduct("p1"), 1, 2, 4);
+        assertSummary(statistics.forProduct("p2"), 2, 5, 13);
+        assertSummary(statistics.forUser("u1"), 2, 4, 8);
+        assertSummary(statistics.forUser("u2"), 0, 0, 0);
+    }
+
+    private void add(Rating rating) {
+        graph.add(rating);
+        statistics.added(rating);
+    }
+
+    private void update(Rating rating) {
+        statistics.updating(rating);
+        graph.set(graph.indexOf(find(rating.getId())), rating);
+        statistics.updated(rating);
+    }
+
+    private void delete(Rating rating) {
+        graph.remove(rating);
+        statistics.deleted(rating);
+    }
+
+    private Rating find(Long id) {
+        for (Rating r : graph)
+            if (r.getId().equals(id))
+                return r;
+        return null;
+    }
+
+    /**
+     * @param id known id of the only node to aggregate, or null for all the nodes
+     */
+    private List<Map<String, Object>> aggregate(String cypher, String id) {
+        boolean byProduct = cypher.contains("(p:Product)");
+        Map<String, long[]> aggregates = new HashMap<>();
+        for (Rating r : graph) {
+            String key = byProduct ? r.getProduct().getKnownId() : r.getUser().getKnownId();
+            if (id != null && !id.equals(key))
+                continue;
+            long[] a = aggregates.computeIfAbsent(key, k -> new long[3]);
+            a[0]++;
+            a[1] += r.getRating();
+            a[2] += r.getRating() * r.getRating();
+        }
+
+        List<Map<String, Object>> rows = new ArrayList<>();
+        for (Map.Entry<String, long[]> en : aggregates.entrySet()) {
+            Map<String, Object> row = new HashMap<>();
+            row.put("id", en.getKey());
+            row.put("count", en.getValue()[0]);
+            row.put("sum", en.getValue()[1]);
+            row.put("sumOfSquares", en.getValue()[2]);
+            rows.add(row);
+        }
+        return rows;
+    }
+
+    @SuppressWarnings("unchecked")
+    private static Result<Map<String, Object>> result(List<Map<String, Object>> rows) {
+        return mock(Result.class, invocation -> "iterator".equals(invocation.getMethod().getName())
+                ? rows.iterator() : null);
+    }
+
+    private static Rating rating(Long id, String userId, String productId, int value) {
+        User user = new User();
+        user.setKnownId(userId);
+        Product product = new Product();
+        product.setKnownId(productId);
+
+        Rating rating = new Rating();
+        rating.setId(id);
+        rating.setUser(user);
+        rating.setProduct(product);
+        rating.setRating(value);
+        return rating;
+    }
+
+    private static void assertSummary(RatingSummary summary, long count, long sum, long sumOfSquares) {
+        assertEquals(count, summary.getCount());
+        assertEquals(sum, summary.getSum());
+        assertEquals(sumOfSquares, summary.getSumOfSquares());
+    }
+}
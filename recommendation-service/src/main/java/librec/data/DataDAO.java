@@ -53,6 +53,10 @@ public class DataDAO {
 
     // data scales
     private List<Double> ratingScale;
+    // threshold to binarize the ratings read, negative if they are not binarized
+    private double binThold = -1;
+    // value added to the ratings read, if their minimum is 0.0
+    private double ratingShift;
     // scale distribution
     private Multiset<Double> scaleDist;
 
@@ -158,14 +162,23 @@ public class DataDAO {
 
         Logs.info(String.format("Dataset: %s", Strings.last(dataPath, 38)));
 
-        // Table {row-id, col-id, rate}
-        Table<Integer, Integer, Double> dataTable = HashBasedTable.create();
-        // Table {row-id, col-id, timestamp}
-        Table<Integer, Integer, Long> timeTable = null;
-        // Map {col-id, multiple row-id}: used to fast build a rating matrix
-        Multimap<Integer, Integer> colMap = HashMultimap.create();
+        // {row-id, col-id, rate, [timestamp]} entries
+        RatingBuffer buffer = new RatingBuffer();
 
-        BufferedReader br = new BufferedReader(new InputStreamReader(this.getClass().getClassLoader().getResourceAsStream(dataPath)));
+        // token boundaries of the relevant columns: {start, end} pairs
+        int maxCol = 3;
+        for (int col : cols)
+            maxCol = Math.max(maxCol, col);
+        int[] bounds = new int[2 * (maxCol + 1)];
+
+        // consecutive lines are mostly of the same user
+        String lastUser = null;
+        int lastRow = -1;
+
+        // a resource of the class path, e.g. the bundled data sets, or else a file
+        InputStream is = this.getClass().getClassLoader().getResourceAsStream(dataPath);
+        BufferedReader br = new BufferedReader(new InputStreamReader(is != null ? is : new FileInputStream(dataPath)),
+                1 << 16);
         String line = null;
         minTimestamp = Long.MAX_VALUE;
         maxTimestamp = Long.MIN_VALUE;
@@ -175,39 +188,48 @@ public class DataDAO {
                 continue;
             }
 
-            String[] data = line.trim().split("[ \t,]+");
+            int numTokens = scan(line, bounds);
+            if (cols[0] >= numTokens || cols[1] >= numTokens)
+                throw new ArrayIndexOutOfBoundsException("Invalid line: " + line);
+
+            int row;
+            int us = bounds[2 * cols[0]], ue = bounds[2 * cols[0] + 1];
+            if (lastUser != null && lastUser.length() == ue - us && line.regionMatches(us, lastUser, 0, ue - us)) {
+                row = lastRow;
+            } else {
+                String user = line.substring(us, ue);
+                Integer id = userIds.get(user);
+                // inner id starting from 0
+                row = id != null ? id : userIds.size();
+                if (id == null)
+                    userIds.put(user, row);
+
+                lastUser = user;
+                lastRow = row;
+            }
 
-            String user = data[cols[0]];
-            String item = data[cols[1]];
-            Double rate = (cols.length >= 3 && data.length >= 3) ? Double.valueOf(data[cols[2]]) : 1.0;
+            String item = line.substring(bounds[2 * cols[1]], bounds[2 * cols[1] + 1]);
+            Integer id = itemIds.get(item);
+            int col = id != null ? id : itemIds.size();
+            if (id == null)
+                itemIds.put(item, col);
+
+            double rate = (cols.length >= 3 && numTokens >= 3) ? Double.parseDouble(token(line, bounds, cols[2],
+                    numTokens)) : 1.0;
 
             // binarize the rating for item recommendation task
             if (binThold >= 0)
                 rate = rate > binThold ? 1.0 : 0.0;
 
-            scaleDist.add(rate);
-
-            // inner id starting from 0
-            int row = userIds.containsKey(user) ? userIds.get(user) : userIds.size();
-            userIds.put(user, row);
-
-            int col = itemIds.containsKey(item) ? itemIds.get(item) : itemIds.size();
-            itemIds.put(item, col);
-
-            dataTable.put(row, col, rate);
-            colMap.put(col, row);
-
             // record rating's issuing time
-            if (cols.length >= 4 && data.length >= 4) {
-                if (timeTable == null)
-                    timeTable = HashBasedTable.create();
-
+            if (cols.length >= 4 && numTokens >= 4) {
                 // convert to million-seconds
+                String time = token(line, bounds, cols[3], numTokens);
                 long mms = 0L;
                 try {
-                    mms = Long.parseLong(data[cols[3]]); // cannot format "9.7323480e+008"
+                    mms = Long.parseLong(time); // cannot format "9.7323480e+008"
                 } catch (NumberFormatException e) {
-                    mms = (long) Double.parseDouble(data[cols[3]]);
+                    mms = (long) Double.parseDouble(time);
                 }
                 long timestamp = timeUnit.toMillis(mms);
 
@@ -217,36 +239,44 @@ public class DataDAO {
                 if (maxTimestamp < timestamp)
                     maxTimestamp = timestamp;
 
-                timeTable.put(row, col, timestamp);
+                buffer.add(row, col, rate, timestamp);
+            } else {
+                buffer.add(row, col, rate);
             }
 
         }
         br.close();
 
-        numRatings = scaleDist.size();
-        ratingScale = new ArrayList<>(scaleDist.elementSet());
-        Collections.sort(ratingScale);
+        double[] scales = buffer.distinctValues();
 
-        int numRows = numUsers(), numCols = numItems();
+        // the distribution of the ratings as read, before any shift
+        for (double scale : scales)
+            scaleDist.add(scale, buffer.count(scale));
 
-        // if min-rate = 0.0, shift upper a scale
-        double minRate = ratingScale.get(0).doubleValue();
-        double epsilon = minRate == 0.0 ? ratingScale.get(1).doubleValue() - minRate : 0;
+        // if min-rate = 0.0, shift upper a scale: a single pass over the ratings, before they are sorted into matrices
+        double minRate = scales[0];
+        double epsilon = minRate == 0.0 && scales.length > 1 ? scales[1] - minRate : 0;
+        this.binThold = binThold;
+        ratingShift = epsilon;
         if (epsilon > 0) {
-            // shift upper a scale
-            for (int i = 0, im = ratingScale.size(); i < im; i++) {
-                double val = ratingScale.get(i);
-                ratingScale.set(i, val + epsilon);
-            }
-            // update data table
-            for (int row = 0; row < numRows; row++) {
-                for (int col = 0; col < numCols; col++) {
-                    if (dataTable.contains(row, col))
-                        dataTable.put(row, col, dataTable.get(row, col) + epsilon);
-                }
-            }
+            buffer.shift(epsilon);
+            scales = buffer.distinctValues();
         }
 
+        numRatings = scaleDist.size();
+        ratingScale = new ArrayList<>(scales.length);
+        for (double scale : scales)
+            ratingScale.add(scale);
+
+        int numRows = numUsers(), numCols = numItems();
+
+        // build rating matrix
+        rateMatrix = buffer.toRateMatrix(numRows, numCols);
+        timeMatrix = buffer.toTimeMatrix(numRows, numCols);
+
+        // release memory of data buffer
+        buffer = null;
+
         String dateRange = "";
         if (cols.length >= 4)
             dateRange = String.format(", Timestamps = {%s, %s}", Dates.toString(minTimestamp),
@@ -255,17 +285,55 @@ public class DataDAO {
         Logs.debug("With Specs: {Users, {}} = {{}, {}, {}}, Scale = {{}}{}", (isItemAsUser ? "Users, Links"
                 : "Items, Ratings"), numRows, numCols, numRatings, Strings.toString(ratingScale), dateRange);
 
-        // build rating matrix
-        rateMatrix = new SparseMatrix(numRows, numCols, dataTable, colMap);
+        return new SparseMatrix[]{rateMatrix, timeMatrix};
+    }
+
+    /**
+     * Find the tokens of a line separated by runs of spaces, tabs and commas, i.e., the same tokens as
+     * {@code line.trim().split("[ \t,]+")}, without creating them
+     *
+     * @param line   a line of data file
+     * @param bounds the {start, end} offsets of the first tokens, filled as far as its length allows
+     * @return number of tokens of the line, or {@code bounds.length / 2} if there are more
+     */
+    private static int scan(String line, int[] bounds) {
+        int start = 0, end = line.length();
+        // trim
+        while (start < end && line.charAt(start) <= ' ')
+            start++;
+        while (end > start && line.charAt(end - 1) <= ' ')
+            end--;
+        if (start == end)
+            return 1; // a single empty token, as split does
+
+        int n = 0, max = bounds.length / 2;
+        int i = start;
+        while (n < max) {
+            int s = i;
+            while (i < end && !isDelimiter(line.charAt(i)))
+                i++;
+            bounds[2 * n] = s;
+            bounds[2 * n + 1] = i;
+            n++;
+
+            while (i < end && isDelimiter(line.charAt(i)))
+                i++;
+            if (i == end)
+                break;
+        }
 
-        if (timeTable != null)
-            timeMatrix = new SparseMatrix(numRows, numCols, timeTable, colMap);
+        return n;
+    }
 
-        // release memory of data table
-        dataTable = null;
-        timeTable = null;
+    private static boolean isDelimiter(char c) {
+        return c == ' ' || c == '\t' || c == ',';
+    }
 
-        return new SparseMatrix[]{rateMatrix, timeMatrix};
+    private static String token(String line, int[] bounds, int col, int numTokens) {
+        if (col >= numTokens)
+            throw new ArrayIndexOutOfBoundsException("Invalid line: " + line);
+
+        return line.substring(bounds[2 * col], bounds[2 * col + 1]);
     }
 
     /**
@@ -689,6 +757,8 @@ public class DataDAO {
         // if min-rate = 0.0, shift upper a scale
         double minRate = ratingScale.get(0).doubleValue();
         double epsilon = minRate == 0.0 ? ratingScale.get(1).doubleValue() - minRate : 0;
+        this.binThold = binThold;
+        ratingShift = epsilon;
         if (epsilon > 0) {
             // shift upper a scale
             for (int i = 0, im = ratingScale.size(); i < im; i++) {
@@ -1011,6 +1081,30 @@ public class DataDAO {
         return ratingScale;
     }
 
+    /**
+     * @param rate a rating as in the data file
+     * @return the rating on the scale of the ratings read, i.e., binarized and shifted as they are
+     */
+    public double scaleRating(double rate) {
+        if (binThold >= 0)
+            rate = rate > binThold ? 1.0 : 0.0;
+        return rate + ratingShift;
+    }
+
+    /**
+     * @param userIds user {raw id, inner id} mappings
+     * @param itemIds item {raw id, inner id} mappings
+     * @return a DAO object of the same data with other id mappings, e.g., grown with new users and items, which scales
+     * ratings as this one
+     */
+    public DataDAO withIds(BiMap<String, Integer> userIds, BiMap<String, Integer> itemIds) {
+        DataDAO dao = new DataDAO(dataPath, userIds, itemIds);
+        dao.ratingScale = ratingScale;
+        dao.binThold = binThold;
+        dao.ratingShift = ratingShift;
+        return dao;
+    }
+
     /**
      * @return user {rawid, inner id} mappings
      */
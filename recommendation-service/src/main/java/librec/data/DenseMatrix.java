@@ -29,7 +29,8 @@ import java.util.Arrays;
  * 
  * A big reason that we do not adopt original DenseMatrix from M4J libraray is because the latter using one-dimensional
  * array to store data, which will often cause OutOfMemory exception due to the limit of maximum length of a
- * one-dimensional Java array.
+ * one-dimensional Java array. Each row is still a contiguous array, and the multiplication kernels work on whole rows
+ * (and cache-sized tiles) rather than on single entries.
  * 
  * @author guoguibing
  * 
@@ -38,10 +39,16 @@ public class DenseMatrix implements Serializable {
 
 	private static final long serialVersionUID = -2069621030647530185L;
 
+	// block sizes of the cache-blocked kernels: a ROW_BLOCK x COLUMN_BLOCK tile of doubles is 128KB, and a TILE x TILE
+	// tile is 8KB
+	private static final int ROW_BLOCK = 64, COLUMN_BLOCK = 256, TILE = 32;
+
 	// dimension
 	protected int numRows, numColumns;
 	// read data
 	protected double[][] data;
+	// Cholesky factor of the latest solveSPD call, reused by the next one
+	private transient double[][] chol;
 
 	/**
 	 * Construct a dense matrix with specified dimensions
@@ -99,6 +106,40 @@ public class DenseMatrix implements Serializable {
 		return new DenseMatrix(this);
 	}
 
+	/**
+	 * Construct a matrix with more rows, sharing the rows of this matrix; the new rows are zero
+	 * 
+	 * @param numRows
+	 *            number of rows, at least that of this matrix
+	 * @return the new matrix
+	 */
+	public DenseMatrix appendRows(int numRows) {
+		double[][] array = Arrays.copyOf(data, numRows);
+		for (int i = this.numRows; i < numRows; i++)
+			array[i] = new double[numColumns];
+
+		return new DenseMatrix(array, numRows, numColumns);
+	}
+
+	/**
+	 * Construct a matrix with more rows, sharing the rows of this matrix except some copied rows, which can then be
+	 * modified without modifying this matrix; the new rows are zero
+	 * 
+	 * @param numRows
+	 *            number of rows, at least that of this matrix
+	 * @param copiedRows
+	 *            rows to copy
+	 * @return the new matrix
+	 */
+	public DenseMatrix appendRows(int numRows, int[] copiedRows) {
+		DenseMatrix mat = appendRows(numRows);
+		for (int i : copiedRows)
+			if (i < this.numRows)
+				mat.data[i] = data[i].clone();
+
+		return mat;
+	}
+
 	/**
 	 * Construct an identity matrix
 	 * 
@@ -244,6 +285,84 @@ public class DenseMatrix implements Serializable {
 		return res;
 	}
 
+	/**
+	 * Compute the inner products of some rows of m with all the rows of n, {@code res[i][j] = rowMult(m, rows[i], n, j)}
+	 * for {@code i < size}, i.e., a block of rows of {@code m * n^T}. The rows of n are visited in tiles that stay in
+	 * cache for all the rows of m, and the products are computed by blocks of two rows of m and four rows of n, so that
+	 * each entry loaded serves several products; each product still sums over the columns in ascending order, as
+	 * {@link #rowMult} does.
+	 * 
+	 * @param m
+	 *            matrix whose rows are multiplied, e.g., user factors
+	 * @param rows
+	 *            rows of m
+	 * @param size
+	 *            number of rows of m, taken from the start of {@code rows}
+	 * @param n
+	 *            matrix with as many columns as m, e.g., item factors
+	 * @param res
+	 *            output, at least {@code size} rows of at least {@code n.numRows()} entries
+	 */
+	public static void multTrans(DenseMatrix m, int[] rows, int size, DenseMatrix n, double[][] res) {
+		assert m.numColumns == n.numColumns;
+
+		int k = m.numColumns;
+		for (int j0 = 0; j0 < n.numRows; j0 += COLUMN_BLOCK) {
+			int j1 = Math.min(j0 + COLUMN_BLOCK, n.numRows);
+
+			// two rows of m at a time: eight independent sums per step
+			int i = 0;
+			for (; i + 1 < size; i += 2) {
+				double[] row0 = m.data[rows[i]], row1 = m.data[rows[i + 1]];
+				double[] res0 = res[i], res1 = res[i + 1];
+
+				int j = j0;
+				for (; j + 3 < j1; j += 4) {
+					double[] n0 = n.data[j], n1 = n.data[j + 1], n2 = n.data[j + 2], n3 = n.data[j + 3];
+					double s00 = 0, s01 = 0, s02 = 0, s03 = 0, s10 = 0, s11 = 0, s12 = 0, s13 = 0;
+					for (int f = 0; f < k; f++) {
+						double a0 = row0[f], a1 = row1[f];
+						double b0 = n0[f], b1 = n1[f], b2 = n2[f], b3 = n3[f];
+						s00 += a0 * b0;
+						s01 += a0 * b1;
+						s02 += a0 * b2;
+						s03 += a0 * b3;
+						s10 += a1 * b0;
+						s11 += a1 * b1;
+						s12 += a1 * b2;
+						s13 += a1 * b3;
+					}
+					res0[j] = s00;
+					res0[j + 1] = s01;
+					res0[j + 2] = s02;
+					res0[j + 3] = s03;
+					res1[j] = s10;
+					res1[j + 1] = s11;
+					res1[j + 2] = s12;
+					res1[j + 3] = s13;
+				}
+				for (; j < j1; j++) {
+					res0[j] = dot(row0, n.data[j], k);
+					res1[j] = dot(row1, n.data[j], k);
+				}
+			}
+
+			// the last row of an odd number of rows
+			if (i < size) {
+				double[] row = m.data[rows[i]], resRow = res[i];
+				for (int j = j0; j < j1; j++)
+					resRow[j] = dot(row, n.data[j], k);
+			}
+		}
+	}
+
+	private static double dot(double[] a, double[] b, int k) {
+		double sum = 0;
+		for (int f = 0; f < k; f++)
+			sum += a[f] * b[f];
+		return sum;
+	}
+
 	/**
 	 * column x column of two matrix
 	 * 
@@ -360,19 +479,22 @@ public class DenseMatrix implements Serializable {
 	public DenseMatrix transMult() {
 		DenseMatrix res = new DenseMatrix(numColumns, numColumns);
 
-		for (int i = 0; i < numColumns; i++) {
-			// inner product of row i and row k
-			for (int k = 0; k < numColumns; k++) {
-
-				double val = 0;
-				for (int j = 0; j < numRows; j++) {
-					val += get(j, i) * get(j, k);
-				}
-
-				res.set(i, k, val);
+		// accumulate the outer products of rows, so that data is streamed once in row order; the upper triangle is
+		// computed and mirrored since the result is symmetric
+		for (int j = 0; j < numRows; j++) {
+			double[] row = data[j];
+			for (int i = 0; i < numColumns; i++) {
+				double ri = row[i];
+				double[] resRow = res.data[i];
+				for (int k = i; k < numColumns; k++)
+					resRow[k] += ri * row[k];
 			}
 		}
 
+		for (int i = 0; i < numColumns; i++)
+			for (int k = i + 1; k < numColumns; k++)
+				res.data[k][i] = res.data[i][k];
+
 		return res;
 	}
 
@@ -387,14 +509,24 @@ public class DenseMatrix implements Serializable {
 		assert this.numColumns == mat.numRows;
 
 		DenseMatrix res = new DenseMatrix(this.numRows, mat.numColumns);
-		for (int i = 0; i < res.numRows; i++) {
-			for (int j = 0; j < res.numColumns; j++) {
 
-				double product = 0;
-				for (int k = 0; k < this.numColumns; k++)
-					product += data[i][k] * mat.data[k][j];
-
-				res.set(i, j, product);
+		// row-by-row updates res[i] += a[i][k] * mat[k] over tiles of mat that stay in cache; each entry still sums
+		// over k in ascending order
+		for (int j0 = 0; j0 < mat.numColumns; j0 += COLUMN_BLOCK) {
+			int j1 = Math.min(j0 + COLUMN_BLOCK, mat.numColumns);
+
+			for (int k0 = 0; k0 < this.numColumns; k0 += ROW_BLOCK) {
+				int k1 = Math.min(k0 + ROW_BLOCK, this.numColumns);
+
+				for (int i = 0; i < this.numRows; i++) {
+					double[] row = data[i], resRow = res.data[i];
+					for (int k = k0; k < k1; k++) {
+						double a = row[k];
+						double[] matRow = mat.data[k];
+						for (int j = j0; j < j1; j++)
+							resRow[j] += a * matRow[j];
+					}
+				}
 			}
 		}
 
@@ -696,15 +828,137 @@ public class DenseMatrix implements Serializable {
 		return L.transpose();
 	}
 
+	/**
+	 * Solve {@code A x = b} for a symmetric positive-definite matrix A (the current matrix), without forming its
+	 * inverse. See {@link #solveSPD(DenseVector, DenseVector)}.
+	 * 
+	 * @param b
+	 *            right-hand side
+	 * @return a new vector x, or null if the current matrix is not positive definite
+	 */
+	public DenseVector solveSPD(DenseVector b) {
+		return solveSPD(b, new DenseVector(numRows));
+	}
+
+	/**
+	 * Solve {@code A x = b} for a symmetric positive-definite matrix A (the current matrix) by a Cholesky factorization
+	 * {@code A = L L^T} and forward/back substitution. Only the lower triangle of A is read. The factor is kept in a
+	 * buffer owned by this matrix and reused by subsequent calls, so repeated solves of same-sized systems do not
+	 * allocate.
+	 * 
+	 * @param b
+	 *            right-hand side
+	 * @param x
+	 *            output vector, can be {@code b} itself
+	 * @return {@code x}, or null if the current matrix is not positive definite (x and b are then left unchanged)
+	 */
+	public DenseVector solveSPD(DenseVector b, DenseVector x) {
+		double[][] L = factorSPD();
+		if (L == null)
+			return null;
+
+		substitute(L, b.data, x.data);
+		return x;
+	}
+
+	/**
+	 * Batched version of {@link #solveSPD(DenseVector, DenseVector)}: solve {@code A x = b} for each row b of
+	 * {@code B}, sharing one factorization of A, i.e., {@code X = B A^-1}.
+	 * 
+	 * @param B
+	 *            right-hand sides, one per row
+	 * @param X
+	 *            output matrix with the same dimensions as B, can be {@code B} itself
+	 * @return {@code X}, or null if the current matrix is not positive definite (X and B are then left unchanged)
+	 */
+	public DenseMatrix solveSPD(DenseMatrix B, DenseMatrix X) {
+		if (B.numColumns != numRows)
+			throw new RuntimeException("Dimensions disagree");
+
+		double[][] L = factorSPD();
+		if (L == null)
+			return null;
+
+		for (int r = 0; r < B.numRows; r++)
+			substitute(L, B.data[r], X.data[r]);
+
+		return X;
+	}
+
+	/**
+	 * Factor the current matrix in place into the reusable buffer {@code chol}
+	 * 
+	 * @return the lower-triangular Cholesky factor, or null if the current matrix is not positive definite
+	 */
+	private double[][] factorSPD() {
+		if (this.numRows != this.numColumns)
+			throw new RuntimeException("Matrix is not square");
+
+		int n = numRows;
+		if (chol == null || chol.length != n)
+			chol = new double[n][n];
+
+		double[][] L = chol;
+		for (int i = 0; i < n; i++) {
+			double[] Li = L[i];
+			for (int j = 0; j <= i; j++) {
+				double[] Lj = L[j];
+				double sum = data[i][j];
+				for (int k = 0; k < j; k++)
+					sum -= Li[k] * Lj[k];
+
+				if (i == j) {
+					if (!(sum > 0))
+						return null;
+					Li[i] = Math.sqrt(sum);
+				} else
+					Li[j] = sum / Lj[j];
+			}
+		}
+
+		return L;
+	}
+
+	/**
+	 * Solve {@code L L^T x = b} by forward and back substitution; {@code x} can be {@code b}
+	 */
+	private static void substitute(double[][] L, double[] b, double[] x) {
+		int n = L.length;
+
+		// L y = b
+		for (int i = 0; i < n; i++) {
+			double[] Li = L[i];
+			double sum = b[i];
+			for (int k = 0; k < i; k++)
+				sum -= Li[k] * x[k];
+			x[i] = sum / Li[i];
+		}
+
+		// L^T x = y
+		for (int i = n - 1; i >= 0; i--) {
+			double sum = x[i];
+			for (int k = i + 1; k < n; k++)
+				sum -= L[k][i] * x[k];
+			x[i] = sum / L[i][i];
+		}
+	}
+
 	/**
 	 * @return a transposed matrix of current matrix
 	 */
 	public DenseMatrix transpose() {
 		DenseMatrix mat = new DenseMatrix(numColumns, numRows);
 
-		for (int i = 0; i < mat.numRows; i++)
-			for (int j = 0; j < mat.numColumns; j++)
-				mat.set(i, j, this.data[j][i]);
+		// copy square tiles, so that the column-wise side of the copy stays in cache
+		for (int i0 = 0; i0 < numRows; i0 += TILE)
+			for (int j0 = 0; j0 < numColumns; j0 += TILE) {
+				int i1 = Math.min(i0 + TILE, numRows), j1 = Math.min(j0 + TILE, numColumns);
+				for (int i = i0; i < i1; i++) {
+					double[] row = data[i];
+					for (int j = j0; j < j1; j++)
+						mat.data[j][i] = row[j];
+				}
+			}
 
 		return mat;
 	}
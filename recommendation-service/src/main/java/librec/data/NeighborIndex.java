@@ -0,0 +1,397 @@
+// Copyright (C) 2014-2015 Guibing Guo
+//
+// This file is part of LibRec.
+//
+// LibRec is free software: you can redistribute it and/or modify
+// it under the terms of the GNU General Public License as published by
+// the Free Software Foundation, either version 3 of the License, or
+// (at your option) any later version.
+//
+// LibRec is distributed in the hope that it will be useful,
+// but WITHOUT ANY WARRANTY; without even the implied warranty of
+// MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the
+// GNU General Public License for more details.
+//
+// You should have received a copy of the GNU General Public License
+// along with LibRec. If not, see <http://www.gnu.org/licenses/>.
+//
+
+package librec.data;
+
+import librec.util.Parallels;
+import librec.util.TopKHeap;
+
+import java.util.Arrays;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ForkJoinPool;
+
+/**
+ * Data Structure: top-k neighbors of every row (a user or an item) <br>
+ *
+ * Neighbors of row r are kept in the slots {@code [r * k, r * k + size(r))} of one id array and one similarity array,
+ * ordered from the most similar to the least similar. An index is filled once, each row by exactly one thread, and is
+ * read-only after it has been published.
+ */
+public class NeighborIndex {
+
+	// rows per side of the tiles of pairs processed by one task in build()
+	private static final int TILE = 64;
+
+	private final int numRows, k;
+	private final int[] sizes;
+	private final int[] ids;
+	private final float[] sims;
+
+	/**
+	 * Construct an empty index
+	 *
+	 * @param numRows
+	 *            number of rows
+	 * @param k
+	 *            maximum number of neighbors per row
+	 */
+	public NeighborIndex(int numRows, int k) {
+		this.numRows = numRows;
+		this.k = k;
+
+		sizes = new int[numRows];
+		ids = new int[numRows * k];
+		sims = new float[numRows * k];
+	}
+
+	/**
+	 * set the neighbors of a row from a sorted heap
+	 *
+	 * @param row
+	 *            row id
+	 * @param topK
+	 *            neighbors sorted by {@link TopKHeap#sort()}, at most k of them are kept
+	 */
+	public void set(int row, TopKHeap topK) {
+		int n = Math.min(k, topK.size());
+		for (int i = 0, p = row * k; i < n; i++, p++) {
+			ids[p] = topK.id(i);
+			sims[p] = (float) topK.score(i);
+		}
+		sizes[row] = n;
+	}
+
+	/**
+	 * @return number of neighbors of a row, or 0 for an unknown row
+	 */
+	public int size(int row) {
+		return row >= 0 && row < numRows ? sizes[row] : 0;
+	}
+
+	/**
+	 * @return the i-th most similar neighbor of a row
+	 */
+	public int neighbor(int row, int i) {
+		return ids[row * k + i];
+	}
+
+	/**
+	 * @return similarity of the i-th most similar neighbor of a row
+	 */
+	public float similarity(int row, int i) {
+		return sims[row * k + i];
+	}
+
+	/**
+	 * @return number of rows
+	 */
+	public int numRows() {
+		return numRows;
+	}
+
+	/**
+	 * @return maximum number of neighbors per row
+	 */
+	public int k() {
+		return k;
+	}
+
+	/**
+	 * Symmetric similarity between two rows
+	 */
+	public interface Similarity {
+		/**
+		 * @return similarity between rows {@code i < j}, or NaN if it is not computable
+		 */
+		double get(int i, int j) throws Exception;
+	}
+
+	/**
+	 * Build the top-k most similar rows of every row. Each pair {@code i < j} is computed once: the upper triangle of
+	 * pairs is cut into tiles of {@value #TILE} x {@value #TILE} rows, tiles are spread over the threads of the pool,
+	 * and every thread keeps bounded heaps of both rows of its pairs in flat arrays. The heaps of all threads are then
+	 * merged row by row. Ranking is by descending similarity, then by ascending id, so the result does not depend on
+	 * the number of threads. Memory is O(numRows * k) per thread.
+	 *
+	 * @param numRows
+	 *            number of rows
+	 * @param k
+	 *            number of neighbors per row
+	 * @param sim
+	 *            similarity between two rows, NaN values are ignored
+	 * @param pool
+	 *            fork/join pool, or null to build in the calling thread
+	 * @return a neighbor index over the rows
+	 */
+	public static NeighborIndex build(final int numRows, final int k, final Similarity sim, ForkJoinPool pool)
+			throws Exception {
+		final int numBlocks = (numRows + TILE - 1) / TILE;
+		final int numTiles = numBlocks * (numBlocks + 1) / 2;
+		final Map<Thread, PartialNeighbors> partials = new ConcurrentHashMap<>();
+
+		Parallels.forRange(pool, numTiles, (from, to) -> {
+			PartialNeighbors partial = partials.computeIfAbsent(Thread.currentThread(),
+					t -> new PartialNeighbors(numRows, k));
+
+			for (int t = from; t < to; t++) {
+				// tile t is (bi, bj) with bi <= bj, numbered row by row over the upper triangle of blocks
+				int bi = 0, bj = t;
+				while (bj >= numBlocks - bi) {
+					bj -= numBlocks - bi;
+					bi++;
+				}
+				bj += bi;
+
+				int iEnd = Math.min(numRows, (bi + 1) * TILE), jEnd = Math.min(numRows, (bj + 1) * TILE);
+				for (int i = bi * TILE; i < iEnd; i++) {
+					for (int j = Math.max(i + 1, bj * TILE); j < jEnd; j++) {
+						double s = sim.get(i, j);
+						if (!Double.isNaN(s)) {
+							partial.offer(i, j, s);
+							partial.offer(j, i, s);
+						}
+					}
+				}
+			}
+		});
+
+		// merge the per-thread heaps of each row
+		final PartialNeighbors[] parts = partials.values().toArray(new PartialNeighbors[0]);
+		final NeighborIndex index = new NeighborIndex(numRows, k);
+		Parallels.forRange(pool, numRows, (from, to) -> {
+			TopKHeap topK = new TopKHeap(k);
+			for (int r = from; r < to; r++) {
+				topK.clear();
+				for (PartialNeighbors part : parts) {
+					for (int p = r * k, end = p + part.sizes[r]; p < end; p++)
+						topK.offer(part.ids[p], part.scores[p]);
+				}
+				topK.sort();
+				index.set(r, topK);
+			}
+		});
+
+		return index;
+	}
+
+	/**
+	 * Bounded min-heaps of one thread, one per row, in flat arrays; same ranking as {@link TopKHeap}
+	 */
+	private static class PartialNeighbors {
+		final int k;
+		final int[] sizes;
+		final int[] ids;
+		final double[] scores;
+
+		PartialNeighbors(int numRows, int k) {
+			this.k = k;
+			sizes = new int[numRows];
+			ids = new int[numRows * k];
+			scores = new double[numRows * k];
+		}
+
+		void offer(int row, int id, double score) {
+			int base = row * k, size = sizes[row];
+
+			if (size < k) {
+				// sift up
+				int i = size;
+				while (i > 0) {
+					int parent = (i - 1) >>> 1;
+					if (!before(ids[base + parent], scores[base + parent], id, score))
+						break;
+					ids[base + i] = ids[base + parent];
+					scores[base + i] = scores[base + parent];
+					i = parent;
+				}
+				ids[base + i] = id;
+				scores[base + i] = score;
+				sizes[row] = size + 1;
+				return;
+			}
+
+			if (k == 0 || !before(id, score, ids[base], scores[base]))
+				return;
+
+			// replace the root, i.e., the lowest ranked neighbor, and sift down
+			int i = 0;
+			while (true) {
+				int child = 2 * i + 1;
+				if (child >= k)
+					break;
+				if (child + 1 < k && before(ids[base + child], scores[base + child], ids[base + child + 1],
+						scores[base + child + 1]))
+					child++;
+				if (!before(id, score, ids[base + child], scores[base + child]))
+					break;
+				ids[base + i] = ids[base + child];
+				scores[base + i] = scores[base + child];
+				i = child;
+			}
+			ids[base + i] = id;
+			scores[base + i] = score;
+		}
+
+		private static boolean before(int ida, double sa, int idb, double sb) {
+			return sa > sb || (sa == sb && ida < idb);
+		}
+	}
+
+	/**
+	 * Build the top-k most similar items of every item (column) by Jaccard's coefficient of their sets of raters, i.e.,
+	 * {@code |Ui & Uj| / |Ui | Uj|}. Co-rating counts are accumulated by walking the rows of the raters of each item,
+	 * so only pairs of items sharing a rater are visited. Items are processed in parallel.
+	 *
+	 * @param rateMatrix
+	 *            rating matrix, zero entries are not counted as ratings
+	 * @param k
+	 *            number of neighbors per item
+	 * @param pool
+	 *            fork/join pool, or null to build in the calling thread
+	 * @return a neighbor index over the columns of {@code rateMatrix}
+	 */
+	public static NeighborIndex jaccardOfColumns(final SparseMatrix rateMatrix, int k, ForkJoinPool pool)
+			throws Exception {
+		final int numItems = rateMatrix.numColumns();
+		final int[] columns = new int[numItems];
+		for (int j = 0; j < numItems; j++)
+			columns[j] = j;
+
+		final NeighborIndex index = new NeighborIndex(numItems, k);
+		jaccardOfColumns(rateMatrix, columns, index, pool);
+		return index;
+	}
+
+	/**
+	 * Update the neighbors built by {@link #jaccardOfColumns(SparseMatrix, int, ForkJoinPool)} once some ratings have
+	 * been added. Adding rater u to item j only changes the similarities of j: the neighbors of j, of the items rated
+	 * by u and of the items having j as a neighbor are built again, into a copy of the index grown to the columns of
+	 * the rating matrix; the neighbors of the other items are copied.
+	 *
+	 * @param index
+	 *            neighbors of the items before the ratings were added, left unchanged
+	 * @param rateMatrix
+	 *            rating matrix including the added ratings, zero entries are not counted as ratings
+	 * @param users
+	 *            raters of the added ratings
+	 * @param items
+	 *            items of the added ratings
+	 * @param pool
+	 *            fork/join pool, or null to build in the calling thread
+	 * @return a neighbor index over the columns of {@code rateMatrix}
+	 */
+	public static NeighborIndex jaccardOfColumns(NeighborIndex index, SparseMatrix rateMatrix, int[] users,
+			int[] items, ForkJoinPool pool) throws Exception {
+		final int numItems = rateMatrix.numColumns(), k = index.k;
+		final int[] rowPtr = rateMatrix.getRowPointers(), colInd = rateMatrix.getColumnIndices();
+		final double[] rowData = rateMatrix.getData();
+
+		boolean[] rated = new boolean[Math.max(numItems, index.numRows)];
+		for (int j : items)
+			rated[j] = true;
+
+		// items to build again
+		boolean[] stale = new boolean[numItems];
+		for (int j = index.numRows; j < numItems; j++)
+			stale[j] = true;
+		for (int j : items)
+			stale[j] = true;
+		for (int u : users)
+			for (int q = rowPtr[u]; q < rowPtr[u + 1]; q++)
+				if (rowData[q] != 0)
+					stale[colInd[q]] = true;
+		for (int i = 0; i < index.numRows; i++)
+			for (int p = i * k, end = p + index.sizes[i]; p < end && !stale[i]; p++)
+				if (rated[index.ids[p]])
+					stale[i] = true;
+
+		int numStale = 0;
+		int[] columns = new int[numItems];
+		for (int j = 0; j < numItems; j++)
+			if (stale[j])
+				columns[numStale++] = j;
+
+		NeighborIndex updated = new NeighborIndex(numItems, k);
+		int n = Math.min(numItems, index.numRows);
+		System.arraycopy(index.sizes, 0, updated.sizes, 0, n);
+		System.arraycopy(index.ids, 0, updated.ids, 0, n * k);
+		System.arraycopy(index.sims, 0, updated.sims, 0, n * k);
+
+		jaccardOfColumns(rateMatrix, Arrays.copyOf(columns, numStale), updated, pool);
+		return updated;
+	}
+
+	/**
+	 * build the Jaccard neighbors of some columns into an index
+	 */
+	private static void jaccardOfColumns(final SparseMatrix rateMatrix, final int[] columns,
+			final NeighborIndex index, ForkJoinPool pool) throws Exception {
+		final int numItems = rateMatrix.numColumns(), k = index.k;
+		final int[] rowPtr = rateMatrix.getRowPointers(), colInd = rateMatrix.getColumnIndices();
+		final int[] colPtr = rateMatrix.getColumnPointers(), rowInd = rateMatrix.getRowIndices();
+		final double[] rowData = rateMatrix.getData(), colData = rateMatrix.getColumnData();
+
+		// number of raters of each item
+		final int[] numRaters = new int[numItems];
+		for (int j = 0; j < numItems; j++)
+			for (int p = colPtr[j]; p < colPtr[j + 1]; p++)
+				if (colData[p] != 0)
+					numRaters[j]++;
+
+		Parallels.forRange(pool, columns.length, (from, to) -> {
+			// per-task buffers: co-rating counts, the items having a non-zero count, and the top-k
+			int[] common = new int[numItems];
+			int[] touched = new int[numItems];
+			TopKHeap topK = new TopKHeap(k);
+
+			for (int c = from; c < to; c++) {
+				int i = columns[c];
+				int numTouched = 0;
+				for (int p = colPtr[i]; p < colPtr[i + 1]; p++) {
+					if (colData[p] == 0)
+						continue;
+					int u = rowInd[p];
+					for (int q = rowPtr[u]; q < rowPtr[u + 1]; q++) {
+						int j = colInd[q];
+						if (j != i && rowData[q] != 0 && common[j]++ == 0)
+							touched[numTouched++] = j;
+					}
+				}
+
+				topK.clear();
+				for (int t = 0; t < numTouched; t++) {
+					int j = touched[t];
+					int cj = common[j];
+					topK.offer(j, (double) cj / (numRaters[i] + numRaters[j] - cj));
+				}
+				// items without common raters, in id order, if fewer than k items share a rater with item i
+				for (int j = 0; j < numItems && topK.size() < k; j++) {
+					if (j != i && common[j] == 0)
+						topK.offer(j, 0.0);
+				}
+				for (int t = 0; t < numTouched; t++)
+					common[touched[t]] = 0;
+
+				topK.sort();
+				index.set(i, topK);
+			}
+		});
+	}
+
+}
@@ -0,0 +1,296 @@
+// Copyright (C) 2014-2015 Guibing Guo
+//
+// This file is part of LibRec.
+//
+// LibRec is free software: you can redistribute it and/or modify
+// it under the terms of the GNU General Public License as published by
+// the Free Software Foundation, either version 3 of the License, or
+// (at your option) any later version.
+//
+// LibRec is distributed in the hope that it will be useful,
+// but WITHOUT ANY WARRANTY; without even the implied warranty of
+// MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the
+// GNU General Public License for more details.
+//
+// You should have received a copy of the GNU General Public License
+// along with LibRec. If not, see <http://www.gnu.org/licenses/>.
+//
+
+package librec.data;
+
+import java.util.Arrays;
+
+/**
+ * Data Structure: growable coordinate (COO) buffer of {row, column, value, [timestamp]} entries <br>
+ *
+ * Entries are appended to primitive arrays and turned into CRS/CCS matrices by counting sorts, i.e., in
+ * O(entries + rows + columns) time without boxing. Duplicated cells are allowed; the last entry appended wins. The
+ * distinct values and their number of entries are counted while appending.
+ */
+public class RatingBuffer {
+
+	private static final int INITIAL_CAPACITY = 1 << 10;
+
+	private int size;
+	private int[] rows, cols;
+	private double[] vals;
+	// null until the first timestamp
+	private long[] times;
+
+	// distinct values: open-addressing table of value bits, and the number of entries of each value
+	private long[] valueBits;
+	private int[] valueCounts;
+	private boolean[] valueUsed;
+	private int numValues;
+
+	// entry positions ordered by row, then by column, without duplicated cells; built lazily
+	private int[] order;
+	private int[] rowPtr, colInd;
+
+	public RatingBuffer() {
+		rows = new int[INITIAL_CAPACITY];
+		cols = new int[INITIAL_CAPACITY];
+		vals = new double[INITIAL_CAPACITY];
+
+		valueBits = new long[16];
+		valueCounts = new int[16];
+		valueUsed = new boolean[16];
+	}
+
+	/**
+	 * append an entry
+	 */
+	public void add(int row, int col, double val) {
+		if (size == rows.length)
+			grow();
+
+		rows[size] = row;
+		cols[size] = col;
+		vals[size] = val;
+		if (times != null)
+			times[size] = 0L;
+		size++;
+
+		countValue(val);
+		order = null;
+	}
+
+	/**
+	 * append an entry with its timestamp
+	 */
+	public void add(int row, int col, double val, long time) {
+		if (times == null)
+			times = new long[rows.length];
+
+		add(row, col, val);
+		times[size - 1] = time;
+	}
+
+	/**
+	 * @return number of entries appended, including duplicated cells
+	 */
+	public int size() {
+		return size;
+	}
+
+	/**
+	 * @return whether timestamps have been appended
+	 */
+	public boolean hasTimes() {
+		return times != null;
+	}
+
+	/**
+	 * @return distinct values in ascending order
+	 */
+	public double[] distinctValues() {
+		double[] res = new double[numValues];
+		for (int p = 0, i = 0; p < valueUsed.length; p++)
+			if (valueUsed[p])
+				res[i++] = Double.longBitsToDouble(valueBits[p]);
+		Arrays.sort(res);
+		return res;
+	}
+
+	/**
+	 * @return number of entries having a given value
+	 */
+	public int count(double val) {
+		int p = slot(val);
+		return p < 0 ? 0 : valueCounts[p];
+	}
+
+	/**
+	 * @return slot of a distinct value, or -1 if it is absent
+	 */
+	private int slot(double val) {
+		long bits = Double.doubleToLongBits(val);
+		int mask = valueBits.length - 1;
+		for (int p = hash(bits) & mask; valueUsed[p]; p = (p + 1) & mask)
+			if (valueBits[p] == bits)
+				return p;
+		return -1;
+	}
+
+	/**
+	 * Add a constant to the values of all entries, e.g., to shift a rating scale starting from 0
+	 */
+	public void shift(double delta) {
+		for (int i = 0; i < size; i++)
+			vals[i] += delta;
+
+		// re-key the distinct values
+		long[] oldBits = valueBits;
+		int[] oldCounts = valueCounts;
+		boolean[] oldUsed = valueUsed;
+
+		valueBits = new long[oldBits.length];
+		valueCounts = new int[oldBits.length];
+		valueUsed = new boolean[oldBits.length];
+		numValues = 0;
+		for (int q = 0; q < oldBits.length; q++) {
+			if (!oldUsed[q])
+				continue;
+			double val = Double.longBitsToDouble(oldBits[q]) + delta;
+			countValue(val);
+			valueCounts[slot(val)] += oldCounts[q] - 1;
+		}
+	}
+
+	/**
+	 * @return a rating matrix with both CRS and CCS structures
+	 */
+	public SparseMatrix toRateMatrix(int numRows, int numCols) {
+		return toMatrix(numRows, numCols, vals, null);
+	}
+
+	/**
+	 * @return a timestamp matrix with the same structure as {@link #toRateMatrix}, or null if there is no timestamp
+	 */
+	public SparseMatrix toTimeMatrix(int numRows, int numCols) {
+		return times == null ? null : toMatrix(numRows, numCols, null, times);
+	}
+
+	private SparseMatrix toMatrix(int numRows, int numCols, double[] dv, long[] tv) {
+		if (order == null || rowPtr.length != numRows + 1)
+			sort(numRows, numCols);
+
+		int nnz = order.length;
+		double[] rowData = new double[nnz];
+		for (int j = 0; j < nnz; j++)
+			rowData[j] = dv != null ? dv[order[j]] : tv[order[j]];
+
+		return SparseMatrix.fromCRS(numRows, numCols, rowPtr.clone(), colInd.clone(), rowData);
+	}
+
+	/**
+	 * Order the entries by row, then by column, with two stable counting sorts, and drop all but the last entry of each
+	 * duplicated cell
+	 */
+	private void sort(int numRows, int numCols) {
+		// by column
+		int[] ptr = new int[numCols + 1];
+		for (int i = 0; i < size; i++) {
+			int c = cols[i];
+			if (c < 0 || c >= numCols)
+				throw new IllegalArgumentException("column " + c + " is not a valid column index");
+			ptr[c + 1]++;
+		}
+		for (int c = 0; c < numCols; c++)
+			ptr[c + 1] += ptr[c];
+		int[] byCol = new int[size];
+		for (int i = 0; i < size; i++)
+			byCol[ptr[cols[i]]++] = i;
+
+		// then by row, stable: columns stay ascending and duplicates stay in appending order
+		ptr = new int[numRows + 1];
+		for (int i = 0; i < size; i++) {
+			int r = rows[i];
+			if (r < 0 || r >= numRows)
+				throw new IllegalArgumentException("row " + r + " is not a valid row index");
+			ptr[r + 1]++;
+		}
+		for (int r = 0; r < numRows; r++)
+			ptr[r + 1] += ptr[r];
+		int[] sorted = new int[size];
+		for (int k = 0; k < size; k++) {
+			int i = byCol[k];
+			sorted[ptr[rows[i]]++] = i;
+		}
+		byCol = null;
+
+		// remove duplicated cells, keeping the last one
+		rowPtr = new int[numRows + 1];
+		int nnz = 0;
+		for (int k = 0; k < size; k++) {
+			int i = sorted[k];
+			if (k + 1 < size && rows[sorted[k + 1]] == rows[i] && cols[sorted[k + 1]] == cols[i])
+				continue;
+			sorted[nnz++] = i;
+			rowPtr[rows[i] + 1]++;
+		}
+		for (int r = 0; r < numRows; r++)
+			rowPtr[r + 1] += rowPtr[r];
+
+		order = nnz == size ? sorted : Arrays.copyOf(sorted, nnz);
+		colInd = new int[nnz];
+		for (int j = 0; j < nnz; j++)
+			colInd[j] = cols[order[j]];
+	}
+
+	private void grow() {
+		int capacity = rows.length + (rows.length >> 1);
+		rows = Arrays.copyOf(rows, capacity);
+		cols = Arrays.copyOf(cols, capacity);
+		vals = Arrays.copyOf(vals, capacity);
+		if (times != null)
+			times = Arrays.copyOf(times, capacity);
+	}
+
+	private void countValue(double val) {
+		long bits = Double.doubleToLongBits(val);
+		int mask = valueBits.length - 1;
+		int p = hash(bits) & mask;
+		for (; valueUsed[p]; p = (p + 1) & mask) {
+			if (valueBits[p] == bits) {
+				valueCounts[p]++;
+				return;
+			}
+		}
+
+		valueUsed[p] = true;
+		valueBits[p] = bits;
+		valueCounts[p] = 1;
+
+		// keep the load factor at most 1/2
+		if (2 * ++numValues > valueBits.length)
+			rehashValues();
+	}
+
+	private void rehashValues() {
+		long[] oldBits = valueBits;
+		int[] oldCounts = valueCounts;
+		boolean[] oldUsed = valueUsed;
+
+		int capacity = 2 * oldBits.length, mask = capacity - 1;
+		valueBits = new long[capacity];
+		valueCounts = new int[capacity];
+		valueUsed = new boolean[capacity];
+		for (int q = 0; q < oldBits.length; q++) {
+			if (!oldUsed[q])
+				continue;
+			int p = hash(oldBits[q]) & mask;
+			while (valueUsed[p])
+				p = (p + 1) & mask;
+			valueUsed[p] = true;
+			valueBits[p] = oldBits[q];
+			valueCounts[p] = oldCounts[q];
+		}
+	}
+
+	private static int hash(long bits) {
+		long h = bits * 0x9E3779B97F4A7C15L;
+		return (int) (h ^ (h >>> 32));
+	}
+
+}
@@ -0,0 +1,249 @@
+// Copyright (C) 2014-2015 Guibing Guo
+//
+// This file is part of LibRec.
+//
+// LibRec is free software: you can redistribute it and/or modify
+// it under the terms of the GNU General Public License as published by
+// the Free Software Foundation, either version 3 of the License, or
+// (at your option) any later version.
+//
+// LibRec is distributed in the hope that it will be useful,
+// but WITHOUT ANY WARRANTY; without even the implied warranty of
+// MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the
+// GNU General Public License for more details.
+//
+// You should have received a copy of the GNU General Public License
+// along with LibRec. If not, see <http://www.gnu.org/licenses/>.
+//
+
+package librec.data;
+
+import java.util.Arrays;
+
+/**
+ * Data Structure: mutable store of ratings on top of a {@link SparseMatrix} <br>
+ *
+ * New ratings are appended in O(1) amortized time to growable primitive segments, one per row, and merged into a new
+ * CRS/CCS matrix by a compaction, in time linear in the number of ratings. Compactions run whenever the pending
+ * ratings grow beyond a fraction of the compacted ones, or on demand. Rows and columns beyond the current dimensions
+ * are added as they are rated; a later rating of a cell replaces an earlier one. <br>
+ *
+ * A compacted matrix is a consistent snapshot: it is never modified by the store, so concurrent readers can score on
+ * it without locking while ratings are added, and must not modify it either. Writes are synchronized.
+ */
+public class RatingStore {
+
+	// pending ratings that always trigger a compaction
+	private static final int MAX_PENDING = 1 << 20;
+
+	// last compacted ratings, and their number of stored entries
+	private volatile SparseMatrix matrix;
+	private int numCompacted;
+
+	private int numRows, numColumns;
+
+	// pending ratings of each row, in appending order; null for rows without any
+	private int[][] pendingCols;
+	private double[][] pendingVals;
+	private int[] pendingSizes;
+	private int numPending;
+
+	// pending ratings, relative to the compacted ones, that trigger a compaction
+	private final double compactionRatio;
+
+	/**
+	 * Construct a store of the ratings of a matrix, which is used as is as the first snapshot
+	 *
+	 * @param matrix
+	 *            ratings, not to be modified any more
+	 * @param compactionRatio
+	 *            compact once the pending ratings exceed this fraction of the compacted ones
+	 */
+	public RatingStore(SparseMatrix matrix, double compactionRatio) {
+		this.matrix = matrix;
+		this.compactionRatio = compactionRatio;
+		numCompacted = matrix.getRowPointers()[matrix.numRows()];
+
+		numRows = matrix.numRows();
+		numColumns = matrix.numColumns();
+		pendingCols = new int[numRows][];
+		pendingVals = new double[numRows][];
+		pendingSizes = new int[numRows];
+	}
+
+	/**
+	 * Construct a store of the ratings of a matrix, compacted once the pending ratings exceed 1/8 of the compacted ones
+	 */
+	public RatingStore(SparseMatrix matrix) {
+		this(matrix, 0.125);
+	}
+
+	/**
+	 * Construct an empty store
+	 */
+	public RatingStore(int numRows, int numColumns) {
+		this(SparseMatrix.fromCRS(numRows, numColumns, new int[numRows + 1], new int[0], new double[0]));
+	}
+
+	/**
+	 * add (or replace) the rating of a cell
+	 */
+	public synchronized void add(int row, int col, double val) {
+		if (row < 0 || col < 0)
+			throw new IllegalArgumentException("(" + row + ", " + col + ") is not a valid cell");
+
+		if (row >= numRows)
+			addRows(row + 1);
+		if (col >= numColumns)
+			numColumns = col + 1;
+
+		int[] cols = pendingCols[row];
+		int size = pendingSizes[row];
+		if (cols == null) {
+			pendingCols[row] = new int[4];
+			pendingVals[row] = new double[4];
+		} else if (size == cols.length) {
+			int capacity = size + (size >> 1);
+			pendingCols[row] = Arrays.copyOf(cols, capacity);
+			pendingVals[row] = Arrays.copyOf(pendingVals[row], capacity);
+		}
+
+		pendingCols[row][size] = col;
+		pendingVals[row][size] = val;
+		pendingSizes[row] = size + 1;
+
+		if (++numPending > Math.min(MAX_PENDING, Math.max(64, compactionRatio * numCompacted)))
+			compact();
+	}
+
+	/**
+	 * @return the rating of a cell, including the pending ratings, or 0 if it is not rated
+	 */
+	public synchronized double get(int row, int col) {
+		if (row < 0 || row >= numRows || col < 0 || col >= numColumns)
+			return 0;
+
+		// the last pending rating wins
+		int[] cols = pendingCols[row];
+		for (int j = pendingSizes[row] - 1; j >= 0; j--)
+			if (cols[j] == col)
+				return pendingVals[row][j];
+
+		SparseMatrix m = matrix;
+		return row < m.numRows() && col < m.numColumns() ? m.get(row, col) : 0;
+	}
+
+	/**
+	 * @return the last compacted ratings, without the pending ones; lock-free
+	 */
+	public SparseMatrix matrix() {
+		return matrix;
+	}
+
+	/**
+	 * @return all the ratings added so far, compacted first if some are pending
+	 */
+	public synchronized SparseMatrix snapshot() {
+		SparseMatrix m = matrix;
+		if (numPending > 0 || m.numRows() != numRows || m.numColumns() != numColumns)
+			compact();
+		return matrix;
+	}
+
+	/**
+	 * @return number of ratings not compacted yet
+	 */
+	public synchronized int numPending() {
+		return numPending;
+	}
+
+	/**
+	 * @return number of rows, including those of the pending ratings
+	 */
+	public synchronized int numRows() {
+		return numRows;
+	}
+
+	/**
+	 * @return number of columns, including those of the pending ratings
+	 */
+	public synchronized int numColumns() {
+		return numColumns;
+	}
+
+	/**
+	 * Merge the pending ratings into a new CRS/CCS matrix: each row of the compacted matrix is merged with its
+	 * pending ratings sorted by column, and the CCS structure is rebuilt by a counting sort
+	 */
+	public synchronized void compact() {
+		SparseMatrix m = matrix;
+		int[] ptr = m.getRowPointers(), ind = m.getColumnIndices();
+		double[] data = m.getData();
+		int mRows = m.numRows();
+
+		int[] rowPtr = new int[numRows + 1];
+		int[] colInd = new int[numCompacted + numPending];
+		double[] rowData = new double[colInd.length];
+		long[] keys = new long[16];
+
+		int nnz = 0;
+		for (int r = 0; r < numRows; r++) {
+			int j = r < mRows ? ptr[r] : 0, end = r < mRows ? ptr[r + 1] : 0;
+
+			int size = pendingSizes[r];
+			if (size > 0) {
+				// order the pending ratings by column, then by appending order
+				if (keys.length < size)
+					keys = new long[Math.max(size, 2 * keys.length)];
+				int[] cols = pendingCols[r];
+				for (int k = 0; k < size; k++)
+					keys[k] = (long) cols[k] << 32 | k;
+				Arrays.sort(keys, 0, size);
+
+				for (int k = 0; k < size; k++) {
+					int col = (int) (keys[k] >>> 32);
+					if (k + 1 < size && (int) (keys[k + 1] >>> 32) == col)
+						continue; // replaced by a later rating
+
+					for (; j < end && ind[j] < col; j++, nnz++) {
+						colInd[nnz] = ind[j];
+						rowData[nnz] = data[j];
+					}
+					if (j < end && ind[j] == col)
+						j++; // replaced by the pending rating
+
+					colInd[nnz] = col;
+					rowData[nnz++] = pendingVals[r][(int) keys[k]];
+				}
+
+				pendingCols[r] = null;
+				pendingVals[r] = null;
+				pendingSizes[r] = 0;
+			}
+
+			for (; j < end; j++, nnz++) {
+				colInd[nnz] = ind[j];
+				rowData[nnz] = data[j];
+			}
+			rowPtr[r + 1] = nnz;
+		}
+
+		if (nnz < colInd.length) {
+			colInd = Arrays.copyOf(colInd, nnz);
+			rowData = Arrays.copyOf(rowData, nnz);
+		}
+
+		numPending = 0;
+		numCompacted = nnz;
+		matrix = SparseMatrix.fromCRS(numRows, numColumns, rowPtr, colInd, rowData);
+	}
+
+	private void addRows(int rows) {
+		int capacity = Math.max(rows, numRows + (numRows >> 1));
+		pendingCols = Arrays.copyOf(pendingCols, capacity);
+		pendingVals = Arrays.copyOf(pendingVals, capacity);
+		pendingSizes = Arrays.copyOf(pendingSizes, capacity);
+		numRows = rows;
+	}
+
+}
@@ -0,0 +1,517 @@
+// Copyright (C) 2014-2015 Guibing Guo
+//
+// This file is part of LibRec.
+//
+// LibRec is free software: you can redistribute it and/or modify
+// it under the terms of the GNU General Public License as published by
+// the Free Software Foundation, either version 3 of the License, or
+// (at your option) any later version.
+//
+// LibRec is distributed in the hope that it will be useful,
+// but WITHOUT ANY WARRANTY; without even the implied warranty of
+// MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the
+// GNU General Public License for more details.
+//
+// You should have received a copy of the GNU General Public License
+// along with LibRec. If not, see <http://www.gnu.org/licenses/>.
+//
+
+package librec.data;
+
+import com.google.common.collect.BiMap;
+import com.google.common.collect.HashBiMap;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.nio.BufferUnderflowException;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.DoubleBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.AtomicMoveNotSupportedException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.Set;
+
+/**
+ * Versioned binary snapshot of named model data: sparse matrices (CRS and CCS arrays), dense matrices, dense vectors
+ * and {raw id, inner id} maps. <br>
+ *
+ * A snapshot file is little-endian and laid out as:
+ * <ul>
+ * <li>a header of {@value #HEADER_SIZE} bytes: magic, version, number of sections, offset of the table of
+ * contents;</li>
+ * <li>the sections, each starting at a multiple of 8 bytes, with their arrays stored contiguously;</li>
+ * <li>the table of contents: {type, name, offset, length} of every section.</li>
+ * </ul>
+ * A {@link Reader} maps the file with {@link FileChannel#map} and bulk-copies each array out of the mapping, so that
+ * loading costs about one memory copy of the data instead of object deserialization.
+ */
+public class Snapshot {
+
+	/**
+	 * "LRSN"
+	 */
+	public static final int MAGIC = 0x4C52534E;
+	/**
+	 * format version, to be increased on any incompatible change of the layout
+	 */
+	public static final int VERSION = 1;
+
+	private static final int HEADER_SIZE = 32;
+
+	// section types
+	private static final byte SPARSE_MATRIX = 1, DENSE_MATRIX = 2, DENSE_VECTOR = 3, IDS = 4;
+
+	// maximum number of bytes mapped at once
+	private static final int MAX_MAPPING = 1 << 30;
+
+	private static class Section {
+		final byte type;
+		final long offset, length;
+
+		Section(byte type, long offset, long length) {
+			this.type = type;
+			this.offset = offset;
+			this.length = length;
+		}
+	}
+
+	/**
+	 * Write sections to a snapshot file. The sections are written to a temporary file next to the snapshot file, which
+	 * only replaces the snapshot file once {@link #commit()} is called: a writer closed without a commit, e.g., because
+	 * a section could not be written, leaves any previous snapshot file as it was.
+	 */
+	public static class Writer implements Closeable {
+
+		private final Path path, tempPath;
+		private final FileChannel channel;
+		private final ByteBuffer buffer;
+		private final Map<String, Section> toc = new LinkedHashMap<>();
+		private long position;
+		private boolean committed;
+
+		/**
+		 * Start a snapshot file
+		 */
+		public Writer(String filePath) throws IOException {
+			path = Paths.get(filePath);
+			tempPath = Paths.get(filePath + ".tmp");
+			channel = FileChannel.open(tempPath, StandardOpenOption.CREATE, StandardOpenOption.WRITE,
+					StandardOpenOption.TRUNCATE_EXISTING);
+			buffer = ByteBuffer.allocateDirect(1 << 20).order(ByteOrder.LITTLE_ENDIAN);
+
+			// header, completed by commit()
+			for (int i = 0; i < HEADER_SIZE; i++)
+				buffer.put((byte) 0);
+			position = HEADER_SIZE;
+		}
+
+		/**
+		 * write a sparse matrix with both CRS and CCS structures
+		 */
+		public Writer put(String name, SparseMatrix mat) throws IOException {
+			long offset = begin();
+			int nnz = mat.rowData.length;
+			putInt(mat.numRows);
+			putInt(mat.numColumns);
+			putInt(nnz);
+			putInt(mat.colData != null ? 1 : 0);
+
+			putInts(mat.rowPtr);
+			putInts(mat.colInd);
+			putDoubles(mat.rowData);
+			if (mat.colData != null) {
+				putInts(mat.colPtr);
+				putInts(mat.rowInd);
+				putDoubles(mat.colData);
+			}
+			return end(name, SPARSE_MATRIX, offset);
+		}
+
+		/**
+		 * write a dense matrix, row by row
+		 */
+		public Writer put(String name, DenseMatrix mat) throws IOException {
+			long offset = begin();
+			putInt(mat.numRows);
+			putInt(mat.numColumns);
+			for (int i = 0; i < mat.numRows; i++)
+				putDoubles(mat.data[i]);
+			return end(name, DENSE_MATRIX, offset);
+		}
+
+		/**
+		 * write a dense vector
+		 */
+		public Writer put(String name, DenseVector vec) throws IOException {
+			long offset = begin();
+			putInt(vec.size);
+			putInt(0);
+			putDoubles(vec.data);
+			return end(name, DENSE_VECTOR, offset);
+		}
+
+		/**
+		 * write a {raw id, inner id} map whose inner ids are 0, 1, ..., size - 1
+		 */
+		public Writer put(String name, BiMap<String, Integer> ids) throws IOException {
+			int n = ids.size();
+			byte[][] rawIds = new byte[n][];
+			for (Map.Entry<String, Integer> en : ids.entrySet()) {
+				int id = en.getValue();
+				if (id < 0 || id >= n || rawIds[id] != null)
+					throw new IllegalArgumentException("inner ids of " + name + " are not 0, 1, ..., " + (n - 1));
+				rawIds[id] = en.getKey().getBytes(StandardCharsets.UTF_8);
+			}
+
+			// byte offsets of the raw ids in the blob that follows
+			int[] ends = new int[n + 1];
+			for (int i = 0; i < n; i++)
+				ends[i + 1] = ends[i] + rawIds[i].length;
+
+			long offset = begin();
+			putInt(n);
+			putInt(0);
+			putInts(ends);
+			for (byte[] rawId : rawIds)
+				for (byte b : rawId)
+					putByte(b);
+			return end(name, IDS, offset);
+		}
+
+		/**
+		 * Complete the snapshot with its table of contents and header, and move it onto the snapshot file
+		 */
+		public void commit() throws IOException {
+			if (committed)
+				throw new IllegalStateException("The snapshot " + path + " is already committed");
+
+			// table of contents
+			long tocOffset = begin();
+			putInt(toc.size());
+			for (Map.Entry<String, Section> en : toc.entrySet()) {
+				byte[] name = en.getKey().getBytes(StandardCharsets.UTF_8);
+				Section s = en.getValue();
+				putByte(s.type);
+				putInt(name.length);
+				for (byte b : name)
+					putByte(b);
+				putLong(s.offset);
+				putLong(s.length);
+			}
+			flush();
+
+			ByteBuffer header = ByteBuffer.allocate(HEADER_SIZE).order(ByteOrder.LITTLE_ENDIAN);
+			header.putInt(MAGIC).putInt(VERSION).putInt(toc.size()).putInt(0).putLong(tocOffset).putLong(0L);
+			header.flip();
+			while (header.hasRemaining())
+				channel.write(header, header.position());
+			channel.force(true);
+			channel.close();
+
+			try {
+				Files.move(tempPath, path, StandardCopyOption.ATOMIC_MOVE);
+			} catch (AtomicMoveNotSupportedException e) {
+				Files.move(tempPath, path, StandardCopyOption.REPLACE_EXISTING);
+			}
+			committed = true;
+		}
+
+		/**
+		 * Release the file, and discard the sections written unless they are committed
+		 */
+		@Override
+		public void close() throws IOException {
+			if (committed)
+				return;
+			try {
+				channel.close();
+			} finally {
+				Files.deleteIfExists(tempPath);
+			}
+		}
+
+		private long begin() throws IOException {
+			// align sections on 8 bytes
+			while (position % 8 != 0)
+				putByte((byte) 0);
+			return position;
+		}
+
+		private Writer end(String name, byte type, long offset) {
+			if (toc.containsKey(name))
+				throw new IllegalArgumentException("duplicated section " + name);
+			toc.put(name, new Section(type, offset, position - offset));
+			return this;
+		}
+
+		private void ensure(int bytes) throws IOException {
+			if (buffer.remaining() < bytes)
+				flush();
+		}
+
+		private void flush() throws IOException {
+			buffer.flip();
+			while (buffer.hasRemaining())
+				channel.write(buffer);
+			buffer.clear();
+		}
+
+		private void putByte(byte b) throws IOException {
+			ensure(1);
+			buffer.put(b);
+			position++;
+		}
+
+		private void putInt(int v) throws IOException {
+			ensure(4);
+			buffer.putInt(v);
+			position += 4;
+		}
+
+		private void putLong(long v) throws IOException {
+			ensure(8);
+			buffer.putLong(v);
+			position += 8;
+		}
+
+		private void putInts(int[] vs) throws IOException {
+			for (int v : vs)
+				putInt(v);
+			// keep the next array on 8 bytes
+			begin();
+		}
+
+		private void putDoubles(double[] vs) throws IOException {
+			for (double v : vs) {
+				ensure(8);
+				buffer.putDouble(v);
+				position += 8;
+			}
+		}
+	}
+
+	/**
+	 * Read sections of a snapshot file through memory mappings
+	 */
+	public static class Reader implements Closeable {
+
+		private final String filePath;
+		private final FileChannel channel;
+		private final Map<String, Section> toc = new LinkedHashMap<>();
+
+		/**
+		 * Open a snapshot file and read its table of contents
+		 *
+		 * @throws IOException
+		 *             if the file is not a snapshot, a snapshot of another version, or a truncated snapshot
+		 */
+		public Reader(String filePath) throws IOException {
+			this.filePath = filePath;
+			Path path = Paths.get(filePath);
+			channel = FileChannel.open(path, StandardOpenOption.READ);
+
+			try {
+				long size = channel.size();
+				if (size < HEADER_SIZE)
+					throw new IOException(filePath + " is not a snapshot file");
+
+				ByteBuffer header = map(0, HEADER_SIZE);
+				if (header.getInt() != MAGIC)
+					throw new IOException(filePath + " is not a snapshot file");
+				int version = header.getInt();
+				if (version != VERSION)
+					throw new IOException("Unsupported snapshot version " + version + " of " + filePath
+							+ ", expected version " + VERSION);
+				header.getInt();
+				header.getInt();
+				long tocOffset = header.getLong();
+				if (tocOffset < HEADER_SIZE || tocOffset + 4 > size)
+					throw new IOException(filePath + " is a truncated snapshot file");
+
+				ByteBuffer tb = map(tocOffset, size - tocOffset);
+				int numSections = tb.getInt();
+				for (int i = 0; i < numSections; i++) {
+					byte type = tb.get();
+					int nameLength = tb.getInt();
+					if (nameLength < 0 || nameLength > tb.remaining())
+						throw new BufferUnderflowException();
+					byte[] name = new byte[nameLength];
+					tb.get(name);
+					Section s = new Section(type, tb.getLong(), tb.getLong());
+					if (s.offset < HEADER_SIZE || s.length < 0 || s.offset + s.length > tocOffset)
+						throw new IOException(filePath + " is a truncated snapshot file");
+					toc.put(new String(name, StandardCharsets.UTF_8), s);
+				}
+			} catch (BufferUnderflowException e) {
+				channel.close();
+				throw new IOException(filePath + " is a truncated snapshot file", e);
+			} catch (IOException | RuntimeException e) {
+				channel.close();
+				throw e;
+			}
+		}
+
+		/**
+		 * @return names of the sections
+		 */
+		public Set<String> names() {
+			return toc.keySet();
+		}
+
+		/**
+		 * @return whether there is a section of a given name
+		 */
+		public boolean contains(String name) {
+			return toc.containsKey(name);
+		}
+
+		public SparseMatrix getSparseMatrix(String name) throws IOException {
+			Section s = section(name, SPARSE_MATRIX);
+			ByteBuffer head = map(s.offset, 16);
+			int numRows = head.getInt(), numColumns = head.getInt(), nnz = head.getInt();
+			boolean hasCCS = head.getInt() != 0;
+
+			long pos = s.offset + 16;
+			int[] rowPtr = new int[numRows + 1], colInd = new int[nnz];
+			double[] rowData = new double[nnz];
+			pos = getInts(pos, rowPtr);
+			pos = getInts(pos, colInd);
+			pos = getDoubles(pos, rowData);
+			if (!hasCCS)
+				return new SparseMatrix(numRows, numColumns, rowPtr, colInd, rowData, null, null, null);
+
+			int[] colPtr = new int[numColumns + 1], rowInd = new int[nnz];
+			double[] colData = new double[nnz];
+			pos = getInts(pos, colPtr);
+			pos = getInts(pos, rowInd);
+			getDoubles(pos, colData);
+			return new SparseMatrix(numRows, numColumns, rowPtr, colInd, rowData, colPtr, rowInd, colData);
+		}
+
+		public DenseMatrix getDenseMatrix(String name) throws IOException {
+			Section s = section(name, DENSE_MATRIX);
+			ByteBuffer head = map(s.offset, 8);
+			int numRows = head.getInt(), numColumns = head.getInt();
+
+			double[][] data = new double[numRows][numColumns];
+			long pos = s.offset + 8;
+			// map as many rows as possible at once
+			int rowsPerMapping = Math.max(1, MAX_MAPPING / Math.max(1, 8 * numColumns));
+			for (int i = 0; i < numRows; ) {
+				int n = Math.min(numRows - i, rowsPerMapping);
+				if (numColumns > MAX_MAPPING / 8) {
+					pos = getDoubles(pos, data[i++]);
+					continue;
+				}
+				DoubleBuffer db = map(pos, 8L * n * numColumns).asDoubleBuffer();
+				for (int end = i + n; i < end; i++)
+					db.get(data[i]);
+				pos += 8L * n * numColumns;
+			}
+			return new DenseMatrix(data, numRows, numColumns);
+		}
+
+		public DenseVector getDenseVector(String name) throws IOException {
+			Section s = section(name, DENSE_VECTOR);
+			int size = map(s.offset, 8).getInt();
+
+			double[] data = new double[size];
+			getDoubles(s.offset + 8, data);
+			return new DenseVector(data, false);
+		}
+
+		public BiMap<String, Integer> getIds(String name) throws IOException {
+			Section s = section(name, IDS);
+			int n = map(s.offset, 8).getInt();
+
+			int[] ends = new int[n + 1];
+			long pos = getInts(s.offset + 8, ends);
+			ByteBuffer blob = map(pos, ends[n]);
+
+			BiMap<String, Integer> ids = HashBiMap.create(n);
+			byte[] bytes = new byte[64];
+			for (int i = 0; i < n; i++) {
+				int len = ends[i + 1] - ends[i];
+				if (bytes.length < len)
+					bytes = new byte[len];
+				blob.get(bytes, 0, len);
+				ids.put(new String(bytes, 0, len, StandardCharsets.UTF_8), i);
+			}
+			return ids;
+		}
+
+		/**
+		 * Check that the {raw id, inner id} maps of the snapshot, if any, are those of a data access object
+		 *
+		 * @throws IllegalStateException
+		 *             if the ids differ
+		 */
+		public void checkIds(DataDAO rateDao) throws IOException {
+			if (!contains("userIds"))
+				return;
+
+			BiMap<String, Integer> userIds = getIds("userIds");
+			BiMap<String, Integer> itemIds = contains("itemIds") ? getIds("itemIds") : userIds;
+			if (!userIds.equals(rateDao.getUserIds()) || !itemIds.equals(rateDao.getItemIds()))
+				throw new IllegalStateException("The ids of the snapshot " + filePath
+						+ " differ from those of the rating data " + rateDao.getDataPath());
+		}
+
+		@Override
+		public void close() throws IOException {
+			channel.close();
+		}
+
+		private Section section(String name, byte type) throws IOException {
+			Section s = toc.get(name);
+			if (s == null)
+				throw new IOException("No section " + name + " in snapshot");
+			if (s.type != type)
+				throw new IOException("Section " + name + " is of type " + s.type + ", not " + type);
+			return s;
+		}
+
+		private ByteBuffer map(long offset, long length) throws IOException {
+			MappedByteBuffer mb = channel.map(FileChannel.MapMode.READ_ONLY, offset, length);
+			mb.order(ByteOrder.LITTLE_ENDIAN);
+			return mb;
+		}
+
+		/**
+		 * @return the position after the array
+		 */
+		private long getInts(long pos, int[] dst) throws IOException {
+			for (int from = 0; from < dst.length; ) {
+				int n = Math.min(dst.length - from, MAX_MAPPING / 4);
+				map(pos, 4L * n).asIntBuffer().get(dst, from, n);
+				from += n;
+				pos += 4L * n;
+			}
+			// arrays of the next field start on 8 bytes
+			return (pos + 7) & ~7L;
+		}
+
+		/**
+		 * @return the position after the array
+		 */
+		private long getDoubles(long pos, double[] dst) throws IOException {
+			for (int from = 0; from < dst.length; ) {
+				int n = Math.min(dst.length - from, MAX_MAPPING / 8);
+				map(pos, 8L * n).asDoubleBuffer().get(dst, from, n);
+				from += n;
+				pos += 8L * n;
+			}
+			return pos;
+		}
+	}
+
+}
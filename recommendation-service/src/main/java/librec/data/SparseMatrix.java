@@ -90,6 +90,50 @@ public class SparseMatrix implements Iterable<MatrixEntry>, DataMatrix, Serializ
 		construct(dataTable, colMap);
 	}
 
+	/**
+	 * Construct a sparse matrix from its CRS and CCS structures; the arrays are used as is, not copied
+	 */
+	public SparseMatrix(int rows, int cols, int[] rowPtr, int[] colInd, double[] rowData, int[] colPtr,
+						int[] rowInd, double[] colData) {
+		numRows = rows;
+		numColumns = cols;
+
+		this.rowPtr = rowPtr;
+		this.colInd = colInd;
+		this.rowData = rowData;
+		this.colPtr = colPtr;
+		this.rowInd = rowInd;
+		this.colData = colData;
+	}
+
+	/**
+	 * Construct a sparse matrix from its CRS structure, whose columns are ascending in each row; the CCS structure is
+	 * derived by a counting sort, and the CRS arrays are used as is, not copied
+	 */
+	public static SparseMatrix fromCRS(int rows, int cols, int[] rowPtr, int[] colInd, double[] rowData) {
+		int nnz = rowPtr[rows];
+
+		// a counting sort of the CRS entries by column keeps the rows of each column ascending
+		int[] colPtr = new int[cols + 1];
+		for (int j = 0; j < nnz; j++)
+			colPtr[colInd[j] + 1]++;
+		for (int c = 0; c < cols; c++)
+			colPtr[c + 1] += colPtr[c];
+
+		int[] rowInd = new int[nnz];
+		double[] colData = new double[nnz];
+		int[] cursor = Arrays.copyOf(colPtr, cols);
+		for (int r = 0; r < rows; r++) {
+			for (int j = rowPtr[r]; j < rowPtr[r + 1]; j++) {
+				int p = cursor[colInd[j]]++;
+				rowInd[p] = r;
+				colData[p] = rowData[j];
+			}
+		}
+
+		return new SparseMatrix(rows, cols, rowPtr, colInd, rowData, colPtr, rowInd, colData);
+	}
+
 	/**
 	 * Construct a sparse matrix from another sparse matrix
 	 *
@@ -188,6 +232,20 @@ public class SparseMatrix implements Iterable<MatrixEntry>, DataMatrix, Serializ
 		return colInd;
 	}
 
+	/**
+	 * @return the column pointers of CCS structure
+	 */
+	public int[] getColumnPointers() {
+		return colPtr;
+	}
+
+	/**
+	 * @return the row indices of CCS structure
+	 */
+	public int[] getRowIndices() {
+		return rowInd;
+	}
+
 	/**
 	 * @return the cardinary of current matrix
 	 */
@@ -297,6 +355,13 @@ public class SparseMatrix implements Iterable<MatrixEntry>, DataMatrix, Serializ
 		return rowData;
 	}
 
+	/**
+	 * @return referce to the data of current matrix in CCS order
+	 */
+	public double[] getColumnData() {
+		return colData;
+	}
+
 	/**
 	 * Set a value to entry [row, column]
 	 *
@@ -310,7 +375,8 @@ public class SparseMatrix implements Iterable<MatrixEntry>, DataMatrix, Serializ
 
 		index = getCCSIndex(row, column);
 		colData[index] = val;
-		valueSet.add(val);
+		if (valueSet != null)
+			valueSet.add(val);
 	}
 
 
@@ -1100,7 +1166,17 @@ public class SparseMatrix implements Iterable<MatrixEntry>, DataMatrix, Serializ
 	}
 
 
+	/**
+	 * @return distinct values of the matrix; built on first use for matrices constructed from CRS/CCS arrays, e.g.,
+	 *         timestamp matrices whose values are mostly distinct
+	 */
 	public Set<Double> getValueSet() {
+		if (valueSet == null) {
+			Set<Double> values = new TreeSet<>();
+			for (double val : rowData)
+				values.add(val);
+			valueSet = values;
+		}
 		return valueSet;
 	}
 }
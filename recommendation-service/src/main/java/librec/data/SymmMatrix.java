@@ -18,32 +18,56 @@
 
 package librec.data;
 
-import com.google.common.collect.HashBasedTable;
-import com.google.common.collect.Table;
-
 import java.io.Serializable;
+import java.util.Arrays;
 
 /**
- * Data Structure, Lower Symmetric Matrix
- * 
+ * Data Structure, Lower Symmetric Matrix <br>
+ *
+ * Entries (row, col) with {@code row >= col} are stored in one of two primitive backends, picked from the expected
+ * density of the matrix:
+ * <ul>
+ * <li>dense: the packed lower triangle, i.e., row r is a {@code double[r + 1]} (8 bytes per cell);</li>
+ * <li>sparse: one open-addressing map from column to value per row (about 24 bytes per non-zero entry).</li>
+ * </ul>
+ * Rows are separate arrays rather than a single packed array, so that the dimension is not limited by the maximum
+ * length of a Java array.
+ *
  * @author guoguibing
- * 
+ *
  */
 public class SymmMatrix implements Serializable {
 
-	private static final long serialVersionUID = -6138247653152029007L;
+	private static final long serialVersionUID = -6138247653152029008L;
+
+	/**
+	 * expected density above which the dense backend takes less memory than the sparse one
+	 */
+	public static final double DENSE_THRESHOLD = 1.0 / 3;
 
 	// matrix dimension
 	protected int dim;
 	// matrix data
-	Table<Integer, Integer, Double> data;
+	private Storage data;
 
 	/**
-	 * Construct a symmetric matrix
+	 * Construct a sparse symmetric matrix
 	 */
 	public SymmMatrix(int dim) {
+		this(dim, 0.0);
+	}
+
+	/**
+	 * Construct a symmetric matrix with a backend suited to a given density
+	 *
+	 * @param dim
+	 *            matrix dimension
+	 * @param density
+	 *            expected fraction of non-zero entries, in [0, 1]
+	 */
+	public SymmMatrix(int dim, double density) {
 		this.dim = dim;
-		data = HashBasedTable.create(); // do not specify the size here as a sparse matrix
+		data = density >= DENSE_THRESHOLD ? new DenseStorage(dim) : new SparseStorage(dim);
 	}
 
 	/**
@@ -51,7 +75,7 @@ public class SymmMatrix implements Serializable {
 	 */
 	public SymmMatrix(SymmMatrix mat) {
 		dim = mat.dim;
-		data = HashBasedTable.create(mat.data);
+		data = mat.data.copy();
 	}
 
 	/**
@@ -61,17 +85,18 @@ public class SymmMatrix implements Serializable {
 		return new SymmMatrix(this);
 	}
 
+	/**
+	 * @return whether the dense backend is used
+	 */
+	public boolean isDense() {
+		return data instanceof DenseStorage;
+	}
+
 	/**
 	 * Get a value at entry (row, col)
 	 */
 	public double get(int row, int col) {
-
-		if (data.contains(row, col))
-			return data.get(row, col);
-		else if (data.contains(col, row))
-			return data.get(col, row);
-
-		return 0.0;
+		return row >= col ? data.get(row, col) : data.get(col, row);
 	}
 
 	/**
@@ -79,9 +104,9 @@ public class SymmMatrix implements Serializable {
 	 */
 	public void set(int row, int col, double val) {
 		if (row >= col)
-			data.put(row, col, val);
+			data.set(row, col, val);
 		else
-			data.put(col, row, val);
+			data.set(col, row, val);
 	}
 
 	/**
@@ -89,9 +114,9 @@ public class SymmMatrix implements Serializable {
 	 */
 	public void add(int row, int col, double val) {
 		if (row >= col)
-			data.put(row, col, val + get(row, col));
+			data.add(row, col, val);
 		else
-			data.put(col, row, val + get(col, row));
+			data.add(col, row, val);
 	}
 
 	/**
@@ -120,7 +145,195 @@ public class SymmMatrix implements Serializable {
 
 	@Override
 	public String toString() {
-		return "Dimension: " + dim + " x " + dim + "\n" + data.toString();
+		StringBuilder sb = new StringBuilder();
+		sb.append("Dimension: ").append(dim).append(" x ").append(dim).append("\n{");
+		boolean first = true;
+		for (int r = 0; r < dim; r++) {
+			for (int c = 0; c <= r; c++) {
+				double val = data.get(r, c);
+				if (val != 0) {
+					sb.append(first ? "" : ", ").append('(').append(r).append(',').append(c).append(")=").append(val);
+					first = false;
+				}
+			}
+		}
+		return sb.append('}').toString();
+	}
+
+	/**
+	 * Storage of the lower triangle, all methods take {@code row >= col}
+	 */
+	private interface Storage extends Serializable {
+		double get(int row, int col);
+
+		void set(int row, int col, double val);
+
+		void add(int row, int col, double val);
+
+		Storage copy();
+	}
+
+	/**
+	 * Packed lower triangle, row r holds the columns [0, r]
+	 */
+	private static class DenseStorage implements Storage {
+		private static final long serialVersionUID = 1L;
+
+		private final double[][] rows;
+
+		DenseStorage(int dim) {
+			rows = new double[dim][];
+			for (int r = 0; r < dim; r++)
+				rows[r] = new double[r + 1];
+		}
+
+		private DenseStorage(double[][] rows) {
+			this.rows = rows;
+		}
+
+		@Override
+		public double get(int row, int col) {
+			return rows[row][col];
+		}
+
+		@Override
+		public void set(int row, int col, double val) {
+			rows[row][col] = val;
+		}
+
+		@Override
+		public void add(int row, int col, double val) {
+			rows[row][col] += val;
+		}
+
+		@Override
+		public Storage copy() {
+			double[][] copy = new double[rows.length][];
+			for (int r = 0; r < rows.length; r++)
+				copy[r] = rows[r].clone();
+			return new DenseStorage(copy);
+		}
+	}
+
+	/**
+	 * Row-sparse lower triangle: per row, an open-addressing hash map (linear probing) from column to value
+	 */
+	private static class SparseStorage implements Storage {
+		private static final long serialVersionUID = 1L;
+
+		// marks an empty slot, columns are non-negative
+		private static final int FREE = -1;
+		private static final int INITIAL_CAPACITY = 4;
+
+		private final int[][] keys;
+		private final double[][] vals;
+		private final int[] sizes;
+
+		SparseStorage(int dim) {
+			keys = new int[dim][];
+			vals = new double[dim][];
+			sizes = new int[dim];
+		}
+
+		@Override
+		public double get(int row, int col) {
+			int[] ks = keys[row];
+			if (ks == null)
+				return 0.0;
+
+			int mask = ks.length - 1;
+			for (int p = hash(col) & mask; ; p = (p + 1) & mask) {
+				int k = ks[p];
+				if (k == col)
+					return vals[row][p];
+				if (k == FREE)
+					return 0.0;
+			}
+		}
+
+		@Override
+		public void set(int row, int col, double val) {
+			int p = slot(row, col);
+			vals[row][p] = val;
+		}
+
+		@Override
+		public void add(int row, int col, double val) {
+			int p = slot(row, col);
+			vals[row][p] += val;
+		}
+
+		/**
+		 * @return the slot of (row, col), inserting the column with value 0 if it is absent
+		 */
+		private int slot(int row, int col) {
+			int[] ks = keys[row];
+			if (ks == null) {
+				ks = keys[row] = new int[INITIAL_CAPACITY];
+				Arrays.fill(ks, FREE);
+				vals[row] = new double[INITIAL_CAPACITY];
+			}
+
+			int mask = ks.length - 1;
+			int p = hash(col) & mask;
+			for (; ks[p] != FREE; p = (p + 1) & mask) {
+				if (ks[p] == col)
+					return p;
+			}
+
+			// keep the load factor at most 1/2
+			if (2 * (sizes[row] + 1) > ks.length) {
+				rehash(row, 2 * ks.length);
+				return slot(row, col);
+			}
+
+			ks[p] = col;
+			sizes[row]++;
+			return p;
+		}
+
+		private void rehash(int row, int capacity) {
+			int[] oldKeys = keys[row];
+			double[] oldVals = vals[row];
+
+			int[] ks = new int[capacity];
+			Arrays.fill(ks, FREE);
+			double[] vs = new double[capacity];
+
+			int mask = capacity - 1;
+			for (int q = 0; q < oldKeys.length; q++) {
+				int k = oldKeys[q];
+				if (k == FREE)
+					continue;
+				int p = hash(k) & mask;
+				while (ks[p] != FREE)
+					p = (p + 1) & mask;
+				ks[p] = k;
+				vs[p] = oldVals[q];
+			}
+
+			keys[row] = ks;
+			vals[row] = vs;
+		}
+
+		private static int hash(int col) {
+			// Fibonacci hashing spreads consecutive columns over the table
+			int h = col * 0x9E3779B9;
+			return h ^ (h >>> 16);
+		}
+
+		@Override
+		public Storage copy() {
+			SparseStorage copy = new SparseStorage(keys.length);
+			for (int r = 0; r < keys.length; r++) {
+				if (keys[r] != null) {
+					copy.keys[r] = keys[r].clone();
+					copy.vals[r] = vals[r].clone();
+				}
+			}
+			System.arraycopy(sizes, 0, copy.sizes, 0, sizes.length);
+			return copy;
+		}
 	}
 
 }
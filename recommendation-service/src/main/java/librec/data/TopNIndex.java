@@ -0,0 +1,98 @@
+// Copyright (C) 2014-2015 Guibing Guo
+//
+// This file is part of LibRec.
+//
+// LibRec is free software: you can redistribute it and/or modify
+// it under the terms of the GNU General Public License as published by
+// the Free Software Foundation, either version 3 of the License, or
+// (at your option) any later version.
+//
+// LibRec is distributed in the hope that it will be useful,
+// but WITHOUT ANY WARRANTY; without even the implied warranty of
+// MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the
+// GNU General Public License for more details.
+//
+// You should have received a copy of the GNU General Public License
+// along with LibRec. If not, see <http://www.gnu.org/licenses/>.
+//
+
+package librec.data;
+
+/**
+ * Data Structure: top-N recommendations of all users <br>
+ *
+ * The ranked (inner) item ids and their ranking scores are kept as primitive arrays per user. An index is filled once
+ * by a builder, each user by exactly one thread, and is read-only after it has been published. Updates are made on a
+ * copy, which replaces the published index once complete.
+ */
+public class TopNIndex {
+
+	private static final int[] NO_ITEMS = new int[0];
+	private static final float[] NO_SCORES = new float[0];
+
+	// ranked items and scores of each user, from the highest score to the lowest
+	private final int[][] items;
+	private final float[][] scores;
+
+	/**
+	 * Construct an empty index
+	 *
+	 * @param numUsers
+	 *            number of users
+	 */
+	public TopNIndex(int numUsers) {
+		items = new int[numUsers][];
+		scores = new float[numUsers][];
+	}
+
+	/**
+	 * Construct a copy of an index to be updated before it is published, sharing the recommendations of its users
+	 *
+	 * @param index
+	 *            index to copy
+	 * @param numUsers
+	 *            number of users, at least that of {@code index}; the recommendations of new users are empty
+	 */
+	public TopNIndex(TopNIndex index, int numUsers) {
+		this(numUsers);
+		System.arraycopy(index.items, 0, items, 0, index.items.length);
+		System.arraycopy(index.scores, 0, scores, 0, index.scores.length);
+	}
+
+	/**
+	 * set the recommendations of a user
+	 *
+	 * @param u
+	 *            user id
+	 * @param rankedItems
+	 *            items ordered by descending scores
+	 * @param rankedScores
+	 *            scores aligned with {@code rankedItems}
+	 */
+	public void set(int u, int[] rankedItems, float[] rankedScores) {
+		items[u] = rankedItems;
+		scores[u] = rankedScores;
+	}
+
+	/**
+	 * @return ranked items of user u, or an empty array if there is none; must not be modified
+	 */
+	public int[] getItems(int u) {
+		return u >= 0 && u < items.length && items[u] != null ? items[u] : NO_ITEMS;
+	}
+
+	/**
+	 * @return scores of the ranked items of user u, or an empty array if there is none; must not be modified
+	 */
+	public float[] getScores(int u) {
+		return u >= 0 && u < scores.length && scores[u] != null ? scores[u] : NO_SCORES;
+	}
+
+	/**
+	 * @return number of users
+	 */
+	public int numUsers() {
+		return items.length;
+	}
+
+}
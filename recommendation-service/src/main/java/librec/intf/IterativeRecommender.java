@@ -18,19 +18,26 @@
 
 package librec.intf;
 
+import com.google.common.hash.Hasher;
+import com.google.common.hash.Hashing;
 import librec.data.Configuration;
 import librec.data.DenseMatrix;
 import librec.data.DenseVector;
+import librec.data.Snapshot;
 import librec.data.SparseMatrix;
 import librec.util.FileIO;
 import librec.util.LineConfiger;
 import librec.util.Logs;
+import librec.util.Parallels;
+import librec.util.Randoms;
 import librec.util.Strings;
 import org.apache.commons.io.FileUtils;
 
 import java.io.File;
 import java.io.IOException;
+import java.nio.charset.StandardCharsets;
 import java.util.Map;
+import java.util.Random;
 
 /**
  * Recommenders using iterative learning techniques
@@ -82,6 +89,11 @@ public abstract class IterativeRecommender extends Recommender {
 
 	// initial models using normal distribution
 	protected boolean initByNorm;
+
+	// number of shards of the training ratings in a stochastic gradient descent epoch
+	private static final int SGD_SHARDS = 256;
+	// user of each training rating, positions of the ratings ordered by shard, and the bounds of the shards
+	private int[] sgdRows, sgdOrder, sgdShards;
 	public int [] iterArray;
 
 	public int[] getIterArray() {
@@ -138,6 +150,27 @@ public abstract class IterativeRecommender extends Recommender {
 		return DenseMatrix.rowMult(P, u, Q, j);
 	}
 
+	/**
+	 * Compute the ranking scores of a block of users as the products of their factors with all the item factors, by
+	 * {@link DenseMatrix#multTrans}, if this recommender is a {@linkplain #isFactorModel() factor model}; item by item
+	 * otherwise
+	 */
+	@Override
+	protected void rankingScores(int[] users, int size, double[][] scores) throws Exception {
+		if (isFactorModel())
+			DenseMatrix.multTrans(P, users, size, Q, scores);
+		else
+			super.rankingScores(users, size, scores);
+	}
+
+	/**
+	 * @return whether the ranking scores of this recommender are the products of its user and item factors, i.e., it
+	 *         ranks items by the default {@link #predict(int, int)}; off unless a subclass opts in
+	 */
+	protected boolean isFactorModel() {
+		return false;
+	}
+
 	/**
 	 * Post each iteration, we do things:
 	 * 
@@ -260,49 +293,252 @@ public abstract class IterativeRecommender extends Recommender {
 
 	}
 
-	protected void saveModel() throws Exception {
-		// make a folder
-		String dirPath = FileIO.makeDirectory(tempDirPath, algoName);
+	/**
+	 * Learn the model by stochastic gradient descent: run {@link #sgdEpoch()} until {@link #isConverged(int)} or
+	 * {@code numIters} epochs. Subclasses define their gradient step in {@link #sgdUpdate(int, int, double)}, or
+	 * override this method to learn otherwise.
+	 */
+	@Override
+	protected void buildModel() throws Exception {
+		for (int iter = 1; iter <= numIters; iter++) {
+			loss = sgdEpoch();
 
-		// suffix info
-		String suffix = foldInfo + ".bin";
+			if (isConverged(iter))
+				break;
+		}
+	}
 
-		// writing training, test data
-		FileIO.serialize(trainMatrix, dirPath + "trainMatrix" + suffix);
-		FileIO.serialize(testMatrix, dirPath + "testMatrix" + suffix);
+	/**
+	 * Run one epoch of stochastic gradient descent over all the training ratings, in parallel over the threads set by
+	 * {@code evaluation.setup=... -cpu n}. The ratings are split into {@code SGD_SHARDS} shards of consecutive users,
+	 * visited in a shuffled order, and the ratings of each shard are shuffled too; each shard is run by a single
+	 * thread, so that the user factors it updates stay in the cache of that thread. Threads update the shared factors
+	 * without locking, following Niu et al., Hogwild!: A lock-free approach to parallelizing stochastic gradient
+	 * descent, NIPS 2011: conflicting updates are rare, as ratings are sparse, and do not prevent convergence. <br>
+	 * 
+	 * The shuffles are drawn from {@link Randoms} and the losses of the shards are summed in a fixed order, so a
+	 * single-thread epoch is deterministic for a given random seed.
+	 * 
+	 * @return the loss of the epoch, halved as the squared-error losses of LibRec
+	 */
+	protected double sgdEpoch() throws Exception {
+		if (sgdOrder == null || sgdOrder.length != trainMatrix.getRowPointers()[trainMatrix.numRows()])
+			initSgdShards();
+
+		final int numShards = sgdShards.length - 1;
+		final long seed = Randoms.uniform(Integer.MAX_VALUE);
+		final int[] shardOrder = new int[numShards];
+		for (int s = 0; s < numShards; s++)
+			shardOrder[s] = s;
+		shuffle(shardOrder, 0, numShards, new Random(seed));
+
+		final int[] colInd = trainMatrix.getColumnIndices();
+		final double[] data = trainMatrix.getData();
+		// one loss per shard, written by the thread running the shard only
+		final double[] shardLoss = new double[numShards];
+
+		Parallels.forRange(pool, numShards, (from, to) -> {
+			for (int k = from; k < to; k++) {
+				int s = shardOrder[k];
+				shuffle(sgdOrder, sgdShards[s], sgdShards[s + 1], new Random(seed + s + 1));
+
+				double sum = 0;
+				for (int i = sgdShards[s]; i < sgdShards[s + 1]; i++) {
+					int j = sgdOrder[i];
+					sum += sgdUpdate(sgdRows[j], colInd[j], data[j]);
+				}
+				shardLoss[s] = sum;
+			}
+		});
 
-		// write matrices P, Q
-		FileIO.serialize(P, dirPath + "userFactors" + suffix);
-		FileIO.serialize(Q, dirPath + "itemFactors" + suffix);
+		double sum = 0;
+		for (int s = 0; s < numShards; s++)
+			sum += shardLoss[s];
 
-		// write vectors
-		if (userBias != null)
-			FileIO.serialize(userBias, dirPath + "userBiases" + suffix);
-		if (itemBias != null)
-			FileIO.serialize(itemBias, dirPath + "itemBiases" + suffix);
+		return 0.5 * sum;
+	}
 
-		Logs.debug("Learned models are saved to folder \"{}\"", dirPath);
+	/**
+	 * Update the model by one stochastic gradient step on a training rating. It is called concurrently for different
+	 * ratings by {@link #sgdEpoch()}, so it must only update model parameters of user u and item j, and accumulate
+	 * nothing else. The default step is that of a regularized matrix factorization on P and Q.
+	 * 
+	 * @param u
+	 *            user id
+	 * @param j
+	 *            item id
+	 * @param ruj
+	 *            rating of user u on item j
+	 * @return the loss of the rating before the step, including the regularization of the updated factors
+	 */
+	protected double sgdUpdate(int u, int j, double ruj) throws Exception {
+		double euj = ruj - predict(u, j);
+		double loss = euj * euj;
+
+		for (int f = 0; f < numFactors; f++) {
+			double puf = P.get(u, f);
+			double qjf = Q.get(j, f);
+
+			P.add(u, f, lRate * (euj * qjf - regU * puf));
+			Q.add(j, f, lRate * (euj * puf - regI * qjf));
+
+			loss += regU * puf * puf + regI * qjf * qjf;
+		}
+
+		return loss;
 	}
 
-	protected void loadModel() throws Exception {
-		// make a folder
-		String dirPath = FileIO.makeDirectory(tempDirPath, algoName);
+	/**
+	 * Split the positions of the training ratings in CRS order into shards of consecutive users with about the same
+	 * number of ratings
+	 */
+	private void initSgdShards() {
+		int[] rowPtr = trainMatrix.getRowPointers();
+		int numRows = trainMatrix.numRows(), nnz = rowPtr[numRows];
+
+		sgdRows = new int[nnz];
+		sgdOrder = new int[nnz];
+		for (int u = 0; u < numRows; u++) {
+			for (int j = rowPtr[u]; j < rowPtr[u + 1]; j++) {
+				sgdRows[j] = u;
+				sgdOrder[j] = j;
+			}
+		}
+
+		int numShards = Math.max(1, Math.min(SGD_SHARDS, numRows));
+		sgdShards = new int[numShards + 1];
+		for (int s = 1, u = 0; s < numShards; s++) {
+			long target = (long) nnz * s / numShards;
+			while (u < numRows && rowPtr[u] < target)
+				u++;
+			sgdShards[s] = rowPtr[u];
+		}
+		sgdShards[numShards] = nnz;
+	}
+
+	/**
+	 * Fisher-Yates shuffle of {@code a[from, to)}
+	 */
+	private static void shuffle(int[] a, int from, int to, Random r) {
+		for (int i = to - 1; i > from; i--) {
+			int k = from + r.nextInt(i - from + 1);
+			int t = a[i];
+			a[i] = a[k];
+			a[k] = t;
+		}
+	}
+
+	/**
+	 * @return path of the model snapshot of the current fold, named after {@link #getModelKey()}
+	 */
+	protected String getSnapshotPath() throws Exception {
+		return getSnapshotPrefix() + getModelKey() + ".snap";
+	}
+
+	private String getSnapshotPrefix() throws Exception {
+		return FileIO.makeDirectory(tempDirPath, algoName) + "model" + foldInfo + "-";
+	}
+
+	/**
+	 * @return checksum of the training data and of the model options, so that a snapshot is only loaded by a
+	 *         recommender that would learn the same model
+	 */
+	protected String getModelKey() {
+		Hasher hasher = Hashing.murmur3_128().newHasher();
+		hasher.putString(getClass().getName(), StandardCharsets.UTF_8);
+		hasher.putString(toString(), StandardCharsets.UTF_8);
+		hasher.putString(String.valueOf(cf.getString(algoName)), StandardCharsets.UTF_8);
+		hasher.putInt(numFactors).putInt(numIters).putFloat(initLRate);
+		hasher.putFloat(regU).putFloat(regI).putFloat(regB);
+
+		hasher.putInt(numUsers).putInt(numItems);
+		hasher.putInt(trainMatrix.numRows()).putInt(trainMatrix.numColumns());
+		for (int v : trainMatrix.getRowPointers())
+			hasher.putInt(v);
+		for (int v : trainMatrix.getColumnIndices())
+			hasher.putInt(v);
+		for (double v : trainMatrix.getData())
+			hasher.putDouble(v);
+
+		return hasher.hash().toString();
+	}
 
-		Logs.debug("A recommender model is loaded from {}", dirPath);
+	/**
+	 * Save the factors, the biases and the id maps into one binary snapshot, and delete the snapshots of the current
+	 * fold learned from other data or options
+	 */
+	protected void saveModel() throws Exception {
+		String filePath = getSnapshotPath();
+
+		try (Snapshot.Writer snapshot = new Snapshot.Writer(filePath)) {
+			// write matrices P, Q
+			snapshot.put("userFactors", P);
+			snapshot.put("itemFactors", Q);
+
+			// write vectors
+			if (userBias != null)
+				snapshot.put("userBiases", userBias);
+			if (itemBias != null)
+				snapshot.put("itemBiases", itemBias);
+
+			// write {raw id, inner id} maps
+			if (rateDao != null) {
+				snapshot.put("userIds", rateDao.getUserIds());
+				if (!rateDao.isItemAsUser())
+					snapshot.put("itemIds", rateDao.getItemIds());
+			}
 
-		// suffix info
-		String suffix = foldInfo + ".bin";
+			snapshot.commit();
+		}
 
-		trainMatrix = (SparseMatrix) FileIO.deserialize(dirPath + "trainMatrix" + suffix);
-		testMatrix = (SparseMatrix) FileIO.deserialize(dirPath + "testMatrix" + suffix);
+		File saved = new File(filePath);
+		String prefix = new File(getSnapshotPrefix()).getName();
+		File[] stale = saved.getParentFile().listFiles(
+				f -> f.getName().startsWith(prefix) && f.getName().endsWith(".snap") && !f.equals(saved));
+		if (stale != null)
+			for (File f : stale)
+				f.delete();
 
-		// write matrices P, Q
-		P = (DenseMatrix) FileIO.deserialize(dirPath + "userFactors" + suffix);
-		Q = (DenseMatrix) FileIO.deserialize(dirPath + "itemFactors" + suffix);
+		Logs.debug("Learned models are saved to \"{}\"", filePath);
+	}
+
+	@Override
+	protected boolean hasSavedModel() throws Exception {
+		return new File(getSnapshotPath()).exists();
+	}
+
+	/**
+	 * Load a model saved by {@link #saveModel()} for the same training data and options. The training and test data
+	 * are those of this recommender; the id maps of the snapshot must be those of the data access object, and the
+	 * factors must fit the numbers of users, items and factors. Nothing is changed if the snapshot cannot be loaded.
+	 */
+	protected void loadModel() throws Exception {
+		String filePath = getSnapshotPath();
+
+		try (Snapshot.Reader snapshot = new Snapshot.Reader(filePath)) {
+			// check {raw id, inner id} maps
+			if (rateDao != null)
+				snapshot.checkIds(rateDao);
+
+			// read matrices P, Q
+			DenseMatrix userFactors = snapshot.getDenseMatrix("userFactors");
+			DenseMatrix itemFactors = snapshot.getDenseMatrix("itemFactors");
+			if (userFactors.numRows() != numUsers || itemFactors.numRows() != numItems
+					|| userFactors.numColumns() != numFactors || itemFactors.numColumns() != numFactors)
+				throw new IllegalStateException("The factors of the snapshot " + filePath + " do not fit " + numUsers
+						+ " users, " + numItems + " items and " + numFactors + " factors");
+
+			// read vectors
+			DenseVector userBiases = snapshot.contains("userBiases") ? snapshot.getDenseVector("userBiases") : null;
+			DenseVector itemBiases = snapshot.contains("itemBiases") ? snapshot.getDenseVector("itemBiases") : null;
+
+			P = userFactors;
+			Q = itemFactors;
+			userBias = userBiases;
+			itemBias = itemBiases;
+		}
 
-		// write vectors
-		userBias = (DenseVector) FileIO.deserialize(dirPath + "userBiases" + suffix);
-		itemBias = (DenseVector) FileIO.deserialize(dirPath + "itemBiases" + suffix);
+		Logs.debug("A recommender model is loaded from {}", filePath);
 	}
 
 	@Override
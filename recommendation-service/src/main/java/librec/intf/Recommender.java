@@ -27,8 +27,8 @@ import org.apache.commons.io.FileUtils;
 import org.springframework.web.bind.annotation.RestController;
 
 import java.io.File;
-import java.util.AbstractMap.SimpleImmutableEntry;
 import java.util.*;
+import java.util.concurrent.ForkJoinPool;
 import java.util.concurrent.TimeUnit;
 
 /**
@@ -58,6 +58,16 @@ public abstract class Recommender implements Runnable {
 
     // number of cpu cores used for parallelization
     protected static int numCPUs;
+    // fork/join pool with numCPUs threads; null if running on a single thread
+    protected static ForkJoinPool pool;
+
+
+    // number of blocks of test users in evalRankings, and the indices of the ranking measures of a user
+    private static final int EVAL_BLOCKS = 256;
+    // maximum number of users, and of scores, of a block of ranking scores
+    private static final int SCORE_BLOCK = 64, SCORE_BUFFER = 1 << 18;
+    private static final int PRE5 = 0, PRE10 = 1, REC5 = 2, REC10 = 3, AUC = 4, MAP = 5, MRR = 6, NDCG = 7,
+            NUM_RANKING_MEASURES = 8;
 
     // verbose
     protected static boolean verbose = true;
@@ -77,6 +87,8 @@ public abstract class Recommender implements Runnable {
     protected static Measure earlyStopMeasure = null;
     // is save model
     protected static boolean isSaveModel = false;
+    // whether to load a saved model, if any, instead of learning one
+    protected static boolean isLoadModel = false;
     // is split data by date
     protected static boolean isSplitByDate;
     // view of rating predictions
@@ -131,6 +143,10 @@ public abstract class Recommender implements Runnable {
     protected String foldInfo;
     // is output recommendation results
     protected boolean isResultsOut = true;
+    // whether this run may load a saved model, if the load-model option is on
+    protected boolean isLoadAllowed = true;
+    // top-N recommendations of this model, replaced as a whole once new ones are ranked
+    protected volatile TopNIndex topNIndex;
 
     // user-vector cache, item-vector cache
     protected LoadingCache<Integer, SparseVector> userCache, itemCache;
@@ -223,12 +239,18 @@ public abstract class Recommender implements Runnable {
 
             int numProcessors = Runtime.getRuntime().availableProcessors();
             numCPUs = evalOptions.getInt("-cpu", numProcessors);
+            if (pool == null || pool.getParallelism() != numCPUs) {
+                if (pool != null)
+                    pool.shutdown();
+                pool = Parallels.newPool(numCPUs);
+            }
 
             // output options
             LineConfiger outputOptions = cf.getParamOptions("output.setup");
             if (outputOptions != null) {
                 verbose = outputOptions.isOn("-verbose", true);
                 isSaveModel = outputOptions.contains("--save-model");
+                isLoadModel = outputOptions.contains("--load-model");
             }
 
             knn = cf.getInt("num.neighbors", 20);
@@ -284,13 +306,41 @@ public abstract class Recommender implements Runnable {
         }
     }
 
+    /**
+     * @return fork/join pool of the numCPUs threads of the "-cpu" evaluation option, or null if running on a single
+     * thread
+     */
+    public static ForkJoinPool getPool() {
+        return pool;
+    }
+
+    /**
+     * @param isLoadAllowed whether this run may load a saved model instead of learning one, e.g., not when the model
+     *                      is to be learned again from the current data
+     */
+    public void setLoadAllowed(boolean isLoadAllowed) {
+        this.isLoadAllowed = isLoadAllowed;
+    }
+
     /**
      * execution method of a recommender
      */
     public void execute() throws Exception {
 
         Stopwatch sw = Stopwatch.createStarted();
-        if (Debug.ON) {
+        // load a saved model if asked to and if there is one, learn a new model otherwise
+        boolean isLoaded = false;
+        if (isLoadModel && isLoadAllowed && hasSavedModel()) {
+            try {
+                loadModel();
+                isLoaded = true;
+            } catch (Exception e) {
+                Logs.warn("{}{}: the saved model cannot be loaded ({}), a new one is learned", algoName, foldInfo,
+                        e.getMessage());
+            }
+        }
+
+        if (!isLoaded && Debug.ON) {
             // learn a recommender model
             initModel();
 
@@ -302,7 +352,7 @@ public abstract class Recommender implements Runnable {
 
             // post-processing after building a model, e.g., release intermediate memory to avoid memory leak
             postModel();
-        } else {
+        } else if (!isLoaded) {
             /**
              * load a learned model: this code will not be executed unless "Debug.OFF" mainly for the purpose of
              * exemplifying how to use the saved models
@@ -312,12 +362,16 @@ public abstract class Recommender implements Runnable {
         long trainTime = sw.elapsed(TimeUnit.MILLISECONDS);
 
         // validation
-        if (validationRatio > 0 && validationRatio < 1) {
+        if (!isLoaded && validationRatio > 0 && validationRatio < 1) {
             validateModel();
 
             trainTime = sw.elapsed(TimeUnit.MILLISECONDS);
         }
 
+        // top-N recommendations served from memory
+        if (isRankingPred)
+            topNIndex = buildTopNIndex();
+
         // evaluation
         if (verbose)
             Logs.debug("{}{} evaluate test data ... ", algoName, foldInfo);
@@ -340,7 +394,7 @@ public abstract class Recommender implements Runnable {
         if (fold > 0)
             Logs.debug(evalInfo);
 
-        if (isSaveModel)
+        if (isSaveModel && !isLoaded)
             saveModel();
     }
 
@@ -420,6 +474,30 @@ public abstract class Recommender implements Runnable {
         return cf.contains(algoName) ? cf.getParamOptions(algoName) : null;
     }
 
+    /**
+     * build the top-knn most similar users (or items) of every user (or item) from training data, with knn given by
+     * "num.neighbors"; pairs are computed once and in parallel, and only O(n * knn) similarities are kept
+     *
+     * @param isUser whether to build user-user neighbors
+     * @return the user-user or item-item neighbors
+     */
+    protected NeighborIndex buildNeighbors(boolean isUser) throws Exception {
+        Logs.debug("Build {} neighbors ...", isUser ? "user" : "item");
+
+        int count = isUser ? numUsers : numItems;
+
+        // user vectors are rows of the CRS arrays, item vectors are columns of the CCS arrays
+        final int[] ptr = isUser ? trainMatrix.getRowPointers() : trainMatrix.getColumnPointers();
+        final int[] idx = isUser ? trainMatrix.getColumnIndices() : trainMatrix.getRowIndices();
+        final double[] val = isUser ? trainMatrix.getData() : trainMatrix.getColumnData();
+
+        return NeighborIndex.build(count, knn, (i, j) -> {
+            if (ptr[i] == ptr[i + 1] || ptr[j] == ptr[j + 1])
+                return Double.NaN;
+            return correlation(idx, val, ptr[i], ptr[i + 1], idx, val, ptr[j], ptr[j + 1], similarityMeasure);
+        }, pool);
+    }
+
     /**
      * build user-user or item-item correlation matrix from training data
      *
@@ -430,17 +508,23 @@ public abstract class Recommender implements Runnable {
         Logs.debug("Build {} similarity matrix ...", isUser ? "user" : "item");
 
         int count = isUser ? numUsers : numItems;
-        SymmMatrix corrs = new SymmMatrix(count);
+
+        // user vectors are rows of the CRS arrays, item vectors are columns of the CCS arrays
+        int[] ptr = isUser ? trainMatrix.getRowPointers() : trainMatrix.getColumnPointers();
+        int[] idx = isUser ? trainMatrix.getColumnIndices() : trainMatrix.getRowIndices();
+        double[] val = isUser ? trainMatrix.getData() : trainMatrix.getColumnData();
+
+        double density = corrsDensity(count, ptr, idx, val);
+        Logs.debug("Expected density of similarity matrix: {}", (float) density);
+        SymmMatrix corrs = new SymmMatrix(count, density);
 
         for (int i = 0; i < count; i++) {
-            SparseVector iv = isUser ? trainMatrix.row(i) : trainMatrix.column(i);
-            if (iv.getCount() == 0)
+            if (ptr[i] == ptr[i + 1])
                 continue;
             // user/item itself exclusive
             for (int j = i + 1; j < count; j++) {
-                SparseVector jv = isUser ? trainMatrix.row(j) : trainMatrix.column(j);
-
-                double sim = correlation(iv, jv);
+                double sim = correlation(idx, val, ptr[i], ptr[i + 1], idx, val, ptr[j], ptr[j + 1],
+                        similarityMeasure);
 
                 if (!Double.isNaN(sim))
                     corrs.set(i, j, sim);
@@ -450,6 +534,30 @@ public abstract class Recommender implements Runnable {
         return corrs;
     }
 
+    /**
+     * Estimate the fraction of computable correlations from a fixed sample of pairs, so that {@link #buildCorrs}
+     * can pick the backend of its matrix before filling it
+     */
+    private double corrsDensity(int count, int[] ptr, int[] idx, double[] val) {
+        final int numSamples = 1000;
+        if (count < 2)
+            return 0.0;
+
+        // a local generator keeps the global random sequence of the experiments untouched
+        Random r = new Random(count);
+        int computable = 0;
+        for (int s = 0; s < numSamples; s++) {
+            int i = r.nextInt(count), j = r.nextInt(count);
+            if (i == j || ptr[i] == ptr[i + 1] || ptr[j] == ptr[j + 1])
+                continue;
+            double sim = correlation(idx, val, ptr[i], ptr[i + 1], idx, val, ptr[j], ptr[j + 1], similarityMeasure);
+            if (!Double.isNaN(sim))
+                computable++;
+        }
+
+        return (double) computable / numSamples;
+    }
+
     /**
      * Compute the correlation between two vectors using method specified by configuration key "similarity"
      *
@@ -470,49 +578,57 @@ public abstract class Recommender implements Runnable {
      * @return the correlation between vectors i and j; return NaN if the correlation is not computable.
      */
     protected double correlation(SparseVector iv, SparseVector jv, String method) {
+        int[] is = iv.getIndex(), js = jv.getIndex();
 
-        // compute similarity
-        List<Double> is = new ArrayList<>();
-        List<Double> js = new ArrayList<>();
-
-        for (Integer idx : jv.getIndex()) {
-            if (iv.contains(idx)) {
-                is.add(iv.get(idx));
-                js.add(jv.get(idx));
-            }
-        }
+        return correlation(is, iv.getData(), 0, is.length, js, jv.getData(), 0, js.length, method);
+    }
 
+    /**
+     * Compute the correlation between two vectors given as slices of sorted index arrays, e.g., two rows of the CRS
+     * arrays of a sparse matrix, for a specific method
+     *
+     * @param idxA   indices of vector a
+     * @param valA   values of vector a, aligned with {@code idxA}
+     * @param fromA  start of vector a, inclusive
+     * @param toA    end of vector a, exclusive
+     * @param idxB   indices of vector b
+     * @param valB   values of vector b, aligned with {@code idxB}
+     * @param fromB  start of vector b, inclusive
+     * @param toB    end of vector b, exclusive
+     * @param method similarity method
+     * @return the correlation between vectors a and b; return NaN if the correlation is not computable.
+     */
+    protected double correlation(int[] idxA, double[] valA, int fromA, int toA, int[] idxB, double[] valB, int fromB,
+                                 int toB, String method) {
         double sim = 0;
         switch (method.toLowerCase()) {
             case "cos":
                 // for ratings along the overlappings
-                sim = Sims.cos(is, js);
+                sim = Sims.cos(idxA, valA, fromA, toA, idxB, valB, fromB, toB);
                 break;
             case "cos-binary":
                 // for ratings along all the vectors (including one-sided 0s)
-                sim = iv.inner(jv) / (Math.sqrt(iv.inner(iv)) * Math.sqrt(jv.inner(jv)));
+                sim = Sims.cosBinary(idxA, valA, fromA, toA, idxB, valB, fromB, toB);
                 break;
             case "msd":
-                sim = Sims.msd(is, js);
+                sim = Sims.msd(idxA, valA, fromA, toA, idxB, valB, fromB, toB);
                 break;
             case "cpc":
-                sim = Sims.cpc(is, js, (minRate + maxRate) / 2.0);
+                sim = Sims.cpc(idxA, valA, fromA, toA, idxB, valB, fromB, toB, (minRate + maxRate) / 2.0);
                 break;
             case "exjaccard":
-                sim = Sims.exJaccard(is, js);
+                sim = Sims.exJaccard(idxA, valA, fromA, toA, idxB, valB, fromB, toB);
                 break;
             case "pcc":
             default:
-                sim = Sims.pcc(is, js);
+                sim = Sims.pcc(idxA, valA, fromA, toA, idxB, valB, fromB, toB);
                 break;
         }
 
         // shrink to account for vector size
-        if (!Double.isNaN(sim)) {
-            int n = is.size();
-            int shrinkage = cf.getInt("num.shrinkage");
-            if (shrinkage > 0)
-                sim *= n / (n + shrinkage + 0.0);
+        if (!Double.isNaN(sim) && similarityShrinkage > 0) {
+            int n = Sims.common(idxA, fromA, toA, idxB, fromB, toB);
+            sim *= n / (n + similarityShrinkage + 0.0);
         }
 
         return sim;
@@ -543,6 +659,13 @@ public abstract class Recommender implements Runnable {
     protected void loadModel() throws Exception {
     }
 
+    /**
+     * @return whether a model saved by {@link #saveModel()} exists, so that {@link #loadModel()} can be tried
+     */
+    protected boolean hasSavedModel() throws Exception {
+        return false;
+    }
+
     /**
      * determine whether the rating of a user-item (u, j) is used to predicted
      */
@@ -654,27 +777,9 @@ public abstract class Recommender implements Runnable {
      */
     protected Map<Measure, Double> evalRankings() throws Exception {
 
-        int capacity = Lists.initSize(testMatrix.numRows());
-
-        // initialization capacity to speed up
-        List<Double> ds5 = new ArrayList<>(isDiverseUsed ? capacity : 0);
-        List<Double> ds10 = new ArrayList<>(isDiverseUsed ? capacity : 0);
-
-        List<Double> precs5 = new ArrayList<>(capacity);
-        List<Double> precs10 = new ArrayList<>(capacity);
-        List<Double> recalls5 = new ArrayList<>(capacity);
-        List<Double> recalls10 = new ArrayList<>(capacity);
-        List<Double> aps = new ArrayList<>(capacity);
-        List<Double> rrs = new ArrayList<>(capacity);
-        List<Double> aucs = new ArrayList<>(capacity);
-        List<Double> ndcgs = new ArrayList<>(capacity);
-
-        // candidate items for all users: here only training items
-        // use HashSet instead of ArrayList to speedup removeAll() and contains() operations: HashSet: O(1); ArrayList: O(log n).
-
         List<String> preds = null;
         String toFile = null;
-        int numTopNRanks = numRecs < 0 ? 10 : numRecs;
+        final int numTopNRanks = numRecs < 0 ? 10 : numRecs;
         if (isResultsOut) {
             preds = new ArrayList<String>(1500);
             preds.add("# userId: recommendations in (itemId, ranking score) pairs, where a correct recommendation is denoted by symbol *."); // optional: file header
@@ -683,90 +788,209 @@ public abstract class Recommender implements Runnable {
             FileIO.deleteFile(toFile); // delete possibly old files
         }
 
-        // for each test user
-        for (int u = 0, um = testMatrix.numRows(); u < um; u++) {
-
-            if (verbose && ((u + 1) % numUsers == 0))
-                Logs.debug("{}{} evaluates progress: {} / {}", algoName, foldInfo, u + 1, um);
-
-            // get positive items from test matrix
-            Set<Integer> correctItemsSet = testMatrix.getColumnsSet(u);
-
-            if (correctItemsSet.size() == 0)
-                continue; // no testing data for user u
-
-            // remove rated items from candidate items
-            Set<Integer> ratedItems = trainMatrix.getColumnsSet(u);
-
-            // predict the ranking scores (unordered) of all candidate items
-            List<Map.Entry<Integer, Double>> itemScores = new ArrayList<>();
-            // item j is not rated
-            for(int itemIdx = 0; itemIdx < numItems; ++itemIdx){
-                if (!ratedItems.contains(itemIdx)) {
-                    final double rankScore = ranking(u, itemIdx);
-                    if (!Double.isNaN(rankScore)) {
-                        itemScores.add(new SimpleImmutableEntry<>(itemIdx, rankScore));
+        // test users are split into blocks, each evaluated by one thread into its own sums and counts of the measures
+        final int um = testMatrix.numRows();
+        final int numBlocks = Math.max(1, Math.min(EVAL_BLOCKS, um));
+        final double[] sums = new double[numBlocks * NUM_RANKING_MEASURES];
+        final int[] counts = new int[numBlocks * NUM_RANKING_MEASURES];
+
+        final int[] testPtr = testMatrix.getRowPointers();
+        final int block = scoreBlockSize();
+        Parallels.forRange(pool, numBlocks, (from, to) -> {
+            // per-thread buffers, reused by all users: the scores of a block of users, the top-N, the ranked items,
+            // and bit sets of items
+            int[] users = new int[block];
+            double[][] scores = new double[block][numItems];
+            TopKHeap topN = new TopKHeap(numTopNRanks);
+            int[] rankedItems = new int[numTopNRanks];
+            int words = (Math.max(numItems, testMatrix.numColumns()) + 63) >>> 6;
+            long[] correct = new long[words], ranked = new long[words];
+            double[] values = new double[NUM_RANKING_MEASURES];
+
+            for (int b = from; b < to; b++) {
+                int offset = b * NUM_RANKING_MEASURES;
+                for (int u = (int) ((long) um * b / numBlocks), end = (int) ((long) um * (b + 1) / numBlocks);
+                     u < end; ) {
+                    // the next users having test data, scored together
+                    int size = 0;
+                    for (; u < end && size < block; u++)
+                        if (testPtr[u + 1] > testPtr[u])
+                            users[size++] = u;
+                    rankingScores(users, size, scores);
+
+                    for (int k = 0; k < size; k++) {
+                        if (!evalRanking(users[k], scores[k], topN, rankedItems, correct, ranked, values))
+                            continue;
+
+                        for (int m = 0; m < NUM_RANKING_MEASURES; m++) {
+                            if (!Double.isNaN(values[m])) {
+                                sums[offset + m] += values[m];
+                                counts[offset + m]++;
+                            }
+                        }
                     }
                 }
             }
+        });
 
-            if (itemScores.size() == 0)
-                continue; // no recommendations available for user u
+        if (verbose)
+            Logs.debug("{}{} has evaluated the rankings of {} test users", algoName, foldInfo, um);
+
+        // write results out first
+        if (isResultsOut && preds.size() > 0) {
+            FileIO.writeList(toFile, preds, true);
+            Logs.debug("{}{} has writeen item recommendations to {}", algoName, foldInfo, toFile);
+        }
 
-            // order the ranking scores from highest to lowest: List to preserve orders
-            itemScores = Lists.sortListTopK(itemScores, true, numTopNRanks);
+        // merge the blocks in order, and measure the performance
+        double[] means = new double[NUM_RANKING_MEASURES];
+        for (int m = 0; m < NUM_RANKING_MEASURES; m++) {
+            double sum = 0;
+            int count = 0;
+            for (int b = 0; b < numBlocks; b++) {
+                sum += sums[b * NUM_RANKING_MEASURES + m];
+                count += counts[b * NUM_RANKING_MEASURES + m];
+            }
+            means[m] = count > 0 ? sum / count : 0.0;
+        }
 
+        Map<Measure, Double> measures = new HashMap<>();
+        // diversity is not measured
+        measures.put(Measure.D5, 0.0);
+        measures.put(Measure.D10, 0.0);
+        measures.put(Measure.Pre5, means[PRE5]);
+        measures.put(Measure.Pre10, means[PRE10]);
+        measures.put(Measure.Rec5, means[REC5]);
+        measures.put(Measure.Rec10, means[REC10]);
+        measures.put(Measure.AUC, means[AUC]);
+        measures.put(Measure.NDCG, means[NDCG]);
+        measures.put(Measure.MAP, means[MAP]);
+        measures.put(Measure.MRR, means[MRR]);
 
-            List<Integer> rankedItems = new ArrayList<>(itemScores.size());
-            Set<Integer> rankedItemsSet = new HashSet<>((int)(itemScores.size()/0.6));
-            for (Map.Entry<Integer, Double> kv : itemScores) {
-                Integer item = kv.getKey();
-                rankedItems.add(item);
-                rankedItemsSet.add(item);
+        return measures;
+    }
+
+    /**
+     * Rank the unrated items of a test user and measure the ranking against the test items, as
+     * {@link Measures#PrecAt}, {@link Measures#RecallAt}, {@link Measures#AUC}, {@link Measures#AP},
+     * {@link Measures#RR} and {@link Measures#nDCG} do on lists and sets; the items of the AUC are counted in ascending
+     * order. The bit sets are cleared again before returning.
+     *
+     * @param u           test user
+     * @param scores      ranking scores of all items for u, see {@link #rankingScores}; overwritten
+     * @param topN        top-N buffer
+     * @param rankedItems buffer of the ranked items, of the size of the top-N
+     * @param correct     bit set of the test items of u
+     * @param ranked      bit set of the ranked items
+     * @param values      output measures, indexed by {@code PRE5, PRE10, ...}
+     * @return false if u has no test items or no recommendations
+     */
+    private boolean evalRanking(int u, double[] scores, TopKHeap topN, int[] rankedItems, long[] correct,
+                                long[] ranked, double[] values) throws Exception {
+        int[] testPtr = testMatrix.getRowPointers(), testInd = testMatrix.getColumnIndices();
+        double[] testData = testMatrix.getData();
+
+        // get positive items from test matrix
+        int numCorrect = 0;
+        for (int j = testPtr[u]; j < testPtr[u + 1]; j++) {
+            if (testData[j] != 0) {
+                setBit(correct, testInd[j]);
+                numCorrect++;
             }
+        }
+        if (numCorrect == 0)
+            return false; // no testing data for user u
+
+        // remove rated items from candidate items, keeping the top-N only
+        int numRated = excludeRated(u, scores);
+        topN.clear();
+        for (int j = 0; j < numItems; j++)
+            topN.offer(j, scores[j]);
+
+        int n = topN.size();
+        if (n == 0) {
+            clearRow(correct, testPtr[u], testPtr[u + 1], testInd);
+            return false; // no recommendations available for user u
+        }
 
-            int numDropped = numItems - trainMatrix.rowSize(u) - rankedItems.size();
-            double AUC = Measures.AUC(rankedItemsSet, correctItemsSet, numDropped);
-            double AP = Measures.AP(rankedItems, correctItemsSet);
-            double nDCG = Measures.nDCG(rankedItems, correctItemsSet);
-            double RR = Measures.RR(rankedItems, correctItemsSet);
+        // order the ranking scores from highest to lowest
+        topN.sort();
+
+        int hits = 0, hits5 = 0, hits10 = 0;
+        double sumPrecs = 0, dcg = 0, rr = 0;
+        for (int i = 0; i < n; i++) {
+            int item = topN.id(i);
+            rankedItems[i] = item;
+            setBit(ranked, item);
+
+            if (hasBit(correct, item)) {
+                hits++;
+                sumPrecs += hits / (i + 1.0);
+                dcg += 1 / Maths.log(i + 2, 2);
+                if (rr == 0)
+                    rr = 1 / (i + 1.0);
+            }
+            if (i + 1 == 5)
+                hits5 = hits;
+            if (i + 1 == 10)
+                hits10 = hits;
+        }
+        if (n < 5)
+            hits5 = hits;
+        if (n < 10)
+            hits10 = hits;
+
+        // AUC over the test items: pairs of a ranked correct item and an unranked one
+        int numDropped = numItems - numRated - n;
+        int numEvaluatingPairs = (numCorrect + numDropped - hits) * hits;
+        if (numEvaluatingPairs < 0)
+            throw new IndexOutOfBoundsException("numEvaluatingPairs cannot be less than 0.");
+        double auc = 0.5;
+        if (numEvaluatingPairs > 0) {
+            int numCorrectPairs = 0, seen = 0;
+            for (int j = testPtr[u]; j < testPtr[u + 1]; j++) {
+                if (testData[j] == 0)
+                    continue;
+                if (hasBit(ranked, testInd[j]))
+                    seen++;
+                else
+                    numCorrectPairs += seen;
+            }
+            numCorrectPairs += seen * (numDropped - (n - hits));
+            auc = (numCorrectPairs + 0.0) / numEvaluatingPairs;
+        }
 
-            List<Integer> cutoffs = Arrays.asList(5, 10);
-            Map<Integer, Double> precs = Measures.PrecAt(rankedItems, correctItemsSet, cutoffs);
-            Map<Integer, Double> recalls = Measures.RecallAt(rankedItems, correctItemsSet, cutoffs);
+        values[PRE5] = hits5 / 5.0;
+        values[PRE10] = hits10 / 10.0;
+        values[REC5] = hits5 / (numCorrect + 0.0);
+        values[REC10] = hits10 / (numCorrect + 0.0);
+        values[AUC] = auc;
+        values[MAP] = hits > 0 ? sumPrecs / numCorrect : 0.0;
+        values[MRR] = rr;
+        values[NDCG] = dcg / Measures.IDCG(numCorrect);
 
-            precs5.add(precs.get(5));
-            precs10.add(precs.get(10));
-            recalls5.add(recalls.get(5));
-            recalls10.add(recalls.get(10));
+        for (int i = 0; i < n; i++)
+            clearBit(ranked, rankedItems[i]);
+        clearRow(correct, testPtr[u], testPtr[u + 1], testInd);
 
-            aucs.add(AUC);
-            aps.add(AP);
-            rrs.add(RR);
-            ndcgs.add(nDCG);
+        return true;
+    }
 
-        }
+    private static void setBit(long[] bits, int i) {
+        bits[i >>> 6] |= 1L << i;
+    }
 
-        // write results out first
-        if (isResultsOut && preds.size() > 0) {
-            FileIO.writeList(toFile, preds, true);
-            Logs.debug("{}{} has writeen item recommendations to {}", algoName, foldInfo, toFile);
-        }
+    private static void clearBit(long[] bits, int i) {
+        bits[i >>> 6] &= ~(1L << i);
+    }
 
-        // measure the performance
-        Map<Measure, Double> measures = new HashMap<>();
-        measures.put(Measure.D5, isDiverseUsed ? Stats.mean(ds5) : 0.0);
-        measures.put(Measure.D10, isDiverseUsed ? Stats.mean(ds10) : 0.0);
-        measures.put(Measure.Pre5, Stats.mean(precs5));
-        measures.put(Measure.Pre10, Stats.mean(precs10));
-        measures.put(Measure.Rec5, Stats.mean(recalls5));
-        measures.put(Measure.Rec10, Stats.mean(recalls10));
-        measures.put(Measure.AUC, Stats.mean(aucs));
-        measures.put(Measure.NDCG, Stats.mean(ndcgs));
-        measures.put(Measure.MAP, Stats.mean(aps));
-        measures.put(Measure.MRR, Stats.mean(rrs));
+    private static boolean hasBit(long[] bits, int i) {
+        return (bits[i >>> 6] & (1L << i)) != 0;
+    }
 
-        return measures;
+    private static void clearRow(long[] bits, int from, int to, int[] ind) {
+        for (int j = from; j < to; j++)
+            clearBit(bits, ind[j]);
     }
 
     public void ratedItemOthersRec()throws Exception{
@@ -775,80 +999,204 @@ public abstract class Recommender implements Runnable {
 
     /**
      * 产生类似电影推荐
+     * @return raw ids of the movies most similar to the given one, by the PCC of their ratings
      * @throws Exception
      */
     public List<String> getSimilarMovies(String movieId)throws Exception{
         int numTopNRanks = numRecs < 0 ? 10 : numRecs;
         int itemIdx = rateDao.getItemId(movieId);
-        List<String> recommendationList = new ArrayList<String>();
-        for (int u = 0,um = trainMatrix.numColumns();u<um;u++){
-            if(u!=itemIdx){
-                double score = Sims.pcc(trainMatrix.getColumns(u),trainMatrix.getColumns(itemIdx));
-                List<Map.Entry<Integer, Double>> itemScores = new ArrayList<>();
-                itemScores.add(new SimpleImmutableEntry<Integer,Double>(itemIdx,score));
-                itemScores = Lists.sortListTopK(itemScores, true, numTopNRanks);
-                List<Integer> rankedItems = new ArrayList<>(itemScores.size());
-                for (Map.Entry<Integer, Double> kv : itemScores) {
-                    Integer item = kv.getKey();
-                    rankedItems.add(item);
-                }
-                for (int i = 0; i < rankedItems.size()&&i<10; i++) {
-                    recommendationList.add(rateDao.getItemId(rankedItems.get(i)));
-                }
-            }
+        int[] colPtr = trainMatrix.getColumnPointers(), rowInd = trainMatrix.getRowIndices();
+        double[] colData = trainMatrix.getColumnData();
+
+        TopKHeap topN = new TopKHeap(numTopNRanks);
+        for (int j = 0, jm = trainMatrix.numColumns(); j < jm; j++) {
+            if (j != itemIdx)
+                topN.offer(j, Sims.pcc(rowInd, colData, colPtr[itemIdx], colPtr[itemIdx + 1], rowInd, colData,
+                        colPtr[j], colPtr[j + 1]));
         }
+        topN.sort();
+
+        List<String> recommendationList = new ArrayList<String>(topN.size());
+        for (int i = 0; i < topN.size(); i++)
+            recommendationList.add(rateDao.getItemId(topN.id(i)));
+
         return recommendationList;
     }
+
     /**
-     *  将推荐列表写入结果表中
-     * @throws Exception
+     * @return training data of this model
      */
-    public void writeRankedToFile() throws Exception {
-        File recfile = new File("recommendation-service/target/classes/static/demo/result.csv");
-        if (recfile.exists()){
-            recfile.delete();
-            recfile = new File("recommendation-service/target/classes/static/demo/result.csv");
-            FileUtils.writeStringToFile(recfile,"userId,movieId,rating\n",true);
-        }
-        int numTopNRanks = numRecs < 0 ? 10 : numRecs;
+    public SparseMatrix getTrainMatrix() {
+        return trainMatrix;
+    }
 
-        for (int u=0,um=trainMatrix.numRows();u<um;u++){
-            if (verbose && ((u + 1) % numUsers == 0))
-                Logs.debug("{}{} evaluates progress: {} / {}", algoName, foldInfo, u + 1, um);
-
-            // remove rated items from candidate items
-            Set<Integer> ratedItems = trainMatrix.getColumnsSet(u);
-
-            // predict the ranking scores (unordered) of all candidate items
-            List<Map.Entry<Integer, Double>> itemScores = new ArrayList<>();
-            // item j is not rated
-            for(int itemIdx = 0; itemIdx < numItems; ++itemIdx){
-                if (!ratedItems.contains(itemIdx)) {
-                    final double rankScore = ranking(u, itemIdx);
-                    if (!Double.isNaN(rankScore)) {
-                        itemScores.add(new SimpleImmutableEntry<>(itemIdx, rankScore));
-                    }
-                }
+    /**
+     * @return top-N recommendations of this model, or null if they have not been ranked yet
+     */
+    public TopNIndex getTopNIndex() {
+        return topNIndex;
+    }
+
+    /**
+     * Rank the unrated items of every user, in parallel, into a new {@link TopNIndex}
+     *
+     * @return the top-N of every user
+     */
+    protected TopNIndex buildTopNIndex() throws Exception {
+        final int numTopNRanks = numRecs < 0 ? 10 : numRecs;
+        final int um = trainMatrix.numRows();
+        final TopNIndex index = new TopNIndex(um);
+
+        final int block = scoreBlockSize();
+        Parallels.forRange(pool, (um + block - 1) / block, (from, to) -> {
+            // per-thread buffers, reused by all blocks of users
+            TopKHeap topN = new TopKHeap(numTopNRanks);
+            int[] users = new int[block];
+            double[][] scores = new double[block][numItems];
+            for (int b = from; b < to; b++) {
+                int size = 0;
+                for (int u = b * block, end = Math.min(um, u + block); u < end; u++)
+                    users[size++] = u;
+                rankTopN(users, size, scores, topN, index);
+            }
+        });
+
+        if (verbose)
+            Logs.debug("{}{} has ranked top-{} items of {} users", algoName, foldInfo, numTopNRanks, um);
+        return index;
+    }
+
+    /**
+     * Rank the unrated items of some users again, e.g., after their ratings have changed, into a copy of the
+     * {@link TopNIndex} of this model; the copy grows to the users of the training matrix.
+     *
+     * @param users users to rank
+     * @return the top-N of every user, with those of the given users ranked again
+     */
+    protected TopNIndex refreshTopNIndex(final int[] users) throws Exception {
+        final int numTopNRanks = numRecs < 0 ? 10 : numRecs;
+        TopNIndex current = topNIndex;
+        final TopNIndex index = current == null ? new TopNIndex(trainMatrix.numRows())
+                : new TopNIndex(current, Math.max(current.numUsers(), trainMatrix.numRows()));
+
+        final int block = scoreBlockSize();
+        Parallels.forRange(pool, (users.length + block - 1) / block, (from, to) -> {
+            TopKHeap topN = new TopKHeap(numTopNRanks);
+            int[] blockUsers = new int[block];
+            double[][] scores = new double[block][numItems];
+            for (int b = from; b < to; b++) {
+                int size = Math.min(block, users.length - b * block);
+                System.arraycopy(users, b * block, blockUsers, 0, size);
+                rankTopN(blockUsers, size, scores, topN, index);
             }
-            if (itemScores.size() == 0)
+        });
+
+        return index;
+    }
+
+    /**
+     * rank the unrated items of a block of users, keeping the top-N of each user into the given heap, and set them into
+     * the index
+     */
+    private void rankTopN(int[] users, int size, double[][] scores, TopKHeap topN, TopNIndex index) throws Exception {
+        // predict the ranking scores of all items
+        rankingScores(users, size, scores);
+
+        for (int k = 0; k < size; k++) {
+            int u = users[k];
+            double[] userScores = scores[k];
+
+            // remove rated items from candidate items, keeping the top-N only
+            excludeRated(u, userScores);
+            topN.clear();
+            for (int j = 0; j < numItems; j++)
+                topN.offer(j, userScores[j]);
+            if (topN.size() == 0) {
+                index.set(u, null, null);
                 continue; // no recommendations available for user u
+            }
 
-            // order the ranking scores from highest to lowest: List to preserve orders
-            itemScores = Lists.sortListTopK(itemScores, true, numTopNRanks);
-            List<Integer> rankedItems = new ArrayList<>(itemScores.size());
-            Set<Integer> rankedItemsSet = new HashSet<>((int)(itemScores.size()/0.6));
-            for (Map.Entry<Integer, Double> kv : itemScores) {
-                Integer item = kv.getKey();
-                rankedItems.add(item);
-                rankedItemsSet.add(item);
+            // order the ranking scores from highest to lowest
+            topN.sort();
+            int[] items = new int[topN.size()];
+            float[] rankedScores = new float[topN.size()];
+            for (int i = 0; i < items.length; i++) {
+                items[i] = topN.id(i);
+                rankedScores[i] = (float) topN.score(i);
             }
-            List<String > recrows = new ArrayList<String >();
-            for (int i = 0; i < rankedItems.size()&&i<10; i++) {
-                recrows.add(rateDao.getUserId(u)+","+rateDao.getItemId(rankedItems.get(i))+","+"1");
+            index.set(u, items, rankedScores);
+        }
+    }
+
+    /**
+     * Predict the ranking scores of all items for a block of users, {@code scores[k][j] = ranking(users[k], j)} for
+     * {@code k < size} and {@code j < numItems}. Subclasses whose scores can be computed together, e.g., as a matrix
+     * product, should override this method; all the full rankings are computed through it.
+     *
+     * @param users  users to rank
+     * @param size   number of users, taken from the start of {@code users}
+     * @param scores output, at least {@code size} rows of at least {@code numItems} entries
+     */
+    protected void rankingScores(int[] users, int size, double[][] scores) throws Exception {
+        for (int k = 0; k < size; k++) {
+            int u = users[k];
+            double[] userScores = scores[k];
+            for (int j = 0; j < numItems; j++)
+                userScores[j] = ranking(u, j);
+        }
+    }
+
+    /**
+     * @return number of users whose ranking scores are computed at once, so that a block of scores takes about 2MB
+     */
+    private static int scoreBlockSize() {
+        return Math.max(1, Math.min(SCORE_BLOCK, SCORE_BUFFER / Math.max(1, numItems)));
+    }
+
+    /**
+     * Mark the items rated by user u in the training data as not to be recommended: their scores are set to NaN, which
+     * {@link TopKHeap} ignores
+     *
+     * @return number of rated items
+     */
+    private int excludeRated(int u, double[] scores) {
+        if (u >= trainMatrix.numRows())
+            return 0;
+
+        int[] rowPtr = trainMatrix.getRowPointers(), colInd = trainMatrix.getColumnIndices();
+        double[] data = trainMatrix.getData();
+        int numRated = 0;
+        for (int j = rowPtr[u]; j < rowPtr[u + 1]; j++) {
+            if (data[j] != 0) {
+                scores[colInd[j]] = Double.NaN;
+                numRated++;
             }
-            FileUtils.writeLines(recfile,recrows,true);
         }
+        return numRated;
     }
+
+    /**
+     *  将推荐列表写入结果表中
+     *  <p>
+     *  the recommendations are taken from the top-N index, which is built first if missing
+     * @throws Exception
+     */
+    public void writeRankedToFile() throws Exception {
+        TopNIndex index = topNIndex;
+        if (index == null)
+            topNIndex = index = buildTopNIndex();
+
+        List<String> recrows = new ArrayList<>();
+        recrows.add("userId,movieId,rating");
+        for (int u = 0; u < index.numUsers(); u++) {
+            for (int item : index.getItems(u))
+                recrows.add(rateDao.getUserId(u) + "," + rateDao.getItemId(item) + "," + "1");
+        }
+
+        File recfile = new File("recommendation-service/target/classes/static/demo/result.csv");
+        FileUtils.writeLines(recfile, recrows, false);
+    }
+
     /**
      * predict a specific rating for user u on item j. It is useful for evalution which requires predictions are
      * bounded.
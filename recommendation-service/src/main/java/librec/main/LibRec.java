@@ -63,6 +63,26 @@ public class LibRec {
 
     // rate DAO object
     protected DataDAO rateDao;
+    // recommender of the last run on a single training set
+    protected Recommender recommender;
+    // whether the recommenders may load saved models, see the "--load-model" output option
+    protected boolean isLoadAllowed = true;
+
+    /**
+     * @param isLoadAllowed whether the recommenders may load saved models instead of learning them; off to learn the
+     *                      models again whatever the output options
+     */
+    public void setLoadAllowed(boolean isLoadAllowed) {
+        this.isLoadAllowed = isLoadAllowed;
+    }
+
+    /**
+     * @return the recommender of the last run, or null if there is none or if it was cross-validated
+     */
+    public Recommender getRecommender() {
+        return recommender;
+    }
+
     // line configer for rating data, LibRec outputs
     protected LineConfiger ratingOptions, outputOptions;
 
@@ -420,6 +440,7 @@ public class LibRec {
 
         algo = getRecommender(data, -1);
         algo.execute();
+        recommender = algo;
         
         printEvalInfo(algo, algo.measures);
     }
@@ -636,15 +657,19 @@ public class LibRec {
         // output data
         writeData(trainMatrix, testMatrix, fold);
 
+        Recommender algo;
         switch (algorithm.toLowerCase()) {
 
 		/* baselines */
 
             case "wrmf":
-                return new WRMF(trainMatrix, testMatrix, fold);
+                algo = new WRMF(trainMatrix, testMatrix, fold);
+                break;
             default:
                 throw new Exception("No recommender is specified!");
         }
+        algo.setLoadAllowed(isLoadAllowed);
+        return algo;
     }
 
     protected void writeData(SparseMatrix trainMatrix, SparseMatrix testMatrix, int fold) {
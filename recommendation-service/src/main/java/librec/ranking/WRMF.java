@@ -3,13 +3,14 @@ package librec.ranking;
 import librec.data.*;
 import librec.intf.IterativeRecommender;
 import librec.util.Logs;
+import librec.util.Parallels;
 import librec.util.Strings;
 import org.springframework.data.repository.query.Param;
 import org.springframework.web.bind.annotation.RequestMapping;
 import org.springframework.web.bind.annotation.RequestParam;
 import org.springframework.web.bind.annotation.RestController;
 
-import java.util.ArrayList;
+import java.util.Arrays;
 import java.util.Date;
 import java.util.List;
 
@@ -24,12 +25,21 @@ import java.util.List;
  * <li><strong>Real ratings:</strong> Hu et al., Collaborative filtering for
  * implicit feedback datasets, ICDM 2008.</li>
  * </ul>
+ * <p>
+ * In each half-step of ALS, the user (or item) rows are solved independently and split across the threads set by
+ * {@code evaluation.setup=... -cpu n}; the learned factors are the same as those of a single-thread run.
+ * <p>
+ * Each row is solved exactly by default ({@code -solver inv}). With {@code WRMF=-solver cg -cg-steps N}, a row is
+ * instead refined by N conjugate-gradient steps started from its previous value, following Takacs et al.,
+ * Applications of the conjugate gradient method for implicit feedback collaborative filtering, RecSys 2011. The
+ * normal equations are then never formed: a step costs O(k^2 + n_u k) instead of the O(n_u k^2 + k^3) of the
+ * exact solve, where n_u is the number of ratings of the row.
  *
  * @author wkq
  */
 //@RestController
 @Configuration("binThold, alpha, factors, regU, regI, numIters")
-public class WRMF extends IterativeRecommender {
+public class WRMF extends IterativeRecommender implements Cloneable {
 //    @RequestMapping("/getSimMovies")
 //    public List<String> getList(@RequestParam(value = "id")String id) throws Exception {
 //        return getSimilarMovies(id);
@@ -46,7 +56,14 @@ public class WRMF extends IterativeRecommender {
 
     private SparseMatrix CuiI;// C_{ui} = alpha * r_{ui} C_{ui}-1
     private SparseMatrix Pui;// P_{ui} = 1 if r_{ui}>0 or P_{ui} = 0
-    private List<List<Integer>> userItemList, itemUserList;
+
+    // solve each row by conjugate gradient instead of inverting its normal equations
+    private boolean cgSolver;
+    // number of conjugate-gradient steps per row and ALS half-step
+    private int cgSteps;
+
+    // per-thread buffers of the numFactors x numFactors normal equations, reused by every row
+    private ThreadLocal<NormalEquation> equations;
 
     public WRMF(SparseMatrix trainMatrix, SparseMatrix testMatrix, int fold) {
         super(trainMatrix, testMatrix, fold);
@@ -54,6 +71,8 @@ public class WRMF extends IterativeRecommender {
         isRankingPred = true; // item recommendation
 
         alpha = algoOptions.getFloat("-alpha");
+        cgSolver = "cg".equalsIgnoreCase(algoOptions.getString("-solver", "inv"));
+        cgSteps = algoOptions.getInt("-cg-steps", 3);
         // checkBinary();
     }
 
@@ -70,132 +89,391 @@ public class WRMF extends IterativeRecommender {
             P.init(); // P.init(smallValue);
             Q.init(); // Q.init(smallValue);
         }
-        // predefined CuiI and Pui
+        buildConfidences();
+
+        equations = ThreadLocal.withInitial(() -> new NormalEquation(numFactors));
+    }
+
+    /**
+     * predefined CuiI and Pui, sharing the CRS/CCS structure of trainMatrix
+     */
+    private void buildConfidences() {
         CuiI = new SparseMatrix(trainMatrix);
         Pui = new SparseMatrix(trainMatrix);
-        for (MatrixEntry me : trainMatrix) {
-            int u = me.row();
-            int i = me.column();
-//            CuiI.set(u, i, alpha * 1);
-            CuiI.set(u, i, Math.log(1.0 + Math.pow(10, alpha) * me.get()));
-            Pui.set(u, i, 1.0d);
-        }
-
-        this.userItemList = new ArrayList<>();
-        this.itemUserList = new ArrayList<>();
+        // the copies are transformed in place, in both their CRS and CCS arrays
+        double scale = Math.pow(10, alpha);
+        transform(CuiI.getData(), Pui.getData(), scale);
+        transform(CuiI.getColumnData(), Pui.getColumnData(), scale);
+    }
 
-        for (int u = 0; u < numUsers; u++) {
-            userItemList.add(trainMatrix.getColumns(u));
-        }
-        for (int i = 0; i < numItems; i++) {
-            itemUserList.add(trainMatrix.getRows(i));
+    private static void transform(double[] cui, double[] pui, double scale) {
+        for (int j = 0; j < cui.length; j++) {
+            double rate = cui[j];
+//            cui[j] = alpha * 1;
+            cui[j] = Math.log(1.0 + scale * rate);
+            pui[j] = rate != 0 ? 1.0d : 0.0d;
         }
     }
 
     @Override
     protected void buildModel() throws Exception {
         // To be consistent with the symbols in the paper
-        DenseMatrix X = P, Y = Q;
-        SparseMatrix IuMatrix = DiagMatrix.eye(numFactors).scale(regU);
-        SparseMatrix IiMatrix = DiagMatrix.eye(numFactors).scale(regI);
+        final DenseMatrix X = P, Y = Q;
         for (int iter = 1; iter <= numIters; iter++) {
 
-            // Step 1: update user factors;
-            DenseMatrix Yt = Y.transpose();
-            DenseMatrix YtY = Yt.mult(Y);
-            for (int u = 0; u < numUsers; u++) {
-                if (verbose && (u + 1) % numUsers == 0)
-                    Logs.debug("{}{} runs at iteration = {}, user = {}/{} {}", algoName, foldInfo, iter, u + 1,
-                            numUsers, new Date());
-
-                DenseMatrix YtCuI = new DenseMatrix(numFactors, numItems);
-                for (int i : userItemList.get(u)) {
-                    for (int k = 0; k < numFactors; k++) {
-                        YtCuI.set(k, i, Y.get(i, k) * CuiI.get(u, i));
-                    }
-                }
-
-                // YtY + Yt * (Cu - I) * Y
-                DenseMatrix YtCuY = new DenseMatrix(numFactors, numFactors);
-                for (int k = 0; k < numFactors; k++) {
-                    for (int f = 0; f < numFactors; f++) {
-                        double value = 0.0;
-                        for (int i : userItemList.get(u)) {
-                            value += YtCuI.get(k, i) * Y.get(i, f);
-                        }
-                        YtCuY.set(k, f, value);
-                    }
-                }
-                YtCuY = YtCuY.add(YtY);
-                // (YtCuY + lambda * I)^-1
-                // lambda * I can be pre-difined because every time is the same.
-                DenseMatrix Wu = (YtCuY.add(IuMatrix)).inv();
-                // Yt * (Cu - I) * Pu + Yt * Pu
-                DenseVector YtCuPu = new DenseVector(numFactors);
-                for (int f = 0; f < numFactors; f++) {
-                    for (int i : userItemList.get(u)) {
-                        YtCuPu.add(f, Pui.get(u, i) * (YtCuI.get(f, i) + Yt.get(f, i)));
-                    }
-                }
-
-                DenseVector xu = Wu.mult(YtCuPu);
-                // udpate user factors
-                X.setRow(u, xu);
+            // Step 1: update user factors; user rows only depend on Y, so they are solved in parallel
+            final DenseMatrix YtY = Y.transMult();
+            Parallels.forRange(pool, numUsers, (from, to) -> {
+                for (int u = from; u < to; u++)
+                    updateUser(u, X, Y, YtY);
+            });
+            if (verbose)
+                Logs.debug("{}{} runs at iteration = {}, user = {}/{} {}", algoName, foldInfo, iter, numUsers,
+                        numUsers, new Date());
+
+            // Step 2: update item factors; item rows only depend on X
+            final DenseMatrix XtX = X.transMult();
+            Parallels.forRange(pool, numItems, (from, to) -> {
+                for (int i = from; i < to; i++)
+                    updateItem(i, Y, X, XtX);
+            });
+            if (verbose)
+                Logs.debug("{}{} runs at iteration = {}, item = {}/{} {}", algoName, foldInfo, iter, numItems,
+                        numItems, new Date());
+
+//            measures = isRankingPred ? evalRankings() : evalRatings();
+        }
+    }
+
+    /**
+     * Fold new ratings into a copy of the learned model without training it again: the ratings are merged into the
+     * training matrix, the rows of the rating users are solved again with the item factors fixed, i.e., one numFactors
+     * x numFactors system per user as in a single ALS half-step, and their top-N recommendations are refreshed. Users
+     * and items with inner ids beyond those of the model are appended to it; new items are always solved, with the
+     * user factors fixed, since they have no factors yet. Rated items that are not new are solved again only if
+     * {@code updateItems} is set.
+     * <p>
+     * Only the rating users are ranked again: once item factors have changed, the recommendations of the other users
+     * are stale until the next training. This model is left as it is, whether the fold-in succeeds or not: the copy
+     * shares the factors that are not solved again, and the top-N of the users that are not ranked again.
+     *
+     * @param users       inner ids of the users of the ratings
+     * @param items       inner ids of the items of the ratings
+     * @param ratings     ratings, on the scale of the training data; the last one of a user and an item wins
+     * @param updateItems whether to solve the rated items again
+     * @return the model with the ratings folded in
+     */
+    public synchronized WRMF foldIn(int[] users, int[] items, double[] ratings, boolean updateItems)
+            throws Exception {
+        if (items.length != users.length || ratings.length != users.length)
+            throw new IllegalArgumentException("users, items and ratings must have the same length");
+
+        // the dimensions are static, and are those of the last model built or folded, not necessarily this one
+        int lastUsers = numUsers, lastItems = numItems, lastFactors = numFactors;
+        try {
+            WRMF folded = (WRMF) clone();
+            folded.merge(users, items, ratings, updateItems);
+            return folded;
+        } catch (Exception | Error e) {
+            numUsers = lastUsers;
+            numItems = lastItems;
+            numFactors = lastFactors;
+            throw e;
+        }
+    }
+
+    /**
+     * fold the ratings into this model, a copy of the published one
+     */
+    private void merge(int[] users, int[] items, double[] ratings, boolean updateItems) throws Exception {
+        final int oldItems = trainMatrix.numColumns();
+        // merge the new ratings into the training matrix
+        RatingStore ratingStore = new RatingStore(trainMatrix);
+        for (int k = 0; k < users.length; k++) {
+            ratingStore.add(users[k], items[k], ratings[k]);
+        }
+        trainMatrix = ratingStore.snapshot();
+        buildConfidences();
+
+        final int[] us = distinct(users, 0);
+        final int[] is = distinct(items, updateItems ? 0 : oldItems);
+
+        // appended users and items start from zero factors; the rows solved again are copied first
+        int um = trainMatrix.numRows(), im = trainMatrix.numColumns();
+        P = P.appendRows(Math.max(um, P.numRows()), us);
+        Q = Q.appendRows(Math.max(im, Q.numRows()), is);
+        numUsers = um;
+        numItems = im;
+        numFactors = P.numColumns();
+
+        // a loaded model has not been initialized for training
+        if (equations == null)
+            equations = ThreadLocal.withInitial(() -> new NormalEquation(numFactors));
+
+        final DenseMatrix X = P, Y = Q;
+
+        final DenseMatrix YtY = Y.transMult();
+        Parallels.forRange(pool, us.length, (from, to) -> {
+            for (int k = from; k < to; k++)
+                updateUser(us[k], X, Y, YtY);
+        });
+
+        if (is.length > 0) {
+            final DenseMatrix XtX = X.transMult();
+            Parallels.forRange(pool, is.length, (from, to) -> {
+                for (int k = from; k < to; k++)
+                    updateItem(is[k], Y, X, XtX);
+            });
+        }
+
+        topNIndex = refreshTopNIndex(us);
+        if (verbose)
+            Logs.debug("{}{} has folded in {} ratings of {} users and {} items", algoName, foldInfo, users.length,
+                    us.length, is.length);
+    }
+
+    /**
+     * @return the distinct ids not less than {@code min}, in ascending order
+     */
+    private static int[] distinct(int[] ids, int min) {
+        int[] sorted = ids.clone();
+        Arrays.sort(sorted);
+
+        int n = 0;
+        for (int k = 0; k < sorted.length; k++) {
+            if (sorted[k] >= min && (n == 0 || sorted[n - 1] != sorted[k]))
+                sorted[n++] = sorted[k];
+        }
+        return Arrays.copyOf(sorted, n);
+    }
+
+    /**
+     * solve the factors of user u given the item factors Y, and store them into row u of X
+     */
+    protected void updateUser(int u, DenseMatrix X, DenseMatrix Y, DenseMatrix YtY) {
+        int[] rowPtr = CuiI.getRowPointers();
+        NormalEquation eq = equations.get();
+
+        if (cgSolver) {
+            conjugateGradient(CuiI.getColumnIndices(), CuiI.getData(), Pui.getData(), rowPtr[u], rowPtr[u + 1], Y, YtY,
+                    regU, cgSteps, X, u, eq);
+            return;
+        }
+
+        // (YtY + Yt * (Cu - I) * Y + lambda * I) xu = Yt * Cu * Pu
+        assemble(CuiI.getColumnIndices(), CuiI.getData(), Pui.getData(), rowPtr[u], rowPtr[u + 1], Y, YtY, regU,
+                eq.A, eq.b);
+
+        X.setRow(u, solve(eq));
+    }
+
+    /**
+     * solve the factors of item i given the user factors X, and store them into row i of Y
+     */
+    protected void updateItem(int i, DenseMatrix Y, DenseMatrix X, DenseMatrix XtX) {
+        int[] colPtr = CuiI.getColumnPointers();
+        NormalEquation eq = equations.get();
+
+        if (cgSolver) {
+            conjugateGradient(CuiI.getRowIndices(), CuiI.getColumnData(), Pui.getColumnData(), colPtr[i],
+                    colPtr[i + 1], X, XtX, regI, cgSteps, Y, i, eq);
+            return;
+        }
+
+        // (XtX + Xt * (Ci - I) * X + lambda * I) yi = Xt * Ci * Pi
+        assemble(CuiI.getRowIndices(), CuiI.getColumnData(), Pui.getColumnData(), colPtr[i], colPtr[i + 1], X, XtX,
+                regI, eq.A, eq.b);
+
+        Y.setRow(i, solve(eq));
+    }
+
+    /**
+     * solve the assembled equations {@code A x = b} by Cholesky into the buffers of {@code eq}; A is positive definite
+     * whenever the regularization is positive, otherwise a singular A falls back to the explicit inverse
+     */
+    private static DenseVector solve(NormalEquation eq) {
+        DenseVector x = eq.A.solveSPD(eq.b, eq.x);
+        return x != null ? x : eq.A.inv().mult(eq.b);
+    }
+
+    /**
+     * Assemble the normal equations of one user (or item) from its compressed non-zeros {@code [from, to)} only:
+     * {@code A = FtF + Ft (C - I) F + reg * I} and {@code b = Ft C p}, where F holds the fixed factors of the other
+     * side. Unobserved entries contribute nothing beyond {@code FtF}, so no dense numFactors x numItems scratch is
+     * needed.
+     *
+     * @param ind    column (or row) indices of the compressed storage
+     * @param cui    confidence values {@code C - I} aligned with {@code ind}
+     * @param pui    preference values aligned with {@code ind}
+     * @param from   start of the compressed row (or column), inclusive
+     * @param to     end of the compressed row (or column), exclusive
+     * @param F      factors of the other side
+     * @param FtF    {@code F^T F}
+     * @param reg    regularization
+     * @param A      output matrix, overwritten
+     * @param b      output vector, overwritten
+     */
+    static void assemble(int[] ind, double[] cui, double[] pui, int from, int to, DenseMatrix F, DenseMatrix FtF,
+                         double reg, DenseMatrix A, DenseVector b) {
+        int k = FtF.numRows();
+        A.clear();
+        b.setAll(0.0);
+
+        for (int j = from; j < to; j++) {
+            double p = pui[j];
+            if (p == 0)
+                continue; // zero ratings are not observed
+
+            int i = ind[j];
+            double c = cui[j];
+            for (int f = 0; f < k; f++) {
+                double fc = F.get(i, f) * c;
+                // upper triangle only, A is symmetric
+                for (int g = f; g < k; g++)
+                    A.add(f, g, fc * F.get(i, g));
+
+                b.add(f, p * (fc + F.get(i, f)));
             }
+        }
 
-            // Step 2: update item factors;
-            DenseMatrix Xt = X.transpose();
-            DenseMatrix XtX = Xt.mult(X);
-            for (int i = 0; i < numItems; i++) {
-                if (verbose && (i + 1) % numItems == 0)
-                    Logs.debug("{}{} runs at iteration = {}, item = {}/{} {}", algoName, foldInfo, iter, i + 1,
-                            numItems, new Date());
-
-                DenseMatrix XtCiI = new DenseMatrix(numFactors, numUsers);
-                // actually XtCiI is a sparse matrix
-                // Xt * (Ci-I)
-                for (int u : itemUserList.get(i)) {
-                    for (int k = 0; k < numFactors; k++) {
-                        XtCiI.set(k, u, X.get(u, k) * CuiI.get(u, i));
-                    }
-                }
-                // XtX + Xt * (Ci - I) * X
-                DenseMatrix XtCiX = new DenseMatrix(numFactors, numFactors);
-                for (int k = 0; k < numFactors; k++) {
-                    for (int f = 0; f < numFactors; f++) {
-                        double value = 0.0;
-                        for (int u : itemUserList.get(i)) {
-                            value += XtCiI.get(k, u) * X.get(u, f);
-                        }
-                        XtCiX.set(k, f, value);
-                    }
-                }
-                XtCiX = XtCiX.add(XtX);
-
-                // (XtCuX + lambda * I)^-1
-                // lambda * I can be pre-difined because every time is the same.
-                DenseMatrix Wi = (XtCiX.add(IiMatrix)).inv();
-                // Xt * (Ci - I) * Pu + Xt * Pu
-                DenseVector XtCiPu = new DenseVector(numFactors);
-                for (int f = 0; f < numFactors; f++) {
-                    for (int u : itemUserList.get(i)) {
-                        XtCiPu.add(f, Pui.get(u, i) * (XtCiI.get(f, u) + Xt.get(f, u)));
-                    }
-                }
-
-                DenseVector yi = Wi.mult(XtCiPu);
-                // udpate item factors
-                Y.setRow(i, yi);
+        for (int f = 0; f < k; f++) {
+            for (int g = f; g < k; g++) {
+                double val = A.get(f, g) + FtF.get(f, g);
+                if (f == g)
+                    val += reg;
+                A.set(f, g, val);
+                A.set(g, f, val);
             }
+        }
+    }
 
-//            measures = isRankingPred ? evalRankings() : evalRatings();
-            writeRankedToFile();
+    /**
+     * Run a few conjugate-gradient steps on the normal equations of one user (or item), warm-started from its
+     * current factors in row {@code row} of {@code X}, and store the result back into that row. The products
+     * {@code A v} are computed from the compressed non-zeros {@code [from, to)} as
+     * {@code FtF v + Ft (C - I) (F v) + reg * v}, so A itself is never built.
+     *
+     * @param ind    column (or row) indices of the compressed storage
+     * @param cui    confidence values {@code C - I} aligned with {@code ind}
+     * @param pui    preference values aligned with {@code ind}
+     * @param from   start of the compressed row (or column), inclusive
+     * @param to     end of the compressed row (or column), exclusive
+     * @param F      factors of the other side
+     * @param FtF    {@code F^T F}
+     * @param reg    regularization
+     * @param steps  number of conjugate-gradient steps
+     * @param X      factors being solved, updated in row {@code row}
+     * @param row    the user (or item) to solve
+     * @param eq     per-thread scratch vectors
+     */
+    static void conjugateGradient(int[] ind, double[] cui, double[] pui, int from, int to, DenseMatrix F,
+                                  DenseMatrix FtF, double reg, int steps, DenseMatrix X, int row, NormalEquation eq) {
+        int k = FtF.numRows();
+        double[] x = eq.x.getData(), r = eq.r, p = eq.p, Ap = eq.Ap;
+
+        for (int f = 0; f < k; f++)
+            x[f] = X.get(row, f);
+
+        // r = b - A x, with b = Ft C p
+        multiply(ind, cui, pui, from, to, F, FtF, reg, x, r);
+        for (int f = 0; f < k; f++)
+            r[f] = -r[f];
+        for (int j = from; j < to; j++) {
+            if (pui[j] == 0)
+                continue;
+            int i = ind[j];
+            double pc = pui[j] * (cui[j] + 1);
+            for (int f = 0; f < k; f++)
+                r[f] += pc * F.get(i, f);
+        }
+
+        System.arraycopy(r, 0, p, 0, k);
+        double rr = dot(r, r, k);
+
+        for (int step = 0; step < steps && rr > 0; step++) {
+            multiply(ind, cui, pui, from, to, F, FtF, reg, p, Ap);
+
+            double a = rr / dot(p, Ap, k);
+            for (int f = 0; f < k; f++) {
+                x[f] += a * p[f];
+                r[f] -= a * Ap[f];
+            }
+
+            double rrNew = dot(r, r, k);
+            double beta = rrNew / rr;
+            for (int f = 0; f < k; f++)
+                p[f] = r[f] + beta * p[f];
+            rr = rrNew;
+        }
+
+        for (int f = 0; f < k; f++)
+            X.set(row, f, x[f]);
+    }
+
+    /**
+     * out = (FtF + Ft (C - I) F + reg * I) v, over the compressed non-zeros {@code [from, to)}
+     */
+    private static void multiply(int[] ind, double[] cui, double[] pui, int from, int to, DenseMatrix F,
+                                 DenseMatrix FtF, double reg, double[] v, double[] out) {
+        int k = FtF.numRows();
+        for (int f = 0; f < k; f++) {
+            double sum = reg * v[f];
+            for (int g = 0; g < k; g++)
+                sum += FtF.get(f, g) * v[g];
+            out[f] = sum;
+        }
+
+        for (int j = from; j < to; j++) {
+            if (pui[j] == 0)
+                continue;
+            int i = ind[j];
+            double fv = 0;
+            for (int g = 0; g < k; g++)
+                fv += F.get(i, g) * v[g];
+            fv *= cui[j];
+            for (int f = 0; f < k; f++)
+                out[f] += fv * F.get(i, f);
+        }
+    }
+
+    private static double dot(double[] a, double[] b, int k) {
+        double sum = 0;
+        for (int f = 0; f < k; f++)
+            sum += a[f] * b[f];
+        return sum;
+    }
+
+    /**
+     * Reusable numFactors x numFactors system {@code A x = b} of a single row, and the vectors of the
+     * conjugate-gradient solver
+     */
+    static class NormalEquation {
+        final DenseMatrix A;
+        final DenseVector b, x;
+        final double[] r, p, Ap;
+
+        NormalEquation(int numFactors) {
+            A = new DenseMatrix(numFactors, numFactors);
+            b = new DenseVector(numFactors);
+            x = new DenseVector(numFactors);
+            r = new double[numFactors];
+            p = new double[numFactors];
+            Ap = new double[numFactors];
         }
     }
 
+    /**
+     * rankings are scored by the default predictions, the products of the user and item factors
+     */
+    @Override
+    protected boolean isFactorModel() {
+        return true;
+    }
+
     @Override
     public String toString() {
-        return Strings.toString(new Object[]{binThold, alpha, numFactors, regU, regI}, ",");
+        return Strings.toString(new Object[]{binThold, alpha, numFactors, regU, regI}, ",")
+                + (cgSolver ? ",cg" + cgSteps : "");
     }
 
 }
@@ -0,0 +1,121 @@
+// Copyright (C) 2014-2015 Guibing Guo
+//
+// This file is part of LibRec.
+//
+// LibRec is free software: you can redistribute it and/or modify
+// it under the terms of the GNU General Public License as published by
+// the Free Software Foundation, either version 3 of the License, or
+// (at your option) any later version.
+//
+// LibRec is distributed in the hope that it will be useful,
+// but WITHOUT ANY WARRANTY; without even the implied warranty of
+// MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the
+// GNU General Public License for more details.
+//
+// You should have received a copy of the GNU General Public License
+// along with LibRec. If not, see <http://www.gnu.org/licenses/>.
+//
+
+package librec.util;
+
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.RecursiveAction;
+
+/**
+ * Fork/join helpers to split an index range {@code [0, size)} across the threads of a pool
+ */
+public class Parallels {
+
+	/**
+	 * number of chunks per thread, so that uneven rows (e.g. heavy users) are balanced by work stealing
+	 */
+	private final static int CHUNKS_PER_THREAD = 8;
+
+	/**
+	 * A task working on the sub-range {@code [from, to)} of indices
+	 */
+	public interface RangeTask {
+		void run(int from, int to) throws Exception;
+	}
+
+	/**
+	 * Run {@code task} over the index range {@code [0, size)}. The range is run in the calling thread if {@code pool}
+	 * is null or has only one thread, which keeps single-thread runs identical to the sequential code.
+	 *
+	 * @param pool
+	 *            fork/join pool, or null to run sequentially
+	 * @param size
+	 *            size of the index range
+	 * @param task
+	 *            task to run on each sub-range
+	 */
+	public static void forRange(ForkJoinPool pool, int size, RangeTask task) throws Exception {
+		if (size <= 0)
+			return;
+
+		int numThreads = pool == null ? 1 : pool.getParallelism();
+		int grain = Math.max(1, size / (numThreads * CHUNKS_PER_THREAD));
+
+		if (numThreads <= 1 || size <= grain) {
+			task.run(0, size);
+			return;
+		}
+
+		try {
+			pool.invoke(new RangeAction(task, 0, size, grain));
+		} catch (RuntimeException e) {
+			// rethrow the checked exception of the task, if any
+			for (Throwable t = e; t != null; t = t.getCause()) {
+				if (t instanceof TaskException)
+					throw (Exception) t.getCause();
+			}
+			throw e;
+		}
+	}
+
+	/**
+	 * Create a pool with a given number of threads
+	 *
+	 * @return a fork/join pool, or null if {@code numThreads <= 1}
+	 */
+	public static ForkJoinPool newPool(int numThreads) {
+		return numThreads > 1 ? new ForkJoinPool(numThreads) : null;
+	}
+
+	@SuppressWarnings("serial")
+	private static class TaskException extends RuntimeException {
+		TaskException(Exception cause) {
+			super(cause);
+		}
+	}
+
+	@SuppressWarnings("serial")
+	private static class RangeAction extends RecursiveAction {
+		private final RangeTask task;
+		private final int from, to, grain;
+
+		RangeAction(RangeTask task, int from, int to, int grain) {
+			this.task = task;
+			this.from = from;
+			this.to = to;
+			this.grain = grain;
+		}
+
+		@Override
+		protected void compute() {
+			if (to - from <= grain) {
+				try {
+					task.run(from, to);
+				} catch (RuntimeException e) {
+					throw e;
+				} catch (Exception e) {
+					throw new TaskException(e);
+				}
+				return;
+			}
+
+			int mid = (from + to) >>> 1;
+			invokeAll(new RangeAction(task, from, mid, grain), new RangeAction(task, mid, to, grain));
+		}
+	}
+}
@@ -19,6 +19,7 @@
 package librec.util;
 
 import java.util.ArrayList;
+import java.util.Arrays;
 import java.util.HashSet;
 import java.util.List;
 import java.util.Set;
@@ -225,4 +226,265 @@ public class Sims {
 
 	}
 
+	/*
+	 * Similarity kernels on slices of sorted, duplicate-free index arrays, such as a row of the CRS arrays (or a column
+	 * of the CCS arrays) of a SparseMatrix: the entries of slice [from, to) have indices idx[from..to) and values
+	 * val[from..to). Co-rated entries are found by a merge that gallops over runs of unmatched indices, so a short
+	 * slice against a long one costs O(short * log(long)), and no memory is allocated.
+	 */
+
+	/**
+	 * @return number of common indices of two slices
+	 */
+	public static int common(int[] idxA, int fromA, int toA, int[] idxB, int fromB, int toB) {
+		int n = 0;
+		int i = fromA, j = fromB;
+		while (i < toA && j < toB) {
+			int a = idxA[i], b = idxB[j];
+			if (a < b)
+				i = seek(idxA, i + 1, toA, b);
+			else if (a > b)
+				j = seek(idxB, j + 1, toB, a);
+			else {
+				n++;
+				i++;
+				j++;
+			}
+		}
+		return n;
+	}
+
+	/**
+	 * @return Jaccard's coefficient of the index sets of two slices, see {@link #jaccard(List, List)}
+	 */
+	public static double jaccard(int[] idxA, int fromA, int toA, int[] idxB, int fromB, int toB) {
+		int common = common(idxA, fromA, toA, idxB, fromB, toB);
+		int all = (toA - fromA) + (toB - fromB) - common;
+
+		return (common + 0.0) / all;
+	}
+
+	/**
+	 * @return cosine similarity along the common indices of two slices, see {@link #cos(List, List)}
+	 */
+	public static double cos(int[] idxA, double[] valA, int fromA, int toA, int[] idxB, double[] valB, int fromB,
+			int toB) {
+		int n = 0;
+		double sum = 0.0, sum_a = 0.0, sum_b = 0.0;
+
+		int i = fromA, j = fromB;
+		while (i < toA && j < toB) {
+			int a = idxA[i], b = idxB[j];
+			if (a < b)
+				i = seek(idxA, i + 1, toA, b);
+			else if (a > b)
+				j = seek(idxB, j + 1, toB, a);
+			else {
+				double ai = valA[i++], bi = valB[j++];
+				sum += ai * bi;
+				sum_a += ai * ai;
+				sum_b += bi * bi;
+				n++;
+			}
+		}
+		if (n == 0)
+			return Double.NaN;
+
+		double val = Math.sqrt(sum_a) * Math.sqrt(sum_b);
+
+		return sum / val;
+	}
+
+	/**
+	 * @return cosine similarity of two slices, where the indices of only one slice count as 0s in the other
+	 */
+	public static double cosBinary(int[] idxA, double[] valA, int fromA, int toA, int[] idxB, double[] valB,
+			int fromB, int toB) {
+		double sum = 0.0, sum_a = 0.0, sum_b = 0.0;
+
+		for (int i = fromA; i < toA; i++)
+			sum_a += valA[i] * valA[i];
+		for (int j = fromB; j < toB; j++)
+			sum_b += valB[j] * valB[j];
+
+		int i = fromA, j = fromB;
+		while (i < toA && j < toB) {
+			int a = idxA[i], b = idxB[j];
+			if (a < b)
+				i = seek(idxA, i + 1, toA, b);
+			else if (a > b)
+				j = seek(idxB, j + 1, toB, a);
+			else
+				sum += valA[i++] * valB[j++];
+		}
+
+		return sum / (Math.sqrt(sum_a) * Math.sqrt(sum_b));
+	}
+
+	/**
+	 * @return Constrained Pearson Correlation (CPC) along the common indices of two slices, see
+	 *         {@link #cpc(List, List, double)}
+	 */
+	public static double cpc(int[] idxA, double[] valA, int fromA, int toA, int[] idxB, double[] valB, int fromB,
+			int toB, double median) {
+		int n = 0;
+		double sumNum = 0.0, sumDen1 = 0.0, sumDen2 = 0.0;
+
+		int i = fromA, j = fromB;
+		while (i < toA && j < toB) {
+			int a = idxA[i], b = idxB[j];
+			if (a < b)
+				i = seek(idxA, i + 1, toA, b);
+			else if (a > b)
+				j = seek(idxB, j + 1, toB, a);
+			else {
+				double ui = valA[i++] - median;
+				double vi = valB[j++] - median;
+
+				sumNum += ui * vi;
+				sumDen1 += ui * ui;
+				sumDen2 += vi * vi;
+				n++;
+			}
+		}
+		if (n == 0)
+			return Double.NaN;
+
+		return sumNum / (Math.sqrt(sumDen1) * Math.sqrt(sumDen2));
+	}
+
+	/**
+	 * @return Mean Squared Difference (MSD) similarity along the common indices of two slices, see
+	 *         {@link #msd(List, List)}
+	 */
+	public static double msd(int[] idxA, double[] valA, int fromA, int toA, int[] idxB, double[] valB, int fromB,
+			int toB) {
+		int n = 0;
+		double sum = 0.0;
+
+		int i = fromA, j = fromB;
+		while (i < toA && j < toB) {
+			int a = idxA[i], b = idxB[j];
+			if (a < b)
+				i = seek(idxA, i + 1, toA, b);
+			else if (a > b)
+				j = seek(idxB, j + 1, toB, a);
+			else {
+				double diff = valA[i++] - valB[j++];
+				sum += diff * diff;
+				n++;
+			}
+		}
+
+		double sim = n / sum;
+		if (Double.isInfinite(sim))
+			sim = 1.0;
+
+		return sim;
+	}
+
+	/**
+	 * @return Pearson Correlation Coefficient (PCC) along the common indices of two slices, or Double.NaN if there are
+	 *         less than 2 of them, see {@link #pcc(List, List)}
+	 */
+	public static double pcc(int[] idxA, double[] valA, int fromA, int toA, int[] idxB, double[] valB, int fromB,
+			int toB) {
+		// first pass: means of the common ratings
+		int n = 0;
+		double sum_a = 0.0, sum_b = 0.0;
+
+		int i = fromA, j = fromB;
+		while (i < toA && j < toB) {
+			int a = idxA[i], b = idxB[j];
+			if (a < b)
+				i = seek(idxA, i + 1, toA, b);
+			else if (a > b)
+				j = seek(idxB, j + 1, toB, a);
+			else {
+				sum_a += valA[i++];
+				sum_b += valB[j++];
+				n++;
+			}
+		}
+		if (n < 2)
+			return Double.NaN;
+
+		double mu_a = sum_a / n;
+		double mu_b = sum_b / n;
+
+		// second pass: deviations from the means
+		double num = 0.0, den_a = 0.0, den_b = 0.0;
+
+		i = fromA;
+		j = fromB;
+		while (i < toA && j < toB) {
+			int a = idxA[i], b = idxB[j];
+			if (a < b)
+				i = seek(idxA, i + 1, toA, b);
+			else if (a > b)
+				j = seek(idxB, j + 1, toB, a);
+			else {
+				double ai = valA[i++] - mu_a;
+				double bi = valB[j++] - mu_b;
+
+				num += ai * bi;
+				den_a += ai * ai;
+				den_b += bi * bi;
+			}
+		}
+
+		return num / (Math.sqrt(den_a) * Math.sqrt(den_b));
+	}
+
+	/**
+	 * @return extended Jaccard coefficient along the common indices of two slices, see {@link #exJaccard(List, List)}
+	 */
+	public static double exJaccard(int[] idxA, double[] valA, int fromA, int toA, int[] idxB, double[] valB,
+			int fromB, int toB) {
+		double num = 0.0, den_a = 0.0, den_b = 0.0;
+
+		int i = fromA, j = fromB;
+		while (i < toA && j < toB) {
+			int a = idxA[i], b = idxB[j];
+			if (a < b)
+				i = seek(idxA, i + 1, toA, b);
+			else if (a > b)
+				j = seek(idxB, j + 1, toB, a);
+			else {
+				double ai = valA[i++];
+				double bi = valB[j++];
+
+				num += ai * bi;
+				den_a += ai * ai;
+				den_b += bi * bi;
+			}
+		}
+
+		return num / (den_a + den_b - num);
+	}
+
+	/**
+	 * Galloping search in a sorted slice
+	 * 
+	 * @return the first position p in {@code [from, to)} such that {@code idx[p] >= target}, or {@code to} if none
+	 */
+	private static int seek(int[] idx, int from, int to, int target) {
+		if (from >= to || idx[from] >= target)
+			return from;
+
+		// idx[lo] < target: double the step until passing the target
+		int lo = from, step = 1;
+		int hi = lo + step;
+		while (hi < to && idx[hi] < target) {
+			lo = hi;
+			step <<= 1;
+			hi = lo + step;
+		}
+		if (hi > to)
+			hi = to;
+
+		int p = Arrays.binarySearch(idx, lo + 1, hi, target);
+		return p >= 0 ? p : -p - 1;
+	}
+
 }
@@ -0,0 +1,159 @@
+// Copyright (C) 2014-2015 Guibing Guo
+//
+// This file is part of LibRec.
+//
+// LibRec is free software: you can redistribute it and/or modify
+// it under the terms of the GNU General Public License as published by
+// the Free Software Foundation, either version 3 of the License, or
+// (at your option) any later version.
+//
+// LibRec is distributed in the hope that it will be useful,
+// but WITHOUT ANY WARRANTY; without even the implied warranty of
+// MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the
+// GNU General Public License for more details.
+//
+// You should have received a copy of the GNU General Public License
+// along with LibRec. If not, see <http://www.gnu.org/licenses/>.
+//
+
+package librec.util;
+
+/**
+ * Bounded min-heap over primitive {@code (id, score)} pairs that keeps the k highest scores offered to it, as an
+ * allocation-free alternative to {@link Lists#sortListTopK} on boxed map entries. A heap is meant to be reused:
+ * {@link #clear()} it, {@link #offer} the candidates, then {@link #sort()} it and read the ranked pairs by position.
+ * <p>
+ * Higher scores rank first; equal scores are ranked by ascending ids. NaN scores are ignored.
+ */
+public class TopKHeap {
+
+	private final int k;
+	private final int[] ids;
+	private final double[] scores;
+	private int size;
+
+	/**
+	 * @param k
+	 *            maximum number of pairs to keep
+	 */
+	public TopKHeap(int k) {
+		this.k = k;
+		ids = new int[k];
+		scores = new double[k];
+	}
+
+	/**
+	 * remove all pairs, so that the heap can be reused
+	 */
+	public void clear() {
+		size = 0;
+	}
+
+	/**
+	 * @return number of pairs kept, at most k
+	 */
+	public int size() {
+		return size;
+	}
+
+	/**
+	 * @return maximum number of pairs to keep
+	 */
+	public int capacity() {
+		return k;
+	}
+
+	/**
+	 * Offer a candidate; it is kept if the heap is not full or if it ranks before the lowest pair kept so far
+	 *
+	 * @return true if the candidate is kept
+	 */
+	public boolean offer(int id, double score) {
+		if (Double.isNaN(score))
+			return false;
+
+		if (size < k) {
+			ids[size] = id;
+			scores[size] = score;
+			siftUp(size++);
+			return true;
+		}
+
+		if (k == 0 || !before(id, score, ids[0], scores[0]))
+			return false;
+
+		ids[0] = id;
+		scores[0] = score;
+		siftDown(0, size);
+		return true;
+	}
+
+	/**
+	 * Order the kept pairs from the highest score to the lowest, in place. After sorting, {@link #id(int)} and
+	 * {@link #score(int)} return the pairs by rank, and the heap must be cleared before offering again.
+	 */
+	public void sort() {
+		for (int n = size - 1; n > 0; n--) {
+			// move the lowest remaining pair to the end
+			swap(0, n);
+			siftDown(0, n);
+		}
+	}
+
+	/**
+	 * @return id at a given position, i.e., its rank once the heap is sorted
+	 */
+	public int id(int i) {
+		return ids[i];
+	}
+
+	/**
+	 * @return score at a given position, i.e., its rank once the heap is sorted
+	 */
+	public double score(int i) {
+		return scores[i];
+	}
+
+	/**
+	 * @return whether pair a ranks before pair b
+	 */
+	private static boolean before(int ida, double sa, int idb, double sb) {
+		return sa > sb || (sa == sb && ida < idb);
+	}
+
+	private void siftUp(int i) {
+		while (i > 0) {
+			int parent = (i - 1) >>> 1;
+			if (!before(ids[parent], scores[parent], ids[i], scores[i]))
+				break;
+			swap(i, parent);
+			i = parent;
+		}
+	}
+
+	private void siftDown(int i, int n) {
+		while (true) {
+			int child = 2 * i + 1;
+			if (child >= n)
+				break;
+			// the child ranked last
+			if (child + 1 < n && before(ids[child], scores[child], ids[child + 1], scores[child + 1]))
+				child++;
+			if (!before(ids[i], scores[i], ids[child], scores[child]))
+				break;
+			swap(i, child);
+			i = child;
+		}
+	}
+
+	private void swap(int i, int j) {
+		int id = ids[i];
+		ids[i] = ids[j];
+		ids[j] = id;
+
+		double score = scores[i];
+		scores[i] = scores[j];
+		scores[j] = score;
+	}
+
+}
@@ -2,13 +2,12 @@ package service;
 
 import librec.data.DataDAO;
 import librec.data.Movie;
+import librec.data.NeighborIndex;
 import librec.data.SimiMovie;
-import librec.data.SparseMatrix;
-import librec.main.LibRec;
+import librec.data.TopNIndex;
 import librec.util.FileIO;
-import librec.util.Lists;
-import librec.util.Sims;
 import lombok.extern.slf4j.Slf4j;
+import org.neo4j.graphdb.GraphDatabaseService;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 import org.springframework.beans.factory.annotation.Autowired;
@@ -19,8 +18,14 @@ import org.springframework.boot.autoconfigure.SpringBootApplication;
 import org.springframework.cloud.netflix.zuul.EnableZuulProxy;
 import org.springframework.context.annotation.Bean;
 import org.springframework.context.annotation.ComponentScan;
+import org.springframework.core.io.ClassPathResource;
+import org.springframework.core.io.Resource;
+import org.springframework.data.neo4j.rest.SpringCypherRestGraphDatabase;
 import org.springframework.data.rest.webmvc.config.RepositoryRestMvcConfiguration;
 import org.springframework.hateoas.hal.Jackson2HalModule;
+import org.springframework.http.HttpStatus;
+import org.springframework.http.ResponseEntity;
+import org.springframework.web.bind.annotation.RequestBody;
 import org.springframework.web.bind.annotation.RequestMapping;
 import org.springframework.web.bind.annotation.RequestMethod;
 import org.springframework.web.bind.annotation.RequestParam;
@@ -28,29 +33,32 @@ import org.springframework.web.bind.annotation.RestController;
 import service.config.GraphDatabaseConfiguration;
 import service.data.domain.entity.Product;
 import service.data.domain.entity.User;
+import service.data.importer.RatingImporter;
+import service.model.ModelLifecycle;
 
 import javax.annotation.PostConstruct;
-import java.util.AbstractMap;
+import java.io.InputStream;
 import java.util.ArrayList;
 import java.util.List;
-import java.util.Map;
-
-import static librec.intf.Recommender.rateDao;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
 
 @SpringBootApplication
-@ComponentScan({ "service.data", "service.config", "librec"})
+@ComponentScan({ "service.data", "service.config", "service.model", "librec"})
 @EnableZuulProxy
 @Slf4j
 @RestController
 public class Application {
 
-    private static SparseMatrix trainMatrix;
-    private static DataDAO dataDAO;
     final Logger logger = LoggerFactory.getLogger(Application.class);
 
     @Autowired
     RepositoryRestMvcConfiguration restConfiguration;
 
+    // trains or loads the recommendation model in the background
+    @Autowired
+    ModelLifecycle modelLifecycle;
+
     // Used to bootstrap the Neo4j database with demo data
     @Value("${aws.s3.url}")
     String datasetUrl;
@@ -60,42 +68,135 @@ public class Application {
 
     public static void main(String[] args) throws Exception {
 
-        // run algorithm
-        LibRec librec = new LibRec();
-        librec.setConfigFiles("static/demo/config/WRMF.conf");
-        trainMatrix = librec.execute(args);
-        dataDAO = librec.getRateDao();
-//        librec.run();
-
         System.setProperty("org.neo4j.rest.read_timeout", "250");
         SpringApplication.run(Application.class, args);
 
     }
+    /**
+     * @param id raw user id
+     * @return comma-separated raw ids of the top-N movies recommended to the user, or an empty string if the user is
+     * unknown or no model has been built yet
+     */
+    @RequestMapping(value = "/getRecommendations", method = RequestMethod.GET)
+    public String getRecommendations(@RequestParam(value = "id") String id) {
+        ModelLifecycle.Model model = modelLifecycle.current();
+        if (model == null)
+            return "";
+
+        DataDAO rateDao = model.getRateDao();
+        TopNIndex index = model.getTopNIndex();
+        Integer u = rateDao.getUserIds().get(id);
+        if (index == null || u == null)
+            return "";
+
+        StringBuilder sb = new StringBuilder();
+        for (int item : index.getItems(u)) {
+            if (sb.length() > 0)
+                sb.append(',');
+            sb.append(rateDao.getItemId(item));
+        }
+        return sb.toString();
+    }
+
+    /**
+     * @param id raw movie id
+     * @return comma-separated raw ids of the movies most similar to the given one (by Jaccard's coefficient of their
+     * raters), or an empty string if the movie is unknown or no model has been built yet
+     */
     @RequestMapping(value = "/getSimilarMovies", method = RequestMethod.GET)
     public String getSimilarMovies(@RequestParam(value = "id") String id)throws Exception{
-        int numTopNRanks = 10;
-        int itemIdx = rateDao.getItemId(id);
-        String str = "";
-        List<Map.Entry<Integer, Double>> itemScores = new ArrayList<>();
-        List<Integer> rankedItems = new ArrayList<>(itemScores.size());
-        for (int u = 0,um = trainMatrix.numColumns();u<um;u++){
-            if(u!=itemIdx){
-                double score = Sims.jaccard(trainMatrix.getColumns(u),trainMatrix.getColumns(itemIdx));
-                itemScores.add(new AbstractMap.SimpleImmutableEntry<Integer,Double>(u,score));
-            }
+        ModelLifecycle.Model model = modelLifecycle.current();
+        if (model == null)
+            return "";
+
+        DataDAO rateDao = model.getRateDao();
+        NeighborIndex index = model.getSimilarMovies();
+        Integer itemIdx = rateDao.getItemIds().get(id);
+        if (itemIdx == null)
+            return "";
+
+        StringBuilder sb = new StringBuilder();
+        for (int i = 0; i < index.size(itemIdx); i++) {
+            if (i > 0)
+                sb.append(',');
+            sb.append(rateDao.getItemId(index.neighbor(itemIdx, i)));
         }
-        itemScores = Lists.sortListTopK(itemScores, true, numTopNRanks);
-        for (Map.Entry<Integer, Double> kv : itemScores) {
-            Integer item = kv.getKey();
-            rankedItems.add(item);
+        return sb.toString();
+    }
+
+    /**
+     * Build a new model in the background; the current one is served until the new one is ready
+     *
+     * @return "building"
+     */
+    @RequestMapping(value = "/reloadModel", method = RequestMethod.POST)
+    public String reloadModel() {
+        modelLifecycle.rebuild();
+        return "building";
+    }
+
+    /**
+     * Fold new ratings into the current model without training it again, and refresh the top-N movies of the rating
+     * users; unknown users and movies are added to the model
+     *
+     * @param ratings      one {@code userId,movieId,rating} line per rating, as in the rating data; further columns,
+     *                     e.g., timestamps, are ignored, and so are blank lines
+     * @param updateMovies whether to also update the factors of the rated movies
+     * @return once folded in, asynchronously, the number of ratings folded in; or 400 and the number of the first
+     * malformed line, or 503 if there is no model to fold the ratings into yet
+     */
+    @RequestMapping(value = "/foldIn", method = RequestMethod.POST)
+    public CompletableFuture<ResponseEntity<String>> foldIn(@RequestBody String ratings,
+                                                            @RequestParam(value = "updateMovies",
+                                                                    defaultValue = "false") boolean updateMovies) {
+        List<String> users = new ArrayList<>(), movies = new ArrayList<>();
+        List<Double> rates = new ArrayList<>();
+        String[] lines = ratings.split("\\r?\\n");
+        for (int n = 0; n < lines.length; n++) {
+            String line = lines[n].trim();
+            if (line.isEmpty())
+                continue;
+
+            String[] data = line.split("[ \t,]+");
+            double rate = data.length >= 3 ? parseRating(data[2]) : Double.NaN;
+            if (Double.isNaN(rate))
+                return CompletableFuture.completedFuture(new ResponseEntity<>("Line " + (n + 1) +
+                        " is not a userId,movieId,rating line: " + line, HttpStatus.BAD_REQUEST));
+            users.add(data[0]);
+            movies.add(data[1]);
+            rates.add(rate);
         }
-        int i;
-        for (i = 0; i < rankedItems.size()-1 && i<9; i++) {
 
-            str+=rateDao.getItemId(rankedItems.get(i))+",";
+        if (modelLifecycle.current() == null)
+            return CompletableFuture.completedFuture(new ResponseEntity<>("No model has been built yet",
+                    HttpStatus.SERVICE_UNAVAILABLE));
+
+        double[] values = new double[rates.size()];
+        for (int k = 0; k < values.length; k++)
+            values[k] = rates.get(k);
+        // answered by the model lifecycle thread, once the ratings are folded in, instead of holding this one
+        return modelLifecycle.foldIn(users.toArray(new String[0]), movies.toArray(new String[0]), values, updateMovies)
+                .handle((model, e) -> {
+                    if (e == null)
+                        return new ResponseEntity<>(String.valueOf(values.length), HttpStatus.OK);
+                    Throwable cause = e instanceof CompletionException && e.getCause() != null ? e.getCause() : e;
+                    // no model that ratings can be folded into, e.g., one that is not a WRMF model
+                    if (cause instanceof IllegalStateException)
+                        return new ResponseEntity<>(cause.getMessage(), HttpStatus.SERVICE_UNAVAILABLE);
+                    return new ResponseEntity<>("Fold-in failed: " + cause, HttpStatus.INTERNAL_SERVER_ERROR);
+                });
+    }
+
+    /**
+     * @return a finite rating, or NaN if the value is not one
+     */
+    private static double parseRating(String value) {
+        try {
+            double rate = Double.parseDouble(value);
+            return Double.isInfinite(rate) ? Double.NaN : rate;
+        } catch (NumberFormatException e) {
+            return Double.NaN;
         }
-        str+=rateDao.getItemId(rankedItems.get(i));
-        return str;
     }
 
     @PostConstruct
@@ -127,6 +228,17 @@ public class Application {
                 graphDatabaseConfiguration.neo4jTemplate().query("CREATE INDEX ON :Product(id)", null).finish();
                 logger.info("Importing ratings data...");
 
+                GraphDatabaseService graphDatabaseService = graphDatabaseConfiguration.getGraphDatabaseService();
+                Resource ratings = new ClassPathResource("static/result.csv");
+                if (!(graphDatabaseService instanceof SpringCypherRestGraphDatabase) && ratings.exists()) {
+                    // Bulk import the bundled ratings straight into the embedded database
+                    try (InputStream csv = ratings.getInputStream()) {
+                        RatingImporter.ImportStats stats = new RatingImporter(graphDatabaseService).importRatings(csv);
+                        logger.info("Import complete: {}", stats);
+                    }
+                    return;
+                }
+
                 // Import graph data for movie ratings
                 String userImport = String.format("USING PERIODIC COMMIT 20000\n" +
                         "LOAD CSV WITH HEADERS FROM \"%s/result.csv\" AS csvLine\n" +
@@ -0,0 +1,492 @@
+package service.data.importer;
+
+import org.neo4j.graphdb.Direction;
+import org.neo4j.graphdb.DynamicLabel;
+import org.neo4j.graphdb.DynamicRelationshipType;
+import org.neo4j.graphdb.GraphDatabaseService;
+import org.neo4j.graphdb.Label;
+import org.neo4j.graphdb.Node;
+import org.neo4j.graphdb.Relationship;
+import org.neo4j.graphdb.RelationshipType;
+import org.neo4j.graphdb.ResourceIterator;
+import org.neo4j.graphdb.Transaction;
+import org.neo4j.kernel.DeadlockDetectedException;
+import org.neo4j.tooling.GlobalGraphOperations;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.io.BufferedReader;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InputStreamReader;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Bulk import of a {@code userId,movieId,rating[,timestamp]} CSV file into an embedded graph database, creating the
+ * same User and Product nodes and Rating relationships as the {@code LOAD CSV ... MERGE} bootstrap query, without
+ * its per-row MERGE lookups.
+ *
+ * The file is parsed into primitive columns, and users, products and (user, product) pairs are deduplicated with
+ * primitive hash indexes; the first rating of a pair wins, as with {@code MERGE ... ON CREATE}. Nodes that do not
+ * exist yet are created in batched transactions, then ratings are written by parallel batched transactions. Each
+ * batch holds all the ratings of its users, and creates them in product order, so that concurrent batches never wait
+ * on each other's locks in a cycle. Ratings already in the graph are skipped, so the import can run multiple times.
+ */
+public class RatingImporter {
+
+    private static final Logger log = LoggerFactory.getLogger(RatingImporter.class);
+
+    private static final Label USER = DynamicLabel.label("User");
+    private static final Label USER_TYPE = DynamicLabel.label("_User");
+    private static final Label PRODUCT = DynamicLabel.label("Product");
+    private static final Label PRODUCT_TYPE = DynamicLabel.label("_Product");
+    private static final RelationshipType RATING = DynamicRelationshipType.withName("Rating");
+
+    // attempts of a batch that lost a deadlock, e.g. with a concurrent writer of the graph
+    private static final int MAX_ATTEMPTS = 3;
+
+    private final GraphDatabaseService graphDatabaseService;
+
+    private int batchSize = 20000;
+    private int threads = Runtime.getRuntime().availableProcessors();
+
+    public RatingImporter(GraphDatabaseService graphDatabaseService) {
+        this.graphDatabaseService = graphDatabaseService;
+    }
+
+    /**
+     * @param batchSize number of nodes or ratings written per transaction
+     */
+    public RatingImporter setBatchSize(int batchSize) {
+        this.batchSize = batchSize;
+        return this;
+    }
+
+    /**
+     * @param threads number of concurrent transactions writing ratings
+     */
+    public RatingImporter setThreads(int threads) {
+        this.threads = threads;
+        return this;
+    }
+
+    /**
+     * Import the ratings of a CSV file with a header line naming at least the {@code userId}, {@code movieId} and
+     * {@code rating} columns
+     */
+    public ImportStats importRatings(InputStream csv) throws IOException {
+        ImportStats stats = new ImportStats();
+        long start = System.currentTimeMillis();
+
+        Columns columns = parse(csv, stats);
+        stats.parseMillis = System.currentTimeMillis() - start;
+        log.info("Parsed {} ratings ({} duplicates) of {} users and {} products in {} ms", columns.size,
+                stats.duplicates, columns.users.size(), columns.products.size(), stats.parseMillis);
+
+        start = System.currentTimeMillis();
+        long[] userNodes = createNodes(columns.users, USER, USER_TYPE, "User", "data.domain.nodes.User", stats);
+        long[] productNodes = createNodes(columns.products, PRODUCT, PRODUCT_TYPE, "Product",
+                "data.domain.nodes.Product", stats);
+        stats.nodeMillis = System.currentTimeMillis() - start;
+        log.info("Created {} users and {} products in {} ms", stats.usersCreated, stats.productsCreated,
+                stats.nodeMillis);
+
+        start = System.currentTimeMillis();
+        createRatings(columns, userNodes, productNodes, stats);
+        stats.ratingMillis = System.currentTimeMillis() - start;
+        log.info("Created {} ratings ({} already in the graph) in {} ms", stats.ratingsCreated.get(),
+                stats.ratingsExisting, stats.ratingMillis);
+
+        return stats;
+    }
+
+    /**
+     * Parse the ratings into primitive columns, keeping the first rating of each (user, product) pair
+     */
+    private Columns parse(InputStream csv, ImportStats stats) throws IOException {
+        BufferedReader reader = new BufferedReader(new InputStreamReader(csv, StandardCharsets.UTF_8), 1 << 16);
+        String header = reader.readLine();
+        if (header == null)
+            throw new IOException("Missing CSV header");
+
+        List<String> names = Arrays.asList(header.trim().split(","));
+        int userColumn = names.indexOf("userId"), productColumn = names.indexOf("movieId");
+        int ratingColumn = names.indexOf("rating"), timestampColumn = names.indexOf("timestamp");
+        if (userColumn < 0 || productColumn < 0 || ratingColumn < 0)
+            throw new IOException("CSV header must name the userId, movieId and rating columns: " + header);
+
+        Columns columns = new Columns(timestampColumn >= 0);
+        LongIndex pairs = new LongIndex();
+        String[] fields = new String[names.size()];
+        String line;
+        while ((line = reader.readLine()) != null) {
+            if (line.isEmpty())
+                continue;
+            split(line, fields);
+            stats.rows++;
+
+            int user = columns.users.add(Long.parseLong(fields[userColumn]));
+            int product = columns.products.add(Long.parseLong(fields[productColumn]));
+            int numPairs = pairs.size();
+            if (pairs.add((long) user << 32 | product) < numPairs) {
+                stats.duplicates++;
+                continue;
+            }
+
+            columns.add(user, product, (long) Double.parseDouble(fields[ratingColumn]),
+                    timestampColumn >= 0 ? Long.parseLong(fields[timestampColumn]) : 0);
+        }
+        return columns;
+    }
+
+    private static void split(String line, String[] fields) {
+        int from = 0;
+        for (int i = 0; i < fields.length; i++) {
+            int to = line.indexOf(',', from);
+            if (to < 0)
+                to = line.length();
+            fields[i] = line.substring(from, Math.min(to, line.length())).trim();
+            from = Math.min(to + 1, line.length());
+        }
+    }
+
+    /**
+     * @return graph node ids of the keys of an index, creating the nodes that do not exist yet
+     */
+    private long[] createNodes(LongIndex ids, Label label, Label typeLabel, String type, String className,
+                               ImportStats stats) {
+        long[] nodes = new long[ids.size()];
+        Arrays.fill(nodes, -1);
+
+        try (Transaction tx = graphDatabaseService.beginTx();
+             ResourceIterator<Node> existing = GlobalGraphOperations.at(graphDatabaseService)
+                     .getAllNodesWithLabel(label).iterator()) {
+            while (existing.hasNext()) {
+                Node node = existing.next();
+                Object id = node.getProperty("id", null);
+                int k = id instanceof Number ? ids.indexOf(((Number) id).longValue()) : -1;
+                if (k >= 0)
+                    nodes[k] = node.getId();
+            }
+            tx.success();
+        }
+
+        for (int from = 0; from < nodes.length; from += batchSize) {
+            try (Transaction tx = graphDatabaseService.beginTx()) {
+                for (int k = from; k < Math.min(from + batchSize, nodes.length); k++) {
+                    if (nodes[k] >= 0)
+                        continue;
+
+                    Node node = graphDatabaseService.createNode(label, typeLabel);
+                    node.setProperty("id", ids.key(k));
+                    node.setProperty("__type__", type);
+                    node.setProperty("className", className);
+                    node.setProperty("knownId", String.valueOf(ids.key(k)));
+                    nodes[k] = node.getId();
+
+                    if (label == USER)
+                        stats.usersCreated++;
+                    else
+                        stats.productsCreated++;
+                }
+                tx.success();
+            }
+        }
+        return nodes;
+    }
+
+    private void createRatings(Columns columns, long[] userNodes, long[] productNodes, ImportStats stats) {
+        boolean[] existing = findExistingRatings(columns, userNodes, productNodes);
+        for (boolean e : existing) {
+            if (e)
+                stats.ratingsExisting++;
+        }
+
+        // group the ratings by user with a counting sort
+        int numUsers = userNodes.length;
+        int[] userPtr = new int[numUsers + 1];
+        for (int i = 0; i < columns.size; i++)
+            userPtr[columns.userOf[i] + 1]++;
+        for (int u = 0; u < numUsers; u++)
+            userPtr[u + 1] += userPtr[u];
+        int[] rows = new int[columns.size];
+        int[] next = Arrays.copyOf(userPtr, numUsers);
+        for (int i = 0; i < columns.size; i++)
+            rows[next[columns.userOf[i]]++] = i;
+
+        // batches of whole users, so that a user node is only ever locked by one transaction
+        List<int[]> batches = new ArrayList<>();
+        for (int u = 0, from = 0; u < numUsers; u++) {
+            if (userPtr[u + 1] - userPtr[from] >= batchSize || u == numUsers - 1) {
+                batches.add(new int[] { userPtr[from], userPtr[u + 1] });
+                from = u + 1;
+            }
+        }
+
+        long total = columns.size - stats.ratingsExisting;
+        AtomicLong done = new AtomicLong();
+        long start = System.currentTimeMillis();
+
+        ExecutorService executor = Executors.newFixedThreadPool(Math.max(1, threads));
+        try {
+            List<Future<?>> futures = new ArrayList<>(batches.size());
+            for (int[] batch : batches) {
+                futures.add(executor.submit(() -> {
+                    int created = writeBatch(columns, rows, batch[0], batch[1], existing, userNodes, productNodes);
+                    stats.ratingsCreated.addAndGet(created);
+
+                    long count = done.addAndGet(created);
+                    long millis = Math.max(1, System.currentTimeMillis() - start);
+                    log.info("Imported {}/{} ratings ({} ratings/s)", count, total, count * 1000 / millis);
+                }));
+            }
+            for (Future<?> future : futures)
+                future.get();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new IllegalStateException("Rating import interrupted", e);
+        } catch (ExecutionException e) {
+            throw new IllegalStateException("Rating import failed", e.getCause());
+        } finally {
+            executor.shutdownNow();
+        }
+    }
+
+    /**
+     * Create the ratings of a batch of rows in one transaction, retrying it if it loses a deadlock
+     *
+     * @return number of ratings created
+     */
+    private int writeBatch(Columns columns, int[] rows, int from, int to, boolean[] existing, long[] userNodes,
+                           long[] productNodes) {
+        // lock products in a global order, so that concurrent batches cannot deadlock on them
+        long[] order = new long[to - from];
+        int size = 0;
+        for (int k = from; k < to; k++) {
+            int i = rows[k];
+            if (!existing[i])
+                order[size++] = (long) columns.productOf[i] << 32 | i;
+        }
+        Arrays.sort(order, 0, size);
+
+        for (int attempt = 1; ; attempt++) {
+            try (Transaction tx = graphDatabaseService.beginTx()) {
+                for (int k = 0; k < size; k++) {
+                    int i = (int) order[k];
+                    Node user = graphDatabaseService.getNodeById(userNodes[columns.userOf[i]]);
+                    Node product = graphDatabaseService.getNodeById(productNodes[columns.productOf[i]]);
+                    long userId = columns.users.key(columns.userOf[i]);
+                    long productId = columns.products.key(columns.productOf[i]);
+
+                    Relationship rating = user.createRelationshipTo(product, RATING);
+                    if (columns.timestamps != null)
+                        rating.setProperty("timestamp", columns.timestamps[i]);
+                    rating.setProperty("rating", columns.ratings[i]);
+                    rating.setProperty("knownId", userId + "_" + productId);
+                    rating.setProperty("__type__", "Rating");
+                    rating.setProperty("className", "data.domain.rels.Rating");
+                }
+                tx.success();
+                return size;
+            } catch (DeadlockDetectedException e) {
+                if (attempt == MAX_ATTEMPTS)
+                    throw e;
+                log.warn("Retrying a batch of {} ratings after a deadlock", size);
+            }
+        }
+    }
+
+    /**
+     * @return for each row, whether its user already rated its product in the graph, e.g. by an earlier import
+     */
+    private boolean[] findExistingRatings(Columns columns, long[] userNodes, long[] productNodes) {
+        boolean[] existing = new boolean[columns.size];
+        LongIndex rated = new LongIndex();
+
+        try (Transaction tx = graphDatabaseService.beginTx()) {
+            LongIndex products = new LongIndex();
+            for (long node : productNodes)
+                products.add(node);
+
+            boolean[] seen = new boolean[userNodes.length];
+            for (int i = 0; i < columns.size; i++) {
+                int u = columns.userOf[i];
+                if (seen[u])
+                    continue;
+                seen[u] = true;
+
+                for (Relationship r : graphDatabaseService.getNodeById(userNodes[u])
+                        .getRelationships(Direction.OUTGOING, RATING)) {
+                    int p = products.indexOf(r.getEndNode().getId());
+                    if (p >= 0)
+                        rated.add((long) u << 32 | p);
+                }
+            }
+            tx.success();
+        }
+
+        if (rated.size() > 0) {
+            for (int i = 0; i < columns.size; i++)
+                existing[i] = rated.indexOf((long) columns.userOf[i] << 32 | columns.productOf[i]) >= 0;
+        }
+        return existing;
+    }
+
+    /**
+     * Counters and phase timings of an import
+     */
+    public static class ImportStats {
+        long rows, duplicates;
+        long usersCreated, productsCreated;
+        long ratingsExisting;
+        final AtomicLong ratingsCreated = new AtomicLong();
+        long parseMillis, nodeMillis, ratingMillis;
+
+        public long getRows() {
+            return rows;
+        }
+
+        public long getDuplicates() {
+            return duplicates;
+        }
+
+        public long getUsersCreated() {
+            return usersCreated;
+        }
+
+        public long getProductsCreated() {
+            return productsCreated;
+        }
+
+        public long getRatingsExisting() {
+            return ratingsExisting;
+        }
+
+        public long getRatingsCreated() {
+            return ratingsCreated.get();
+        }
+
+        public long getMillis() {
+            return parseMillis + nodeMillis + ratingMillis;
+        }
+
+        @Override
+        public String toString() {
+            return "ImportStats{" +
+                    "rows=" + rows +
+                    ", duplicates=" + duplicates +
+                    ", usersCreated=" + usersCreated +
+                    ", productsCreated=" + productsCreated +
+                    ", ratingsExisting=" + ratingsExisting +
+                    ", ratingsCreated=" + ratingsCreated +
+                    ", parseMillis=" + parseMillis +
+                    ", nodeMillis=" + nodeMillis +
+                    ", ratingMillis=" + ratingMillis +
+                    '}';
+        }
+    }
+
+    /**
+     * Deduplicated ratings, as dense user and product indexes with their rating and timestamp
+     */
+    private static final class Columns {
+        final LongIndex users = new LongIndex();
+        final LongIndex products = new LongIndex();
+
+        int[] userOf = new int[1024];
+        int[] productOf = new int[1024];
+        long[] ratings = new long[1024];
+        long[] timestamps;
+        int size;
+
+        Columns(boolean hasTimestamps) {
+            if (hasTimestamps)
+                timestamps = new long[1024];
+        }
+
+        void add(int user, int product, long rating, long timestamp) {
+            if (size == userOf.length) {
+                int capacity = size + (size >> 1);
+                userOf = Arrays.copyOf(userOf, capacity);
+                productOf = Arrays.copyOf(productOf, capacity);
+                ratings = Arrays.copyOf(ratings, capacity);
+                if (timestamps != null)
+                    timestamps = Arrays.copyOf(timestamps, capacity);
+            }
+            userOf[size] = user;
+            productOf[size] = product;
+            ratings[size] = rating;
+            if (timestamps != null)
+                timestamps[size] = timestamp;
+            size++;
+        }
+    }
+
+    /**
+     * Open-addressing index of distinct long keys, numbered densely in insertion order
+     */
+    private static final class LongIndex {
+        private long[] keys = new long[16];
+        private int[] table = new int[32]; // key number + 1, 0 if empty
+        private int size;
+
+        /**
+         * @return number of a key, adding it if new
+         */
+        int add(long key) {
+            int slot = slot(key);
+            if (table[slot] != 0)
+                return table[slot] - 1;
+
+            if (size == keys.length)
+                keys = Arrays.copyOf(keys, 2 * size);
+            keys[size] = key;
+            table[slot] = ++size;
+            if (2 * size > table.length)
+                rehash();
+            return size - 1;
+        }
+
+        /**
+         * @return number of a key, or -1 if absent
+         */
+        int indexOf(long key) {
+            return table[slot(key)] - 1;
+        }
+
+        long key(int index) {
+            return keys[index];
+        }
+
+        int size() {
+            return size;
+        }
+
+        private int slot(long key) {
+            int mask = table.length - 1;
+            int slot = hash(key) & mask;
+            while (table[slot] != 0 && keys[table[slot] - 1] != key)
+                slot = (slot + 1) & mask;
+            return slot;
+        }
+
+        private void rehash() {
+            table = new int[2 * table.length];
+            for (int k = 0; k < size; k++)
+                table[slot(keys[k])] = k + 1;
+        }
+
+        private static int hash(long key) {
+            long h = key * 0x9E3779B97F4A7C15L;
+            return (int) (h ^ (h >>> 32));
+        }
+    }
+}
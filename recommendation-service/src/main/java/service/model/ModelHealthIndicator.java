@@ -0,0 +1,35 @@
+package service.model;
+
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.boot.actuate.health.AbstractHealthIndicator;
+import org.springframework.boot.actuate.health.Health;
+import org.springframework.stereotype.Component;
+
+/**
+ * Reports the recommendation model as the "model" entry of the actuator health endpoint: out of service until the
+ * first model is published, up afterwards, including while a new model is being built.
+ */
+@Component
+public class ModelHealthIndicator extends AbstractHealthIndicator {
+
+    @Autowired
+    ModelLifecycle modelLifecycle;
+
+    @Override
+    protected void doHealthCheck(Health.Builder builder) throws Exception {
+        ModelLifecycle.Model model = modelLifecycle.current();
+        if (model == null)
+            builder.outOfService();
+        else
+            builder.up()
+                    .withDetail("users", model.getNumUsers())
+                    .withDetail("items", model.getNumMovies())
+                    .withDetail("builtAt", model.getBuiltAt())
+                    .withDetail("buildTime", model.getBuildTime());
+
+        builder.withDetail("building", modelLifecycle.isBuilding());
+        Throwable error = modelLifecycle.getLastError();
+        if (error != null)
+            builder.withDetail("lastError", String.valueOf(error.getMessage()));
+    }
+}
@@ -0,0 +1,420 @@
+package service.model;
+
+import com.google.common.collect.BiMap;
+import com.google.common.collect.HashBiMap;
+import librec.data.DataDAO;
+import librec.data.NeighborIndex;
+import librec.data.SparseMatrix;
+import librec.data.TopNIndex;
+import librec.intf.Recommender;
+import librec.main.LibRec;
+import librec.ranking.WRMF;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Component;
+
+import javax.annotation.PostConstruct;
+import javax.annotation.PreDestroy;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.atomic.AtomicReference;
+
+/**
+ * Builds the recommendation model in the background and publishes it for the web tier.
+ *
+ * The first build starts with the application context, so the service accepts requests right away and answers them
+ * once a model is ready. A build loads the rating data, then trains a model, and finally builds the indexes served by
+ * the endpoints. Only the first build may load a snapshot instead of training (see the {@code --load-model} output
+ * option of the LibRec configuration), and only one saved for the same rating data and model options; later builds,
+ * which are asked for to learn from new ratings, always train. Builds run one at a time, since LibRec keeps its
+ * settings in static fields; requests keep being served by the last good model until a new one replaces it. New
+ * ratings can be folded into the current model between builds, and are folded into every model built afterwards.
+ */
+@Component
+public class ModelLifecycle {
+
+    private static final Logger logger = LoggerFactory.getLogger(ModelLifecycle.class);
+
+    private static final int NUM_SIMILAR_MOVIES = 10;
+
+    /**
+     * An immutable, fully built model
+     */
+    public static class Model {
+        private final Recommender recommender;
+        private final DataDAO rateDao;
+        private final int numUsers, numMovies;
+        private final TopNIndex topNIndex;
+        private final NeighborIndex similarMovies;
+        private final long builtAt, buildTime;
+
+        Model(Recommender recommender, DataDAO rateDao, TopNIndex topNIndex, NeighborIndex similarMovies, long builtAt,
+              long buildTime) {
+            this.recommender = recommender;
+            this.rateDao = rateDao;
+            this.numUsers = rateDao.numUsers();
+            this.numMovies = rateDao.numItems();
+            this.topNIndex = topNIndex;
+            this.similarMovies = similarMovies;
+            this.builtAt = builtAt;
+            this.buildTime = buildTime;
+        }
+
+        /**
+         * @return {raw id, inner id} maps of users and movies
+         */
+        public DataDAO getRateDao() {
+            return rateDao;
+        }
+
+        /**
+         * @return number of users of the model
+         */
+        public int getNumUsers() {
+            return numUsers;
+        }
+
+        /**
+         * @return number of movies of the model
+         */
+        public int getNumMovies() {
+            return numMovies;
+        }
+
+        /**
+         * @return top-N movies of every user
+         */
+        public TopNIndex getTopNIndex() {
+            return topNIndex;
+        }
+
+        /**
+         * @return the most similar movies of every movie
+         */
+        public NeighborIndex getSimilarMovies() {
+            return similarMovies;
+        }
+
+        /**
+         * @return time at which the model was published, in milliseconds since the epoch
+         */
+        public long getBuiltAt() {
+            return builtAt;
+        }
+
+        /**
+         * @return duration of the build, in milliseconds
+         */
+        public long getBuildTime() {
+            return buildTime;
+        }
+    }
+
+    /**
+     * Ratings posted to be folded in, and the fold-in that completes once they are
+     */
+    private static class PendingFoldIn {
+        final String[] userIds, movieIds;
+        final double[] ratings;
+        final boolean updateMovies;
+        final CompletableFuture<Model> result = new CompletableFuture<>();
+
+        PendingFoldIn(String[] userIds, String[] movieIds, double[] ratings, boolean updateMovies) {
+            this.userIds = userIds;
+            this.movieIds = movieIds;
+            this.ratings = ratings;
+            this.updateMovies = updateMovies;
+        }
+    }
+
+    @Value("${recommendation.config:static/demo/config/WRMF.conf}")
+    String configFile;
+
+    private final AtomicReference<Model> model = new AtomicReference<>();
+    // the build in progress, or the last one
+    private final AtomicReference<CompletableFuture<Model>> build = new AtomicReference<>();
+    private volatile Throwable lastError;
+
+    // fold-ins posted and not taken by a fold-in yet
+    private final List<PendingFoldIn> pending = new ArrayList<>();
+    // every rating folded in, by raw user id and raw movie id; only used by the model lifecycle thread
+    private final Map<String, Map<String, Double>> foldedIn = new LinkedHashMap<>();
+
+    private final ExecutorService executor = Executors.newSingleThreadExecutor(r -> {
+        Thread t = new Thread(r, "model-lifecycle");
+        t.setDaemon(true);
+        return t;
+    });
+
+    @PostConstruct
+    public void start() {
+        build(true);
+    }
+
+    @PreDestroy
+    public void stop() {
+        executor.shutdownNow();
+    }
+
+    /**
+     * @return the current model, or null if none has been built yet
+     */
+    public Model current() {
+        return model.get();
+    }
+
+    /**
+     * @return whether a build is in progress
+     */
+    public boolean isBuilding() {
+        CompletableFuture<Model> f = build.get();
+        return f != null && !f.isDone();
+    }
+
+    /**
+     * @return the error of the last failed build, or null if the last build succeeded
+     */
+    public Throwable getLastError() {
+        return lastError;
+    }
+
+    /**
+     * Start training a new model in the background, unless a build is already in progress
+     *
+     * @return the build in progress
+     */
+    public CompletableFuture<Model> rebuild() {
+        return build(false);
+    }
+
+    private synchronized CompletableFuture<Model> build(boolean isLoadAllowed) {
+        CompletableFuture<Model> f = build.get();
+        if (f != null && !f.isDone())
+            return f;
+
+        f = CompletableFuture.supplyAsync(() -> {
+            try {
+                Model m = replayFoldIns(buildModel(isLoadAllowed));
+                model.set(m);
+                lastError = null;
+                logger.info("Model published after {} ms", m.getBuildTime());
+                return m;
+            } catch (Exception e) {
+                lastError = e;
+                logger.error("Model build failed, still serving the previous model", e);
+                throw new IllegalStateException(e);
+            }
+        }, executor);
+        build.set(f);
+        return f;
+    }
+
+    /**
+     * Fold new ratings into the current model in the background, without training it again (see
+     * {@link WRMF#foldIn}): the rows of the rating users are solved again, and so are those of the rated movies if
+     * {@code updateMovies} is set, then a model with the new top-N of the rating users and the new similar movies of
+     * the rated movies is published. Unknown users and movies are added to the model.
+     * <p>
+     * Fold-ins and builds run one at a time, so ratings posted during a build are folded into the new model, and the
+     * ratings posted while the model is busy are folded in together, by one pass over the training data. The ratings
+     * are not written to the rating data: they are kept, and folded into every model built afterwards before it is
+     * published.
+     *
+     * @param userIds      raw user ids of the ratings
+     * @param movieIds     raw movie ids of the ratings
+     * @param ratings      the ratings, as in the rating data
+     * @param updateMovies whether to solve the rated movies again
+     * @return the fold-in, completing with the published model, or failing with an {@link IllegalStateException} if
+     * there is no model that ratings can be folded into
+     */
+    public CompletableFuture<Model> foldIn(String[] userIds, String[] movieIds, double[] ratings,
+                                           boolean updateMovies) {
+        PendingFoldIn foldIn = new PendingFoldIn(userIds, movieIds, ratings, updateMovies);
+        boolean isFirst;
+        synchronized (pending) {
+            isFirst = pending.isEmpty();
+            pending.add(foldIn);
+        }
+        // the later ones are taken by the fold-in of the first
+        if (isFirst)
+            executor.execute(this::foldInPending);
+        return foldIn.result;
+    }
+
+    /**
+     * fold the pending ratings into the current model, one fold-in per run of requests with the same
+     * {@code updateMovies}, on the model lifecycle thread
+     */
+    private void foldInPending() {
+        List<PendingFoldIn> batch;
+        synchronized (pending) {
+            batch = new ArrayList<>(pending);
+            pending.clear();
+        }
+
+        for (int from = 0, to; from < batch.size(); from = to) {
+            boolean updateMovies = batch.get(from).updateMovies;
+            int n = 0;
+            for (to = from; to < batch.size() && batch.get(to).updateMovies == updateMovies; to++)
+                n += batch.get(to).ratings.length;
+            List<PendingFoldIn> run = batch.subList(from, to);
+
+            Model m = model.get();
+            if (m == null || !(m.recommender instanceof WRMF)) {
+                for (PendingFoldIn p : run)
+                    p.result.completeExceptionally(new IllegalStateException("No model to fold ratings into"));
+                continue;
+            }
+
+            String[] userIds = new String[n], movieIds = new String[n];
+            double[] ratings = new double[n];
+            int k = 0;
+            for (PendingFoldIn p : run) {
+                System.arraycopy(p.userIds, 0, userIds, k, p.ratings.length);
+                System.arraycopy(p.movieIds, 0, movieIds, k, p.ratings.length);
+                System.arraycopy(p.ratings, 0, ratings, k, p.ratings.length);
+                k += p.ratings.length;
+            }
+
+            try {
+                Model folded = foldIn(m, userIds, movieIds, ratings, updateMovies);
+                model.set(folded);
+                for (k = 0; k < n; k++)
+                    foldedIn.computeIfAbsent(userIds[k], u -> new LinkedHashMap<>()).put(movieIds[k], ratings[k]);
+                logger.info("Folded {} ratings of {} requests into the model in {} ms", n, run.size(),
+                        folded.getBuildTime());
+                for (PendingFoldIn p : run)
+                    p.result.complete(folded);
+            } catch (Exception e) {
+                logger.error("Fold-in failed", e);
+                for (PendingFoldIn p : run)
+                    p.result.completeExceptionally(e);
+            }
+        }
+    }
+
+    /**
+     * @return the built model with all the ratings folded in so far, whose rated movies are solved again as well,
+     * since the movie factors of the model are trained without them
+     */
+    private Model replayFoldIns(Model m) throws Exception {
+        int n = 0;
+        for (Map<String, Double> rated : foldedIn.values())
+            n += rated.size();
+        if (n == 0)
+            return m;
+        if (!(m.recommender instanceof WRMF)) {
+            logger.warn("Dropping {} ratings folded in, the new model does not fold ratings in", n);
+            return m;
+        }
+
+        String[] userIds = new String[n], movieIds = new String[n];
+        double[] ratings = new double[n];
+        int k = 0;
+        for (Map.Entry<String, Map<String, Double>> user : foldedIn.entrySet()) {
+            for (Map.Entry<String, Double> rating : user.getValue().entrySet()) {
+                userIds[k] = user.getKey();
+                movieIds[k] = rating.getKey();
+                ratings[k++] = rating.getValue();
+            }
+        }
+
+        Model folded = foldIn(m, userIds, movieIds, ratings, true);
+        logger.info("Folded {} ratings into the new model in {} ms", n, folded.getBuildTime());
+        return new Model(folded.recommender, folded.rateDao, folded.topNIndex, folded.similarMovies, folded.builtAt,
+                m.buildTime + folded.buildTime);
+    }
+
+    private Model foldIn(Model m, String[] userIds, String[] movieIds, double[] ratings, boolean updateMovies)
+            throws Exception {
+        long start = System.currentTimeMillis();
+
+        // new users and movies get the next inner ids; the published id maps are left untouched
+        BiMap<String, Integer> users = HashBiMap.create(m.rateDao.getUserIds());
+        BiMap<String, Integer> items = HashBiMap.create(m.rateDao.getItemIds());
+        int[] us = new int[userIds.length], is = new int[movieIds.length];
+        for (int k = 0; k < us.length; k++) {
+            us[k] = innerId(users, userIds[k]);
+            is[k] = innerId(items, movieIds[k]);
+        }
+        DataDAO rateDao = m.rateDao.withIds(users, items);
+
+        // binarized and shifted as the rating data
+        double[] rates = new double[ratings.length];
+        for (int k = 0; k < rates.length; k++)
+            rates[k] = m.rateDao.scaleRating(ratings[k]);
+
+        // the published model is left as it is, whether the fold-in succeeds or not
+        WRMF folded = ((WRMF) m.recommender).foldIn(us, is, rates, updateMovies);
+        NeighborIndex similarMovies = foldIn(m.similarMovies, m.recommender.getTrainMatrix(),
+                folded.getTrainMatrix(), us, is);
+
+        long end = System.currentTimeMillis();
+        return new Model(folded, rateDao, folded.getTopNIndex(), similarMovies, end, end - start);
+    }
+
+    /**
+     * @return the similar movies of the folded training data: those of the movies whose raters have changed are
+     * built again, or those of all the movies if a rating has been removed, e.g., binarized to zero
+     */
+    private static NeighborIndex foldIn(NeighborIndex similarMovies, SparseMatrix before, SparseMatrix after,
+                                        int[] users, int[] movies) throws Exception {
+        int n = 0;
+        int[] addedUsers = new int[users.length], addedMovies = new int[movies.length];
+        for (int k = 0; k < users.length; k++) {
+            int u = users[k], j = movies[k];
+            boolean wasRated = u < before.numRows() && j < before.numColumns() && before.get(u, j) != 0;
+            boolean isRated = after.get(u, j) != 0;
+            if (wasRated && !isRated)
+                return NeighborIndex.jaccardOfColumns(after, NUM_SIMILAR_MOVIES, Recommender.getPool());
+            if (!wasRated && isRated) {
+                addedUsers[n] = u;
+                addedMovies[n++] = j;
+            }
+        }
+
+        if (n == 0 && after.numColumns() == similarMovies.numRows())
+            return similarMovies;
+        return NeighborIndex.jaccardOfColumns(similarMovies, after, Arrays.copyOf(addedUsers, n),
+                Arrays.copyOf(addedMovies, n), Recommender.getPool());
+    }
+
+    private static int innerId(BiMap<String, Integer> ids, String rawId) {
+        Integer id = ids.get(rawId);
+        if (id == null) {
+            id = ids.size();
+            ids.put(rawId, id);
+        }
+        return id;
+    }
+
+    private Model buildModel(boolean isLoadAllowed) throws Exception {
+        long start = System.currentTimeMillis();
+
+        // run algorithm
+        LibRec librec = new LibRec();
+        librec.setConfigFiles(configFile);
+        librec.setLoadAllowed(isLoadAllowed);
+        librec.execute(null);
+        // train or load the model, which also builds the top-N index
+        librec.run();
+
+        Recommender recommender = librec.getRecommender();
+        if (recommender == null)
+            throw new IllegalStateException("The configuration " + configFile + " does not learn a single model");
+        TopNIndex topNIndex = recommender.getTopNIndex();
+        // from the training data of the model, which fold-ins add ratings to
+        NeighborIndex similarMovies = NeighborIndex.jaccardOfColumns(recommender.getTrainMatrix(), NUM_SIMILAR_MOVIES,
+                Recommender.getPool());
+
+        long end = System.currentTimeMillis();
+        return new Model(recommender, librec.getRateDao(), topNIndex, similarMovies, end, end - start);
+    }
+}
@@ -0,0 +1,70 @@
+package librec.data;
+
+import org.openjdk.jmh.annotations.*;
+import org.openjdk.jmh.runner.Runner;
+import org.openjdk.jmh.runner.RunnerException;
+import org.openjdk.jmh.runner.options.Options;
+import org.openjdk.jmh.runner.options.OptionsBuilder;
+
+import java.io.BufferedWriter;
+import java.io.File;
+import java.io.FileWriter;
+import java.io.IOException;
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Startup cost of the recommendation service: {@link DataDAO#readData} on a synthetic MovieLens-like file of
+ * {@code user,item,rating,timestamp} lines grouped by user, with ratings from 0 to 4 so that the rating scale is shifted.
+ * The file is written to a temporary file once per trial, and deleted after it.
+ */
+@BenchmarkMode(Mode.SingleShotTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 3)
+@Measurement(iterations = 5)
+@Fork(value = 1, jvmArgsAppend = "-Xmx8g")
+@State(Scope.Benchmark)
+public class DataDAOBenchmark {
+
+    @Param({"1000000", "10000000"})
+    int numRatings;
+
+    // number of items of MovieLens-20M
+    private static final int numItems = 26744;
+    // average number of ratings per user
+    private static final int ratingsPerUser = 144;
+
+    private File file;
+
+    @Setup(Level.Trial)
+    public void setup() throws IOException {
+        file = File.createTempFile("synthetic-ratings-" + numRatings, ".csv");
+
+        Random r = new Random(1);
+        try (BufferedWriter bw = new BufferedWriter(new FileWriter(file), 1 << 16)) {
+            for (int n = 0, u = 0; n < numRatings; u++) {
+                for (int k = 1 + r.nextInt(2 * ratingsPerUser); k > 0 && n < numRatings; k--, n++) {
+                    // popular items are rated more often
+                    int j = (int) (numItems * Math.pow(r.nextDouble(), 3));
+                    bw.write(u + "," + j + "," + r.nextInt(5) + "," + (1000000000 + r.nextInt(100000000)));
+                    bw.newLine();
+                }
+            }
+        }
+    }
+
+    @TearDown(Level.Trial)
+    public void tearDown() {
+        file.delete();
+    }
+
+    @Benchmark
+    public SparseMatrix readData() throws Exception {
+        return new DataDAO(file.getPath()).readData(new int[]{0, 1, 2, 3}, -1)[0];
+    }
+
+    public static void main(String[] args) throws RunnerException {
+        Options opt = new OptionsBuilder().include(DataDAOBenchmark.class.getSimpleName()).build();
+        new Runner(opt).run();
+    }
+}
@@ -0,0 +1,117 @@
+package librec.data;
+
+import org.openjdk.jmh.annotations.*;
+import org.openjdk.jmh.runner.Runner;
+import org.openjdk.jmh.runner.RunnerException;
+import org.openjdk.jmh.runner.options.Options;
+import org.openjdk.jmh.runner.options.OptionsBuilder;
+
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Dense kernels at the sizes of the factor models: {@code P^T P} and {@code P (k x k)} for a users x factors matrix P,
+ * {@code Q^T} and the scores {@code P_b Q^T} of a block of 100 users against an items x factors matrix Q. Each kernel is
+ * compared against the entry-wise loops it replaced.
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 3)
+@Measurement(iterations = 5)
+@Fork(1)
+@State(Scope.Benchmark)
+public class DenseMatrixBenchmark {
+
+    @Param({"1000", "10000"})
+    int numUsers;
+
+    @Param({"10", "50", "100", "200"})
+    int numFactors;
+
+    // number of items of the bundled MovieLens ratings
+    private static final int numItems = 1682;
+
+    private DenseMatrix P, Q, K, Pb, Qt;
+
+    @Setup
+    public void setup() {
+        P = new DenseMatrix(numUsers, numFactors);
+        P.init(0.0, 0.1);
+        Q = new DenseMatrix(numItems, numFactors);
+        Q.init(0.0, 0.1);
+        K = new DenseMatrix(numFactors, numFactors);
+        K.init(0.0, 0.1);
+
+        Pb = new DenseMatrix(100, numFactors);
+        Pb.init(0.0, 0.1);
+        Qt = Q.transpose();
+    }
+
+    @Benchmark
+    public DenseMatrix transMult() {
+        return P.transMult();
+    }
+
+    @Benchmark
+    public DenseMatrix transMultEntrywise() {
+        DenseMatrix res = new DenseMatrix(P.numColumns, P.numColumns);
+        for (int i = 0; i < P.numColumns; i++)
+            for (int k = 0; k < P.numColumns; k++) {
+                double val = 0;
+                for (int j = 0; j < P.numRows; j++)
+                    val += P.get(j, i) * P.get(j, k);
+                res.set(i, k, val);
+            }
+        return res;
+    }
+
+    @Benchmark
+    public DenseMatrix multSquare() {
+        return P.mult(K);
+    }
+
+    @Benchmark
+    public DenseMatrix multSquareEntrywise() {
+        return multEntrywise(P, K);
+    }
+
+    @Benchmark
+    public DenseMatrix multScores() {
+        return Pb.mult(Qt);
+    }
+
+    @Benchmark
+    public DenseMatrix multScoresEntrywise() {
+        return multEntrywise(Pb, Qt);
+    }
+
+    @Benchmark
+    public DenseMatrix transpose() {
+        return P.transpose();
+    }
+
+    @Benchmark
+    public DenseMatrix transposeEntrywise() {
+        DenseMatrix res = new DenseMatrix(P.numColumns, P.numRows);
+        for (int i = 0; i < res.numRows; i++)
+            for (int j = 0; j < res.numColumns; j++)
+                res.set(i, j, P.data[j][i]);
+        return res;
+    }
+
+    private static DenseMatrix multEntrywise(DenseMatrix a, DenseMatrix b) {
+        DenseMatrix res = new DenseMatrix(a.numRows, b.numColumns);
+        for (int i = 0; i < res.numRows; i++)
+            for (int j = 0; j < res.numColumns; j++) {
+                double product = 0;
+                for (int k = 0; k < a.numColumns; k++)
+                    product += a.data[i][k] * b.data[k][j];
+                res.set(i, j, product);
+            }
+        return res;
+    }
+
+    public static void main(String[] args) throws RunnerException {
+        Options opt = new OptionsBuilder().include(DenseMatrixBenchmark.class.getSimpleName()).build();
+        new Runner(opt).run();
+    }
+}
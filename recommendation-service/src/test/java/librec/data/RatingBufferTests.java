@@ -0,0 +1,174 @@
+package librec.data;
+
+import org.junit.Test;
+
+import java.util.HashMap;
+import java.util.Map;
+import java.util.Random;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+/**
+ * Entries appended to a {@link RatingBuffer} against brute-force maps of the cells and of the distinct values
+ */
+public class RatingBufferTests {
+
+    @Test
+    public void lastEntryOfCellWins() {
+        RatingBuffer buffer = new RatingBuffer();
+        buffer.add(1, 2, 3, 100L);
+        buffer.add(0, 1, 4, 200L);
+        buffer.add(1, 2, 5, 300L);
+        buffer.add(1, 0, 1, 400L);
+        buffer.add(1, 2, 0, 500L);
+
+        assertEquals(5, buffer.size());
+        SparseMatrix rates = buffer.toRateMatrix(2, 3);
+        assertArrayEquals(new int[]{0, 1, 3}, rates.getRowPointers());
+        assertArrayEquals(new int[]{1, 0, 2}, rates.getColumnIndices());
+        assertArrayEquals(new double[]{4, 1, 0}, rates.getData(), 0);
+
+        SparseMatrix times = buffer.toTimeMatrix(2, 3);
+        assertArrayEquals(rates.getRowPointers(), times.getRowPointers());
+        assertArrayEquals(rates.getColumnIndices(), times.getColumnIndices());
+        assertArrayEquals(new double[]{200, 400, 500}, times.getData(), 0);
+    }
+
+    @Test
+    public void withoutTimes() {
+        RatingBuffer buffer = new RatingBuffer();
+        buffer.add(0, 0, 1);
+
+        assertFalse(buffer.hasTimes());
+        assertNull(buffer.toTimeMatrix(1, 1));
+    }
+
+    @Test
+    public void timesAfterEntriesWithout() {
+        RatingBuffer buffer = new RatingBuffer();
+        buffer.add(0, 0, 1);
+        buffer.add(0, 1, 2, 100L);
+
+        assertTrue(buffer.hasTimes());
+        assertArrayEquals(new double[]{0, 100}, buffer.toTimeMatrix(1, 2).getData(), 0);
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void cellOutsideMatrix() {
+        RatingBuffer buffer = new RatingBuffer();
+        buffer.add(2, 0, 1);
+        buffer.toRateMatrix(2, 2);
+    }
+
+    @Test
+    public void randomEntries() {
+        Random r = new Random(3);
+        RatingBuffer buffer = new RatingBuffer();
+        Map<Long, double[]> cells = new HashMap<>();
+        Map<Double, Integer> counts = new HashMap<>();
+
+        // more entries and distinct values than the initial capacities
+        int rows = 300, cols = 200;
+        for (int n = 0; n < 20000; n++) {
+            int row = r.nextInt(rows), col = r.nextInt(cols);
+            double val = r.nextInt(40) / 2.0;
+            long time = r.nextInt(1000000);
+            buffer.add(row, col, val, time);
+            cells.put(key(row, col), new double[]{val, time});
+            counts.merge(val, 1, Integer::sum);
+        }
+
+        assertEquals(20000, buffer.size());
+        assertCells(cells, buffer.toRateMatrix(rows, cols), 0);
+        assertCells(cells, buffer.toTimeMatrix(rows, cols), 1);
+        assertValues(counts, buffer);
+
+        // with more rows and columns than rated
+        SparseMatrix larger = buffer.toRateMatrix(rows + 5, cols + 5);
+        assertEquals(rows + 5, larger.numRows());
+        assertEquals(cols + 5, larger.numColumns());
+        assertCells(cells, larger, 0);
+    }
+
+    @Test
+    public void shiftValuesAndCounts() {
+        RatingBuffer buffer = new RatingBuffer();
+        Map<Double, Integer> counts = new HashMap<>();
+        Random r = new Random(5);
+        for (int n = 0; n < 3000; n++) {
+            double val = r.nextInt(21) / 4.0;
+            buffer.add(n % 17, n % 13, val);
+            counts.merge(val, 1, Integer::sum);
+        }
+        Map<Long, double[]> cells = new HashMap<>();
+        SparseMatrix before = buffer.toRateMatrix(17, 13);
+        for (MatrixEntry me : before)
+            cells.put(key(me.row(), me.column()), new double[]{me.get() + 0.25});
+
+        buffer.shift(0.25);
+
+        Map<Double, Integer> shifted = new HashMap<>();
+        for (Map.Entry<Double, Integer> en : counts.entrySet())
+            shifted.put(en.getKey() + 0.25, en.getValue());
+        assertValues(shifted, buffer);
+        assertEquals(0, buffer.count(0.0));
+        assertCells(cells, buffer.toRateMatrix(17, 13), 0);
+    }
+
+    @Test
+    public void shiftMergingValues() {
+        RatingBuffer buffer = new RatingBuffer();
+        buffer.add(0, 0, 1e-17);
+        buffer.add(0, 1, 0);
+        buffer.add(0, 2, 0);
+
+        // 1 + 1e-17 == 1 + 0
+        buffer.shift(1);
+
+        assertArrayEquals(new double[]{1}, buffer.distinctValues(), 0);
+        assertEquals(3, buffer.count(1));
+    }
+
+    private static void assertValues(Map<Double, Integer> counts, RatingBuffer buffer) {
+        double[] values = buffer.distinctValues();
+        assertEquals(counts.size(), values.length);
+        for (int i = 0; i < values.length; i++) {
+            if (i > 0)
+                assertTrue(values[i - 1] < values[i]);
+            assertEquals(counts.get(values[i]).intValue(), buffer.count(values[i]));
+        }
+    }
+
+    /**
+     * the stored entries are exactly the cells appended, with the value of the last entry of each
+     */
+    private static void assertCells(Map<Long, double[]> cells, SparseMatrix m, int field) {
+        int[] rowPtr = m.getRowPointers(), colInd = m.getColumnIndices();
+        double[] data = m.getData();
+        assertEquals(cells.size(), rowPtr[m.numRows()]);
+
+        for (int i = 0; i < m.numRows(); i++) {
+            for (int j = rowPtr[i]; j < rowPtr[i + 1]; j++) {
+                if (j > rowPtr[i])
+                    assertTrue(colInd[j - 1] < colInd[j]);
+                double[] cell = cells.get(key(i, colInd[j]));
+                assertTrue("(" + i + ", " + colInd[j] + ") is appended", cell != null);
+                assertEquals(cell[field], data[j], 0);
+            }
+        }
+
+        int[] colPtr = m.getColumnPointers(), rowInd = m.getRowIndices();
+        double[] colData = m.getColumnData();
+        for (int c = 0; c < m.numColumns(); c++)
+            for (int j = colPtr[c]; j < colPtr[c + 1]; j++)
+                assertEquals(cells.get(key(rowInd[j], c))[field], colData[j], 0);
+    }
+
+    private static long key(int row, int col) {
+        return (long) row << 32 | col;
+    }
+}
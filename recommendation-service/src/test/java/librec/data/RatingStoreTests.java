@@ -0,0 +1,222 @@
+package librec.data;
+
+import org.junit.Test;
+
+import java.util.HashMap;
+import java.util.Map;
+import java.util.Random;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotSame;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+
+/**
+ * Ratings added to a {@link RatingStore}, compacted or not, against a brute-force map of the rated cells
+ */
+public class RatingStoreTests {
+
+    @Test
+    public void laterRatingReplacesEarlierOne() {
+        RatingStore store = new RatingStore(matrix(3, 3, new int[]{0, 0, 1, 1, 2, 2}, new double[]{1, 2, 3}));
+
+        // a compacted cell, then a pending cell, replaced
+        store.add(1, 1, 4);
+        store.add(0, 2, 5);
+        store.add(0, 2, 1);
+        store.add(0, 2, 2);
+        assertEquals(4, store.get(1, 1), 0);
+        assertEquals(2, store.get(0, 2), 0);
+
+        SparseMatrix m = store.snapshot();
+        assertEquals(0, store.numPending());
+        assertEquals(4, m.size());
+        assertEquals(4, m.get(1, 1), 0);
+        assertEquals(2, m.get(0, 2), 0);
+        assertEquals(1, m.get(0, 0), 0);
+    }
+
+    @Test
+    public void zeroRatingIsStored() {
+        RatingStore store = new RatingStore(2, 2);
+        store.add(0, 1, 0);
+        store.add(1, 0, 3);
+        store.add(1, 0, 0);
+
+        SparseMatrix m = store.snapshot();
+        assertEquals(0, m.size());
+        assertEquals(2, stored(m));
+        assertArrayEquals(new int[]{0, 1, 2}, m.getRowPointers());
+        assertArrayEquals(new int[]{1, 0}, m.getColumnIndices());
+        assertArrayEquals(new double[]{0, 0}, m.getData(), 0);
+    }
+
+    @Test
+    public void rowsAndColumnsGrow() {
+        RatingStore store = new RatingStore(matrix(2, 2, new int[]{0, 0, 1, 1}, new double[]{1, 2}));
+
+        store.add(9, 0, 3);
+        store.add(0, 6, 4);
+        assertEquals(10, store.numRows());
+        assertEquals(7, store.numColumns());
+        assertEquals(3, store.get(9, 0), 0);
+        assertEquals(0, store.get(5, 5), 0);
+        assertEquals(0, store.get(10, 0), 0);
+
+        // the compacted matrix keeps its dimensions until the next compaction
+        assertEquals(2, store.matrix().numRows());
+
+        SparseMatrix m = store.snapshot();
+        assertEquals(10, m.numRows());
+        assertEquals(7, m.numColumns());
+        assertEquals(3, m.get(9, 0), 0);
+        assertEquals(4, m.get(0, 6), 0);
+        assertEquals(2, m.get(1, 1), 0);
+        assertCCS(m);
+
+        // dimensions only
+        store.add(0, 0, 5);
+        store.compact();
+        RatingStore grown = new RatingStore(store.snapshot());
+        grown.add(12, 0, 1);
+        grown.compact();
+        assertEquals(13, grown.snapshot().numRows());
+        assertEquals(5, grown.snapshot().size());
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void negativeCell() {
+        new RatingStore(2, 2).add(-1, 0, 1);
+    }
+
+    @Test
+    public void randomRatingsAcrossCompactions() {
+        Random r = new Random(7);
+        Map<Long, Double> cells = new HashMap<>();
+
+        // an initial matrix of 20 x 15, with some zeros
+        int[] entries = new int[2 * 100];
+        double[] vals = new double[100];
+        for (int k = 0; k < 100; k++) {
+            entries[2 * k] = r.nextInt(20);
+            entries[2 * k + 1] = r.nextInt(15);
+            vals[k] = r.nextInt(6);
+        }
+        SparseMatrix initial = matrix(20, 15, entries, vals);
+        for (MatrixEntry me : initial)
+            cells.put(key(me.row(), me.column()), me.get());
+
+        RatingStore store = new RatingStore(initial);
+        int numRows = 20, numColumns = 15, compactions = 0;
+        SparseMatrix last = store.matrix();
+        for (int n = 0; n < 5000; n++) {
+            // mostly within the current dimensions, sometimes beyond them
+            int row = r.nextInt(10) == 0 ? r.nextInt(60) : r.nextInt(numRows);
+            int col = r.nextInt(10) == 0 ? r.nextInt(40) : r.nextInt(numColumns);
+            double val = r.nextInt(6);
+            store.add(row, col, val);
+            cells.put(key(row, col), val);
+            numRows = Math.max(numRows, row + 1);
+            numColumns = Math.max(numColumns, col + 1);
+
+            if (store.matrix() != last) {
+                compactions++;
+                last = store.matrix();
+                assertEquals(0, store.numPending());
+                assertMatrix(cells, last, numRows, numColumns);
+            }
+            if (n % 500 == 0)
+                assertStore(cells, store, numRows + 2, numColumns + 2);
+        }
+
+        assertTrue("compactions: " + compactions, compactions >= 5);
+        assertStore(cells, store, numRows + 2, numColumns + 2);
+        assertMatrix(cells, store.snapshot(), numRows, numColumns);
+        assertSame(store.snapshot(), store.snapshot());
+    }
+
+    @Test
+    public void snapshotIsNotModified() {
+        RatingStore store = new RatingStore(matrix(2, 2, new int[]{0, 0}, new double[]{1}));
+        SparseMatrix before = store.snapshot();
+        int[] rowPtr = before.getRowPointers().clone();
+        double[] data = before.getData().clone();
+
+        store.add(0, 0, 2);
+        store.add(1, 1, 3);
+        SparseMatrix after = store.snapshot();
+
+        assertNotSame(before, after);
+        assertArrayEquals(rowPtr, before.getRowPointers());
+        assertArrayEquals(data, before.getData(), 0);
+        assertEquals(2, after.get(0, 0), 0);
+    }
+
+    private static void assertStore(Map<Long, Double> cells, RatingStore store, int rows, int cols) {
+        for (int i = 0; i < rows; i++) {
+            for (int j = 0; j < cols; j++) {
+                Double val = cells.get(key(i, j));
+                assertEquals("(" + i + ", " + j + ")", val == null ? 0 : val, store.get(i, j), 0);
+            }
+        }
+    }
+
+    /**
+     * the stored entries are exactly the rated cells, stored zeros included
+     */
+    private static void assertMatrix(Map<Long, Double> cells, SparseMatrix m, int rows, int cols) {
+        assertEquals(rows, m.numRows());
+        assertEquals(cols, m.numColumns());
+        assertEquals(cells.size(), stored(m));
+
+        int[] rowPtr = m.getRowPointers(), colInd = m.getColumnIndices();
+        double[] data = m.getData();
+        for (int i = 0; i < rows; i++) {
+            for (int j = rowPtr[i]; j < rowPtr[i + 1]; j++) {
+                if (j > rowPtr[i])
+                    assertTrue("columns of row " + i + " are ascending", colInd[j - 1] < colInd[j]);
+                Double val = cells.get(key(i, colInd[j]));
+                assertTrue("(" + i + ", " + colInd[j] + ") is rated", val != null);
+                assertEquals(val, data[j], 0);
+            }
+        }
+        assertCCS(m);
+    }
+
+    /**
+     * @return number of stored entries, while {@link SparseMatrix#size()} only counts the non-zero ones
+     */
+    private static int stored(SparseMatrix m) {
+        return m.getRowPointers()[m.numRows()];
+    }
+
+    private static void assertCCS(SparseMatrix m) {
+        int[] rowPtr = m.getRowPointers(), colInd = m.getColumnIndices();
+        int[] colPtr = m.getColumnPointers(), rowInd = m.getRowIndices();
+        double[] data = m.getData(), colData = m.getColumnData();
+        assertEquals(rowPtr[m.numRows()], colPtr[m.numColumns()]);
+
+        Map<Long, Double> crs = new HashMap<>();
+        for (int i = 0; i < m.numRows(); i++)
+            for (int j = rowPtr[i]; j < rowPtr[i + 1]; j++)
+                crs.put(key(i, colInd[j]), data[j]);
+        for (int c = 0; c < m.numColumns(); c++)
+            for (int j = colPtr[c]; j < colPtr[c + 1]; j++)
+                assertEquals(crs.get(key(rowInd[j], c)), colData[j], 0);
+    }
+
+    /**
+     * @param cells {row, column} pairs of the entries, the last one of a cell wins
+     */
+    private static SparseMatrix matrix(int rows, int cols, int[] cells, double[] vals) {
+        RatingBuffer buffer = new RatingBuffer();
+        for (int k = 0; k < vals.length; k++)
+            buffer.add(cells[2 * k], cells[2 * k + 1], vals[k]);
+        return buffer.toRateMatrix(rows, cols);
+    }
+
+    private static long key(int row, int col) {
+        return (long) row << 32 | col;
+    }
+}
@@ -0,0 +1,265 @@
+package librec.data;
+
+import com.google.common.collect.BiMap;
+import com.google.common.collect.HashBiMap;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.file.Files;
+import java.util.Random;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+/**
+ * Round trip of every section type through a snapshot file, and the snapshot files that must not be loaded: other
+ * files, other versions, truncated snapshots, uncommitted snapshots and snapshots of other rating data.
+ */
+public class SnapshotTests {
+
+    @Rule
+    public TemporaryFolder folder = new TemporaryFolder();
+
+    @Test
+    public void roundTrip() throws IOException {
+        SparseMatrix ratings = sparse(50, 30, 0.2, 1);
+        SparseMatrix crsOnly = new SparseMatrix(3, 4, new int[]{0, 2, 2, 3}, new int[]{1, 3, 0},
+                new double[]{1, 2, 3}, null, null, null);
+        SparseMatrix empty = new RatingBuffer().toRateMatrix(2, 2);
+        DenseMatrix userFactors = dense(50, 10, 2), itemFactors = dense(30, 10, 3);
+        DenseVector userBiases = new DenseVector(new double[]{0.5, -1, Double.MIN_VALUE, 1e300});
+        BiMap<String, Integer> userIds = ids(50, "u"), itemIds = ids(30, "élément-");
+
+        String path = new File(folder.getRoot(), "model.snap").getPath();
+        try (Snapshot.Writer writer = new Snapshot.Writer(path)) {
+            writer.put("ratings", ratings).put("crsOnly", crsOnly).put("empty", empty);
+            writer.put("userFactors", userFactors).put("itemFactors", itemFactors);
+            writer.put("userBiases", userBiases);
+            writer.put("userIds", userIds).put("itemIds", itemIds);
+            writer.commit();
+        }
+        assertFalse(new File(path + ".tmp").exists());
+
+        try (Snapshot.Reader reader = new Snapshot.Reader(path)) {
+            assertEquals(8, reader.names().size());
+            assertTrue(reader.contains("userBiases"));
+            assertFalse(reader.contains("itemBiases"));
+
+            assertSparseEquals(ratings, reader.getSparseMatrix("ratings"));
+            assertSparseEquals(empty, reader.getSparseMatrix("empty"));
+            SparseMatrix crs = reader.getSparseMatrix("crsOnly");
+            assertArrayEquals(crsOnly.getRowPointers(), crs.getRowPointers());
+            assertArrayEquals(crsOnly.getColumnIndices(), crs.getColumnIndices());
+            assertArrayEquals(crsOnly.getData(), crs.getData(), 0);
+            assertNull(crs.getColumnPointers());
+
+            assertDenseEquals(userFactors, reader.getDenseMatrix("userFactors"));
+            assertDenseEquals(itemFactors, reader.getDenseMatrix("itemFactors"));
+            assertArrayEquals(userBiases.getData(), reader.getDenseVector("userBiases").getData(), 0);
+
+            assertEquals(userIds, reader.getIds("userIds"));
+            assertEquals(itemIds, reader.getIds("itemIds"));
+        }
+    }
+
+    @Test(expected = IOException.class)
+    public void sectionOfOtherType() throws IOException {
+        String path = write(new File(folder.getRoot(), "model.snap"));
+        try (Snapshot.Reader reader = new Snapshot.Reader(path)) {
+            reader.getDenseMatrix("userBiases");
+        }
+    }
+
+    @Test(expected = IOException.class)
+    public void missingSection() throws IOException {
+        String path = write(new File(folder.getRoot(), "model.snap"));
+        try (Snapshot.Reader reader = new Snapshot.Reader(path)) {
+            reader.getDenseVector("itemBiases");
+        }
+    }
+
+    @Test
+    public void badMagic() throws IOException {
+        File file = folder.newFile("model.snap");
+        Files.write(file.toPath(), new byte[64]);
+        assertNotLoaded(file);
+
+        write(file);
+        patchInt(file, 0, 0x12345678);
+        assertNotLoaded(file);
+    }
+
+    @Test
+    public void otherVersion() throws IOException {
+        File file = new File(folder.getRoot(), "model.snap");
+        write(file);
+        patchInt(file, 4, Snapshot.VERSION + 1);
+
+        try {
+            new Snapshot.Reader(file.getPath()).close();
+            fail("a snapshot of another version is loaded");
+        } catch (IOException e) {
+            assertTrue(e.getMessage(), e.getMessage().contains("version " + (Snapshot.VERSION + 1)));
+        }
+    }
+
+    @Test
+    public void truncated() throws IOException {
+        File file = new File(folder.getRoot(), "model.snap");
+        byte[] bytes = Files.readAllBytes(new File(write(file)).toPath());
+
+        // within the header, the sections and the table of contents
+        for (int length : new int[]{0, 8, 31, 32, 100, bytes.length / 2, bytes.length - 20, bytes.length - 1}) {
+            try (RandomAccessFile raf = new RandomAccessFile(file, "rw")) {
+                raf.write(bytes);
+                raf.setLength(length);
+            }
+            assertNotLoaded(file);
+        }
+    }
+
+    @Test
+    public void uncommitted() throws IOException {
+        File file = new File(folder.getRoot(), "model.snap");
+        write(file);
+        byte[] committed = Files.readAllBytes(file.toPath());
+
+        try (Snapshot.Writer writer = new Snapshot.Writer(file.getPath())) {
+            writer.put("userFactors", dense(3, 2, 4));
+        }
+
+        assertArrayEquals(committed, Files.readAllBytes(file.toPath()));
+        assertFalse(new File(file.getPath() + ".tmp").exists());
+
+        File other = new File(folder.getRoot(), "other.snap");
+        try (Snapshot.Writer writer = new Snapshot.Writer(other.getPath())) {
+            writer.put("userFactors", dense(3, 2, 4));
+        }
+        assertFalse(other.exists());
+    }
+
+    @Test
+    public void idsOfRatingData() throws IOException {
+        String path = write(new File(folder.getRoot(), "model.snap"));
+
+        try (Snapshot.Reader reader = new Snapshot.Reader(path)) {
+            reader.checkIds(new DataDAO("ratings.csv", ids(5, "u"), ids(4, "i")));
+
+            assertIdsDiffer(reader, new DataDAO("ratings.csv", ids(6, "u"), ids(4, "i")));
+            assertIdsDiffer(reader, new DataDAO("ratings.csv", ids(5, "u"), ids(4, "j")));
+
+            // same raw ids, other inner ids
+            BiMap<String, Integer> swapped = ids(5, "u");
+            swapped.forcePut("u0", 1);
+            swapped.put("u1", 0);
+            assertIdsDiffer(reader, new DataDAO("ratings.csv", swapped, ids(4, "i")));
+        }
+    }
+
+    @Test
+    public void idsOfItemsAsUsers() throws IOException {
+        String path = new File(folder.getRoot(), "model.snap").getPath();
+        try (Snapshot.Writer writer = new Snapshot.Writer(path)) {
+            writer.put("userIds", ids(5, "u"));
+            writer.commit();
+        }
+
+        try (Snapshot.Reader reader = new Snapshot.Reader(path)) {
+            reader.checkIds(new DataDAO("ratings.csv", ids(5, "u")));
+            assertIdsDiffer(reader, new DataDAO("ratings.csv", ids(5, "u"), ids(5, "i")));
+        }
+    }
+
+    /**
+     * @return path of a snapshot of 5 users, 4 items and 2 factors
+     */
+    private static String write(File file) throws IOException {
+        try (Snapshot.Writer writer = new Snapshot.Writer(file.getPath())) {
+            writer.put("userFactors", dense(5, 2, 5)).put("itemFactors", dense(4, 2, 6));
+            writer.put("userBiases", new DenseVector(new double[]{1, 2, 3, 4, 5}));
+            writer.put("userIds", ids(5, "u")).put("itemIds", ids(4, "i"));
+            writer.commit();
+        }
+        return file.getPath();
+    }
+
+    private static void assertNotLoaded(File file) {
+        try {
+            new Snapshot.Reader(file.getPath()).close();
+            fail(file.length() + " bytes are loaded as a snapshot");
+        } catch (IOException e) {
+            // expected
+        }
+    }
+
+    private static void assertIdsDiffer(Snapshot.Reader reader, DataDAO rateDao) throws IOException {
+        try {
+            reader.checkIds(rateDao);
+            fail("ids of other rating data are accepted");
+        } catch (IllegalStateException e) {
+            // expected
+        }
+    }
+
+    private static void patchInt(File file, long position, int value) throws IOException {
+        try (RandomAccessFile raf = new RandomAccessFile(file, "rw")) {
+            raf.seek(position);
+            // little-endian
+            raf.writeInt(Integer.reverseBytes(value));
+        }
+    }
+
+    private static void assertSparseEquals(SparseMatrix expected, SparseMatrix actual) {
+        assertEquals(expected.numRows(), actual.numRows());
+        assertEquals(expected.numColumns(), actual.numColumns());
+        assertArrayEquals(expected.getRowPointers(), actual.getRowPointers());
+        assertArrayEquals(expected.getColumnIndices(), actual.getColumnIndices());
+        assertArrayEquals(expected.getData(), actual.getData(), 0);
+        assertArrayEquals(expected.getColumnPointers(), actual.getColumnPointers());
+        assertArrayEquals(expected.getRowIndices(), actual.getRowIndices());
+        assertArrayEquals(expected.getColumnData(), actual.getColumnData(), 0);
+    }
+
+    private static void assertDenseEquals(DenseMatrix expected, DenseMatrix actual) {
+        assertEquals(expected.numRows(), actual.numRows());
+        assertEquals(expected.numColumns(), actual.numColumns());
+        for (int i = 0; i < expected.numRows(); i++)
+            assertArrayEquals(expected.data[i], actual.data[i], 0);
+    }
+
+    private static SparseMatrix sparse(int rows, int cols, double density, long seed) {
+        Random r = new Random(seed);
+        RatingBuffer buffer = new RatingBuffer();
+        for (int i = 0; i < rows; i++) {
+            for (int j = 0; j < cols; j++) {
+                if (r.nextDouble() < density)
+                    buffer.add(i, j, 1 + r.nextInt(5));
+            }
+        }
+        return buffer.toRateMatrix(rows, cols);
+    }
+
+    private static DenseMatrix dense(int rows, int cols, long seed) {
+        Random r = new Random(seed);
+        double[][] data = new double[rows][cols];
+        for (double[] row : data)
+            for (int j = 0; j < cols; j++)
+                row[j] = r.nextGaussian();
+        return new DenseMatrix(data, rows, cols);
+    }
+
+    private static BiMap<String, Integer> ids(int n, String prefix) {
+        BiMap<String, Integer> ids = HashBiMap.create(n);
+        for (int i = 0; i < n; i++)
+            ids.put(prefix + i, i);
+        return ids;
+    }
+}
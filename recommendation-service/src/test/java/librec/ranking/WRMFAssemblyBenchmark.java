@@ -0,0 +1,117 @@
+package librec.ranking;
+
+import librec.data.DataDAO;
+import librec.data.DenseMatrix;
+import librec.data.DenseVector;
+import librec.data.MatrixEntry;
+import librec.data.SparseMatrix;
+import org.openjdk.jmh.annotations.*;
+import org.openjdk.jmh.infra.Blackhole;
+import org.openjdk.jmh.runner.Runner;
+import org.openjdk.jmh.runner.RunnerException;
+import org.openjdk.jmh.runner.options.Options;
+import org.openjdk.jmh.runner.options.OptionsBuilder;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Assembly of the WRMF user-side normal equations for all users of the bundled MovieLens ratings: the dense
+ * {@code YtCuI} scratch of the original implementation vs. {@link WRMF#assemble} over the CRS arrays.
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 3)
+@Measurement(iterations = 5)
+@Fork(1)
+@State(Scope.Benchmark)
+public class WRMFAssemblyBenchmark {
+
+    @Param({"10", "50"})
+    int numFactors;
+
+    private SparseMatrix CuiI, Pui;
+    private List<List<Integer>> userItemList;
+    private DenseMatrix Y, Yt, YtY, A;
+    private DenseVector b;
+    private int numUsers, numItems;
+
+    @Setup
+    public void setup() throws Exception {
+        DataDAO dao = new DataDAO("static/demo/Datasets/Movie/ratings.csv");
+        SparseMatrix trainMatrix = dao.readData(new int[]{0, 1, 2}, -1)[0];
+        numUsers = trainMatrix.numRows();
+        numItems = trainMatrix.numColumns();
+
+        CuiI = new SparseMatrix(trainMatrix);
+        Pui = new SparseMatrix(trainMatrix);
+        for (MatrixEntry me : trainMatrix) {
+            CuiI.set(me.row(), me.column(), Math.log(1.0 + Math.pow(10, 4) * me.get()));
+            Pui.set(me.row(), me.column(), 1.0);
+        }
+
+        userItemList = new ArrayList<>();
+        for (int u = 0; u < numUsers; u++)
+            userItemList.add(trainMatrix.getColumns(u));
+
+        Y = new DenseMatrix(numItems, numFactors);
+        Y.init(0.0, 0.1);
+        Yt = Y.transpose();
+        YtY = Y.transMult();
+
+        A = new DenseMatrix(numFactors, numFactors);
+        b = new DenseVector(numFactors);
+    }
+
+    @Benchmark
+    public void denseScratch(Blackhole bh) {
+        for (int u = 0; u < numUsers; u++) {
+            DenseMatrix YtCuI = new DenseMatrix(numFactors, numItems);
+            for (int i : userItemList.get(u)) {
+                for (int k = 0; k < numFactors; k++) {
+                    YtCuI.set(k, i, Y.get(i, k) * CuiI.get(u, i));
+                }
+            }
+
+            DenseMatrix YtCuY = new DenseMatrix(numFactors, numFactors);
+            for (int k = 0; k < numFactors; k++) {
+                for (int f = 0; f < numFactors; f++) {
+                    double value = 0.0;
+                    for (int i : userItemList.get(u)) {
+                        value += YtCuI.get(k, i) * Y.get(i, f);
+                    }
+                    YtCuY.set(k, f, value);
+                }
+            }
+            YtCuY = YtCuY.add(YtY);
+
+            DenseVector YtCuPu = new DenseVector(numFactors);
+            for (int f = 0; f < numFactors; f++) {
+                for (int i : userItemList.get(u)) {
+                    YtCuPu.add(f, Pui.get(u, i) * (YtCuI.get(f, i) + Yt.get(f, i)));
+                }
+            }
+
+            bh.consume(YtCuY);
+            bh.consume(YtCuPu);
+        }
+    }
+
+    @Benchmark
+    public void sparseKernel(Blackhole bh) {
+        int[] rowPtr = CuiI.getRowPointers();
+        for (int u = 0; u < numUsers; u++) {
+            WRMF.assemble(CuiI.getColumnIndices(), CuiI.getData(), Pui.getData(), rowPtr[u], rowPtr[u + 1], Y, YtY,
+                    0.0, A, b);
+
+            bh.consume(A);
+            bh.consume(b);
+        }
+    }
+
+    public static void main(String[] args) throws RunnerException {
+        Options opt = new OptionsBuilder().include(WRMFAssemblyBenchmark.class.getSimpleName()).build();
+        new Runner(opt).run();
+    }
+}
@@ -0,0 +1,56 @@
+package librec.ranking;
+
+import librec.data.DataSplitter;
+import librec.data.SparseMatrix;
+import librec.intf.IterativeRecommender;
+import librec.intf.Recommender;
+import librec.intf.Recommender.Measure;
+import librec.main.LibRec;
+import librec.util.Randoms;
+
+import java.util.Map;
+
+/**
+ * Wall-clock time and ranking quality of WRMF trained with the exact per-row solve ({@code -solver inv}) vs. a few
+ * warm-started conjugate-gradient steps ({@code -solver cg}), on an 80/20 split of the bundled MovieLens ratings.
+ * <p>
+ * Usage: {@code WRMFSolverBenchmark [factors,...] [cgSteps,...]}, e.g. {@code 10,50,100 1,3}.
+ */
+public class WRMFSolverBenchmark {
+
+    public static void main(String[] args) throws Exception {
+        String[] factors = (args.length > 0 ? args[0] : "10,50,100").split(",");
+        String[] steps = (args.length > 1 ? args[1] : "1,3").split(",");
+
+        LibRec librec = new LibRec();
+        librec.setConfigFiles("static/demo/config/WRMF.conf");
+        SparseMatrix rateMatrix = librec.execute(null);
+
+        Randoms.seed(1);
+        SparseMatrix[] data = new DataSplitter(rateMatrix).getRatioByRating(0.8);
+        String options = Recommender.cf.getString("WRMF");
+
+        System.out.println("factors\tsolver\ttrain(ms)\tPre10\tRec10\tMAP\tNDCG\tAUC");
+        for (String k : factors) {
+            run(data, options, Integer.parseInt(k), "inv");
+            for (String n : steps)
+                run(data, options + " -solver cg -cg-steps " + n, Integer.parseInt(k), "cg" + n);
+        }
+    }
+
+    private static void run(SparseMatrix[] data, String options, int numFactors, String solver) throws Exception {
+        Recommender.cf.setString("WRMF", options);
+        Randoms.seed(1);
+
+        WRMF wrmf = new WRMF(data[0], data[1], -1);
+        IterativeRecommender.setNumFactors(numFactors);
+        // time the training, not the load of a snapshot saved by an earlier run
+        wrmf.setLoadAllowed(false);
+        wrmf.execute();
+
+        Map<Measure, Double> m = wrmf.measures;
+        System.out.printf("%d\t%s\t%.0f\t%.4f\t%.4f\t%.4f\t%.4f\t%.4f%n", numFactors, solver, m.get(Measure.TrainTime),
+                m.get(Measure.Pre10), m.get(Measure.Rec10), m.get(Measure.MAP), m.get(Measure.NDCG),
+                m.get(Measure.AUC));
+    }
+}
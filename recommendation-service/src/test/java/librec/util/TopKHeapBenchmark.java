@@ -0,0 +1,73 @@
+package librec.util;
+
+import org.openjdk.jmh.annotations.*;
+import org.openjdk.jmh.profile.GCProfiler;
+import org.openjdk.jmh.runner.Runner;
+import org.openjdk.jmh.runner.RunnerException;
+import org.openjdk.jmh.runner.options.Options;
+import org.openjdk.jmh.runner.options.OptionsBuilder;
+
+import java.util.AbstractMap.SimpleImmutableEntry;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Top-10 selection over the ranking scores of one user: boxed entries sorted by {@link Lists#sortListTopK} vs. a
+ * reused {@link TopKHeap}. Run with the GC profiler, whose {@code gc.alloc.rate.norm} is the number of bytes allocated
+ * per user.
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3)
+@Measurement(iterations = 5)
+@Fork(1)
+@State(Scope.Thread)
+public class TopKHeapBenchmark {
+
+    @Param({"1682", "10000"})
+    int numItems;
+
+    private static final int numTopNRanks = 10;
+
+    private double[] scores;
+    private TopKHeap topN;
+
+    @Setup
+    public void setup() {
+        Random r = new Random(1);
+        scores = new double[numItems];
+        for (int j = 0; j < numItems; j++)
+            scores[j] = r.nextDouble();
+
+        topN = new TopKHeap(numTopNRanks);
+    }
+
+    @Benchmark
+    public int boxedEntries() {
+        List<Map.Entry<Integer, Double>> itemScores = new ArrayList<>();
+        for (int j = 0; j < numItems; j++)
+            itemScores.add(new SimpleImmutableEntry<>(j, scores[j]));
+
+        itemScores = Lists.sortListTopK(itemScores, true, numTopNRanks);
+        return itemScores.get(0).getKey();
+    }
+
+    @Benchmark
+    public int primitiveHeap() {
+        topN.clear();
+        for (int j = 0; j < numItems; j++)
+            topN.offer(j, scores[j]);
+
+        topN.sort();
+        return topN.id(0);
+    }
+
+    public static void main(String[] args) throws RunnerException {
+        Options opt = new OptionsBuilder().include(TopKHeapBenchmark.class.getSimpleName())
+                .addProfiler(GCProfiler.class).build();
+        new Runner(opt).run();
+    }
+}
@@ -0,0 +1,65 @@
+package service.data.importer;
+
+import org.neo4j.graphdb.GraphDatabaseService;
+import org.neo4j.graphdb.factory.GraphDatabaseFactory;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.TearDown;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.Comparator;
+
+/**
+ * Copy of the bundled MovieLens {@code ratings.csv} (100,000 ratings) and a new, empty embedded graph database for
+ * each invocation of the import benchmarks.
+ */
+abstract class EmptyDatabaseBenchmark {
+
+    private static final String RATINGS = "/static/demo/Datasets/Movie/ratings.csv";
+
+    // the bundled file has no header, while the importer and LOAD CSV WITH HEADERS read the columns by name
+    private static final String HEADER = "userId,movieId,rating,timestamp\n";
+
+    File csv;
+    GraphDatabaseService graphDatabaseService;
+
+    private Path store;
+
+    @Setup(Level.Trial)
+    public void copyRatings() throws IOException {
+        csv = File.createTempFile("ratings", ".csv");
+        try (InputStream in = EmptyDatabaseBenchmark.class.getResourceAsStream(RATINGS);
+             OutputStream out = Files.newOutputStream(csv.toPath())) {
+            out.write(HEADER.getBytes(StandardCharsets.UTF_8));
+            byte[] buffer = new byte[8192];
+            int read;
+            while ((read = in.read(buffer)) != -1)
+                out.write(buffer, 0, read);
+        }
+    }
+
+    @TearDown(Level.Trial)
+    public void deleteRatings() {
+        csv.delete();
+    }
+
+    @Setup(Level.Invocation)
+    public void createDatabase() throws IOException {
+        store = Files.createTempDirectory("ratings-graph");
+        graphDatabaseService = new GraphDatabaseFactory().newEmbeddedDatabase(store.toString());
+        graphDatabaseService.execute("CREATE INDEX ON :User(id)").close();
+        graphDatabaseService.execute("CREATE INDEX ON :Product(id)").close();
+    }
+
+    @TearDown(Level.Invocation)
+    public void deleteDatabase() throws IOException {
+        graphDatabaseService.shutdown();
+        Files.walk(store).sorted(Comparator.reverseOrder()).map(Path::toFile).forEach(File::delete);
+    }
+}
@@ -0,0 +1,40 @@
+package service.data.importer;
+
+import org.openjdk.jmh.annotations.*;
+import org.openjdk.jmh.runner.Runner;
+import org.openjdk.jmh.runner.RunnerException;
+import org.openjdk.jmh.runner.options.Options;
+import org.openjdk.jmh.runner.options.OptionsBuilder;
+
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Baseline of {@link RatingImporterBenchmark}: import of the bundled MovieLens {@code ratings.csv} into an empty
+ * embedded graph database with the {@code LOAD CSV ... MERGE} bootstrap query.
+ */
+@BenchmarkMode(Mode.SingleShotTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 2)
+@Measurement(iterations = 5)
+@Fork(value = 1, jvmArgsAppend = "-Xmx4g")
+@State(Scope.Benchmark)
+public class LoadCsvMergeBenchmark extends EmptyDatabaseBenchmark {
+
+    @Benchmark
+    public void loadCsvMerge() {
+        graphDatabaseService.execute(String.format("USING PERIODIC COMMIT 20000\n" +
+                "LOAD CSV WITH HEADERS FROM \"%s\" AS csvLine\n" +
+                "MERGE (user:User:_User { id: toInt(csvLine.userId) })\n" +
+                "ON CREATE SET user.__type__=\"User\", user.className=\"data.domain.nodes.User\", user.knownId = csvLine.userId\n" +
+                "MERGE (product:Product:_Product { id: toInt(csvLine.movieId) })\n" +
+                "ON CREATE SET product.__type__=\"Product\", product.className=\"data.domain.nodes.Product\", product.knownId = csvLine.movieId\n" +
+                "MERGE (user)-[r:Rating]->(product)\n" +
+                "ON CREATE SET r.timestamp = toInt(csvLine.timestamp), r.rating = toInt(csvLine.rating), r.knownId = csvLine.userId + \"_\" + csvLine.movieId, r.__type__ = \"Rating\", r.className = \"data.domain.rels.Rating\"",
+                csv.toURI())).close();
+    }
+
+    public static void main(String[] args) throws RunnerException {
+        Options opt = new OptionsBuilder().include(LoadCsvMergeBenchmark.class.getSimpleName()).build();
+        new Runner(opt).run();
+    }
+}
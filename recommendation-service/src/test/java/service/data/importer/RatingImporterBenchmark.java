@@ -0,0 +1,48 @@
+package service.data.importer;
+
+import org.openjdk.jmh.annotations.*;
+import org.openjdk.jmh.runner.Runner;
+import org.openjdk.jmh.runner.RunnerException;
+import org.openjdk.jmh.runner.options.Options;
+import org.openjdk.jmh.runner.options.OptionsBuilder;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.file.Files;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Import of the bundled MovieLens {@code ratings.csv} (100,000 ratings) into an empty embedded graph database by
+ * {@link RatingImporter} with different batch sizes and numbers of writer threads. Each invocation imports into a new
+ * database; {@link LoadCsvMergeBenchmark} is the {@code LOAD CSV ... MERGE} baseline.
+ */
+@BenchmarkMode(Mode.SingleShotTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 2)
+@Measurement(iterations = 5)
+@Fork(value = 1, jvmArgsAppend = "-Xmx4g")
+@State(Scope.Benchmark)
+public class RatingImporterBenchmark extends EmptyDatabaseBenchmark {
+
+    @Param({"1", "4"})
+    int threads;
+
+    @Param({"5000", "20000"})
+    int batchSize;
+
+    @Benchmark
+    public long ratingImporter() throws IOException {
+        try (InputStream in = Files.newInputStream(csv.toPath())) {
+            return new RatingImporter(graphDatabaseService)
+                    .setThreads(threads)
+                    .setBatchSize(batchSize)
+                    .importRatings(in)
+                    .getRatingsCreated();
+        }
+    }
+
+    public static void main(String[] args) throws RunnerException {
+        Options opt = new OptionsBuilder().include(RatingImporterBenchmark.class.getSimpleName()).build();
+        new Runner(opt).run();
+    }
+}
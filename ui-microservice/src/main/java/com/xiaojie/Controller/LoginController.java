@@ -93,21 +93,12 @@ public class LoginController {
                 .getContent()
                 .stream()
                 .collect(Collectors.toList());
-        List<Movie> recommendationMovieList = movieClient.findByIds(recommendationList.stream().map(a->a.getKnownId()).collect(Collectors.joining(",")))
-                .getContent()
-                .stream()
-                .collect(Collectors.toList());
+        List<Movie> recommendationMovieList = movieClient.lookupByIds(recommendationList.stream().map(a->a.getKnownId()).collect(Collectors.joining(",")));
         mav.addObject("recommendationMovieList", recommendationMovieList);
 
         //用户观看过的
-        List<Product> viewedList = ratingClient.findProductsByUser("4")
-                .getContent()
-                .stream()
-                .collect(Collectors.toList());
-        List<Movie> viewedMovieList = movieClient.findByIds(viewedList.stream().map(a->a.getKnownId()).collect(Collectors.joining(",")))
-                .getContent()
-                .stream()
-                .collect(Collectors.toList());
+        List<Product> viewedList = ratingClient.lookupProductsByUser("4");
+        List<Movie> viewedMovieList = movieClient.lookupByIds(viewedList.stream().map(a->a.getKnownId()).collect(Collectors.joining(",")));
         mav.addObject("viewedMovieList", viewedMovieList);
 
 //        UserInfo userInfo = new UserInfo();
@@ -119,10 +110,7 @@ public class LoginController {
 
     @RequestMapping(value = "/getmovies", method = RequestMethod.GET)
     public JSONObject getmovies(@RequestParam(value = "movieid",required = true) String movieid){
-        List<Movie> viewedMovieList = movieClient.findByIds(recommendationService.getSimilarMovies(movieid))
-                .getContent()
-                .stream()
-                .collect(Collectors.toList());
+        List<Movie> viewedMovieList = movieClient.lookupByIds(recommendationService.getSimilarMovies(movieid));
 
         JSONObject jsonObject = new JSONObject();
         JSONArray jsonArray = new JSONArray();
@@ -20,6 +20,11 @@ public interface MovieClient {
             value = "/movies/search/findByTitleContainingIgnoreCase?title={title}")
     PagedResources<Movie> findByTitleContainingIgnoreCase(@PathVariable("title") String title);
 
+    @RequestMapping(
+            method = RequestMethod.GET,
+            value = "/lookup/movies/search?title={title}")
+    List<Movie> searchByTitle(@PathVariable("title") String title);
+
     @RequestMapping(
             method = RequestMethod.GET,
             value = "/movies/{id}")
@@ -29,6 +34,10 @@ public interface MovieClient {
             value = "/movies/search/findByIdIn?ids={ids}")
     PagedResources<Movie> findByIds(@PathVariable("ids") String ids);
 
+    @RequestMapping(method = RequestMethod.GET,
+            value = "/lookup/movies?ids={ids}")
+    List<Movie> lookupByIds(@PathVariable("ids") String ids);
+
     @RequestMapping(method = RequestMethod.POST, value = "/movies",
             consumes = MediaType.APPLICATION_JSON_VALUE,
             produces = MediaType.APPLICATION_JSON_VALUE)
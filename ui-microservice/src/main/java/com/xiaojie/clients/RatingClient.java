@@ -20,6 +20,9 @@ public interface RatingClient {
     @RequestMapping(method = RequestMethod.GET, value = "/products/search/findProductsByUser?id={id}")
     PagedResources<Product> findProductsByUser(@PathVariable("id") String id);
 
+    @RequestMapping(method = RequestMethod.GET, value = "/lookup/users/{id}/products")
+    List<Product> lookupProductsByUser(@PathVariable("id") String id);
+
     @RequestMapping(method = RequestMethod.GET, value = "/movies/{id}")
     List<Movie> findById(@PathVariable("id") String id);
 
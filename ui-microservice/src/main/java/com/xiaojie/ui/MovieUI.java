@@ -135,8 +135,7 @@ public class MovieUI extends UI {
         if(!Objects.equals(stringFilter.trim(), "")) {
             movieList.setContainerDataSource(new BeanItemContainer<>(
                     Movie.class, movieClient
-                        .findByTitleContainingIgnoreCase(stringFilter)
-                        .getContent()));
+                        .searchByTitle(stringFilter)));
         }
     }
 
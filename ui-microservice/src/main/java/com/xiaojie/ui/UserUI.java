@@ -143,14 +143,11 @@ public class UserUI extends UI {
     private void populateMovies(Long userId) {
 
         // Get the movies that this user has rated
-        List<Product> productList = ratingClient.findProductsByUser(userId.toString())
-                .getContent()
-                .stream()
-                .collect(Collectors.toList());
+        List<Product> productList = ratingClient.lookupProductsByUser(userId.toString());
 
         // Translate those records to movie records
         ratings.setContainerDataSource(new BeanItemContainer<>(Movie.class,
-                movieClient.findByIds(productList.stream().map(a -> a.getKnownId()).collect(Collectors.joining(","))).getContent()));
+                movieClient.lookupByIds(productList.stream().map(a -> a.getKnownId()).collect(Collectors.joining(",")))));
     }
 
     private void buildLayout() {